@@ -274,6 +274,16 @@ namespace Microsoft.C3P
                     });
                 }
 
+                foreach (PluginInfo.AssemblyClassInfo classInfo in this.PluginInfo.Assembly.Classes
+                    .Where(c => c.GetPrefetchProperties().Length > 0))
+                {
+                    pluginFeatureInfo.Params.Add(new PluginInfo.ConfigParamInfo
+                    {
+                        Name = "plugin-prefetch:" + classInfo.Name,
+                        Value = String.Join(",", classInfo.GetPrefetchProperties()),
+                    });
+                }
+
                 this.PluginInfo.AndroidPlatform.ConfigFiles.Add(new PluginInfo.ConfigFileInfo
                 {
                     Target = "res/xml/config.xml",
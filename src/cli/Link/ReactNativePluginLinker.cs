@@ -144,6 +144,22 @@ namespace Microsoft.C3P
                     code.Code($"NativeModules.C3P.registerMarshalByValueClass(\"{classInfo.Name}\");");
                 }
 
+                var prefetchClasses = this.PluginInfo.Assembly.Classes
+                    .Where(c => c.GetPrefetchProperties().Length > 0).ToArray();
+                if (this.PluginInfo.AndroidPlatform != null && prefetchClasses.Length > 0)
+                {
+                    // Prefetching of properties is currently only supported by the Android bridge.
+                    code.Code("if (Platform.OS === \"android\") {");
+
+                    foreach (var classInfo in prefetchClasses)
+                    {
+                        code.Code($"\tNativeModules.C3P.registerPrefetchProperties(\"{classInfo.Name}\", [" +
+                            string.Join(", ", classInfo.GetPrefetchProperties().Select(p => $"\"{p}\"")) + "]);");
+                    }
+
+                    code.Code("}");
+                }
+
                 string[] includeNamespaces = allNamespaces.ToArray();
 
                 code.Code();
@@ -89,6 +89,19 @@ namespace Microsoft.C3P
             [XmlAttribute("marshal-by-value")]
             public string MarshalByValue { get; set; }
 
+            /// <summary>
+            /// Space- or comma-separated names of properties of a marshal-by-reference class whose
+            /// values are sent along with each instance, so that they can be read without another call.
+            /// </summary>
+            [XmlAttribute("prefetch-properties")]
+            public string PrefetchProperties { get; set; }
+
+            public string[] GetPrefetchProperties()
+            {
+                return (this.PrefetchProperties ?? String.Empty).Split(
+                    new[] { ' ', ',' }, StringSplitOptions.RemoveEmptyEntries);
+            }
+
             [XmlElement("type-binding")]
             public List<TypeBindingInfo> TypeBindings { get; set; }
         }
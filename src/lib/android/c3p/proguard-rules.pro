@@ -15,3 +15,9 @@
 #-keepclassmembers class fqcn.of.javascript.interface.for.webview {
 #   public *;
 #}
+
+# Generated member dispatchers are loaded by name, so they must be kept along with their
+# default constructors. (Rules in this file are also applied to apps that use this library.)
+-keep class * implements com.microsoft.c3p.MemberDispatcher {
+    public <init>();
+}
@@ -0,0 +1,358 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for details.
+
+package com.microsoft.c3p;
+
+import com.microsoft.c3p.js.JavaScriptType;
+import com.microsoft.c3p.js.JavaScriptValue;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts a JavaScript value to a specific Java parameter type. Converters are created once
+ * per parameter of a resolved member (see JavaScriptMarshaller.compileArgumentConverters()),
+ * so that the type checks against the parameter class are not repeated for every call.
+ *
+ * Each converter handles the common cases for its type directly, and defers anything else to
+ * JavaScriptMarshaller.marshalFromJavaScript(), so conversion results (and errors) are always
+ * the same as with the general-purpose marshalling path.
+ */
+abstract class ArgumentConverter {
+    protected final Class<?> type;
+    protected final JavaScriptMarshaller marshaller;
+
+    protected ArgumentConverter(Class<?> type, JavaScriptMarshaller marshaller) {
+        this.type = type;
+        this.marshaller = marshaller;
+    }
+
+    /**
+     * Creates a converter specialized for a parameter type.
+     */
+    public static ArgumentConverter create(Class<?> type, JavaScriptMarshaller marshaller) {
+        if (type == boolean.class || type == Boolean.class) {
+            return new BooleanConverter(type, marshaller);
+        } else if (type == byte.class || type == Byte.class) {
+            return new ByteConverter(type, marshaller);
+        } else if (type == char.class || type == Character.class) {
+            return new CharacterConverter(type, marshaller);
+        } else if (type == short.class || type == Short.class) {
+            return new ShortConverter(type, marshaller);
+        } else if (type == int.class || type == Integer.class) {
+            return new IntegerConverter(type, marshaller);
+        } else if (type == long.class || type == Long.class) {
+            return new LongConverter(type, marshaller);
+        } else if (type == float.class || type == Float.class) {
+            return new FloatConverter(type, marshaller);
+        } else if (type == double.class || type == Double.class) {
+            return new DoubleConverter(type, marshaller);
+        } else if (type == String.class) {
+            return new StringConverter(type, marshaller);
+        } else if (type.isArray() && type.getComponentType().isPrimitive()) {
+            return new PrimitiveArrayConverter(type, marshaller);
+        } else if (type.isArray()) {
+            return new ArrayConverter(type, marshaller);
+        } else if (List.class.isAssignableFrom(type)) {
+            return new ListConverter(type, marshaller);
+        } else if (type == Object.class || type.isPrimitive()) {
+            return new DefaultConverter(type, marshaller);
+        } else {
+            return new ObjectConverter(type, marshaller);
+        }
+    }
+
+    public Class<?> getType() {
+        return this.type;
+    }
+
+    /**
+     * Converts a JavaScript value to the converter's type.
+     * @throws IllegalArgumentException If the value cannot be converted.
+     */
+    public final Object convert(JavaScriptValue value) {
+        if (value == null) {
+            return this.convertDefault(null);
+        }
+
+        return this.convert(value, value.getType());
+    }
+
+    protected abstract Object convert(JavaScriptValue value, JavaScriptType valueType);
+
+    protected final Object convertDefault(JavaScriptValue value) {
+        return this.marshaller.marshalFromJavaScript(value, this.type);
+    }
+
+    private static final class DefaultConverter extends ArgumentConverter {
+        public DefaultConverter(Class<?> type, JavaScriptMarshaller marshaller) {
+            super(type, marshaller);
+        }
+
+        @Override
+        protected Object convert(JavaScriptValue value, JavaScriptType valueType) {
+            return this.convertDefault(value);
+        }
+    }
+
+    private static final class BooleanConverter extends ArgumentConverter {
+        private final Object nullValue;
+
+        public BooleanConverter(Class<?> type, JavaScriptMarshaller marshaller) {
+            super(type, marshaller);
+            this.nullValue = (type.isPrimitive() ? Boolean.FALSE : null);
+        }
+
+        @Override
+        protected Object convert(JavaScriptValue value, JavaScriptType valueType) {
+            if (valueType == JavaScriptType.Boolean) {
+                return value.getBoolean();
+            } else if (valueType == JavaScriptType.Null) {
+                return this.nullValue;
+            }
+            return this.convertDefault(value);
+        }
+    }
+
+    private static final class ByteConverter extends ArgumentConverter {
+        private final Object nullValue;
+
+        public ByteConverter(Class<?> type, JavaScriptMarshaller marshaller) {
+            super(type, marshaller);
+            this.nullValue = (type.isPrimitive() ? Byte.valueOf((byte) 0) : null);
+        }
+
+        @Override
+        protected Object convert(JavaScriptValue value, JavaScriptType valueType) {
+            if (valueType == JavaScriptType.Number) {
+                return Byte.valueOf((byte) value.getInteger());
+            } else if (valueType == JavaScriptType.Null) {
+                return this.nullValue;
+            }
+            return this.convertDefault(value);
+        }
+    }
+
+    private static final class CharacterConverter extends ArgumentConverter {
+        public CharacterConverter(Class<?> type, JavaScriptMarshaller marshaller) {
+            super(type, marshaller);
+        }
+
+        @Override
+        protected Object convert(JavaScriptValue value, JavaScriptType valueType) {
+            if (valueType == JavaScriptType.Number) {
+                return Character.valueOf((char) value.getInteger());
+            } else if (valueType == JavaScriptType.Null && !this.type.isPrimitive()) {
+                return null;
+            }
+            return this.convertDefault(value);
+        }
+    }
+
+    private static final class ShortConverter extends ArgumentConverter {
+        private final Object nullValue;
+
+        public ShortConverter(Class<?> type, JavaScriptMarshaller marshaller) {
+            super(type, marshaller);
+            this.nullValue = (type.isPrimitive() ? Short.valueOf((short) 0) : null);
+        }
+
+        @Override
+        protected Object convert(JavaScriptValue value, JavaScriptType valueType) {
+            if (valueType == JavaScriptType.Number) {
+                return Short.valueOf((short) value.getInteger());
+            } else if (valueType == JavaScriptType.Null) {
+                return this.nullValue;
+            }
+            return this.convertDefault(value);
+        }
+    }
+
+    private static final class IntegerConverter extends ArgumentConverter {
+        private final Object nullValue;
+
+        public IntegerConverter(Class<?> type, JavaScriptMarshaller marshaller) {
+            super(type, marshaller);
+            this.nullValue = (type.isPrimitive() ? Integer.valueOf(0) : null);
+        }
+
+        @Override
+        protected Object convert(JavaScriptValue value, JavaScriptType valueType) {
+            if (valueType == JavaScriptType.Number) {
+                return Integer.valueOf(value.getInteger());
+            } else if (valueType == JavaScriptType.Null) {
+                return this.nullValue;
+            }
+            return this.convertDefault(value);
+        }
+    }
+
+    private static final class LongConverter extends ArgumentConverter {
+        private final Object nullValue;
+
+        public LongConverter(Class<?> type, JavaScriptMarshaller marshaller) {
+            super(type, marshaller);
+            this.nullValue = (type.isPrimitive() ? Long.valueOf(0) : null);
+        }
+
+        @Override
+        protected Object convert(JavaScriptValue value, JavaScriptType valueType) {
+            if (valueType == JavaScriptType.Number) {
+                return Long.valueOf((long) value.getDouble());
+            } else if (valueType == JavaScriptType.Null) {
+                return this.nullValue;
+            }
+            return this.convertDefault(value);
+        }
+    }
+
+    private static final class FloatConverter extends ArgumentConverter {
+        private final Object nullValue;
+
+        public FloatConverter(Class<?> type, JavaScriptMarshaller marshaller) {
+            super(type, marshaller);
+            this.nullValue = (type.isPrimitive() ? Float.valueOf(0) : null);
+        }
+
+        @Override
+        protected Object convert(JavaScriptValue value, JavaScriptType valueType) {
+            if (valueType == JavaScriptType.Number) {
+                return Float.valueOf((float) value.getDouble());
+            } else if (valueType == JavaScriptType.Null) {
+                return this.nullValue;
+            }
+            return this.convertDefault(value);
+        }
+    }
+
+    private static final class DoubleConverter extends ArgumentConverter {
+        private final Object nullValue;
+
+        public DoubleConverter(Class<?> type, JavaScriptMarshaller marshaller) {
+            super(type, marshaller);
+            this.nullValue = (type.isPrimitive() ? Double.valueOf(0) : null);
+        }
+
+        @Override
+        protected Object convert(JavaScriptValue value, JavaScriptType valueType) {
+            if (valueType == JavaScriptType.Number) {
+                return Double.valueOf(value.getDouble());
+            } else if (valueType == JavaScriptType.Null) {
+                return this.nullValue;
+            }
+            return this.convertDefault(value);
+        }
+    }
+
+    private static final class StringConverter extends ArgumentConverter {
+        public StringConverter(Class<?> type, JavaScriptMarshaller marshaller) {
+            super(type, marshaller);
+        }
+
+        @Override
+        protected Object convert(JavaScriptValue value, JavaScriptType valueType) {
+            if (valueType == JavaScriptType.String) {
+                return value.getString();
+            } else if (valueType == JavaScriptType.Null) {
+                return null;
+            }
+            return this.convertDefault(value);
+        }
+    }
+
+    /**
+     * Converts JavaScript arrays to Java arrays. As with the general marshalling path, the
+     * class of each item is determined from the item itself rather than the component type.
+     */
+    private static final class ArrayConverter extends ArgumentConverter {
+        private final Class<?> componentType;
+
+        public ArrayConverter(Class<?> type, JavaScriptMarshaller marshaller) {
+            super(type, marshaller);
+            this.componentType = type.getComponentType();
+        }
+
+        @Override
+        protected Object convert(JavaScriptValue value, JavaScriptType valueType) {
+            if (valueType == JavaScriptType.Array) {
+                int length = value.getArrayLength();
+                Object array = Array.newInstance(this.componentType, length);
+                for (int i = 0; i < length; i++) {
+                    Array.set(array, i, this.marshaller.marshalItemFromJavaScript(
+                            value.getArrayItem(i)));
+                }
+                return array;
+            } else if (valueType == JavaScriptType.Null) {
+                return null;
+            }
+            return this.convertDefault(value);
+        }
+    }
+
+    private static final class PrimitiveArrayConverter extends ArgumentConverter {
+        private final Class<?> componentType;
+
+        public PrimitiveArrayConverter(Class<?> type, JavaScriptMarshaller marshaller) {
+            super(type, marshaller);
+            this.componentType = type.getComponentType();
+        }
+
+        @Override
+        protected Object convert(JavaScriptValue value, JavaScriptType valueType) {
+            if (valueType == JavaScriptType.Array) {
+                return JavaScriptMarshaller.marshalPrimitiveArrayFromJavaScript(
+                        value, this.componentType);
+            } else if (valueType == JavaScriptType.Null) {
+                return null;
+            }
+            return this.convertDefault(value);
+        }
+    }
+
+    private static final class ListConverter extends ArgumentConverter {
+        public ListConverter(Class<?> type, JavaScriptMarshaller marshaller) {
+            super(type, marshaller);
+        }
+
+        @Override
+        protected Object convert(JavaScriptValue value, JavaScriptType valueType) {
+            if (valueType == JavaScriptType.Array) {
+                int length = value.getArrayLength();
+                ArrayList<Object> list = new ArrayList<Object>(length);
+                for (int i = 0; i < length; i++) {
+                    list.add(this.marshaller.marshalItemFromJavaScript(value.getArrayItem(i)));
+                }
+                return list;
+            } else if (valueType == JavaScriptType.Null) {
+                return null;
+            }
+            return this.convertDefault(value);
+        }
+    }
+
+    /**
+     * Converts references to objects that were marshalled by reference (that is, JavaScript
+     * objects with a numeric handle). Anything else, including objects marshalled by value, is
+     * left to the general marshalling path.
+     */
+    private static final class ObjectConverter extends ArgumentConverter {
+        public ObjectConverter(Class<?> type, JavaScriptMarshaller marshaller) {
+            super(type, marshaller);
+        }
+
+        @Override
+        protected Object convert(JavaScriptValue value, JavaScriptType valueType) {
+            if (valueType == JavaScriptType.Object) {
+                JavaScriptValue handleValue = value.getObjectValue("handle");
+                if (handleValue.getType() == JavaScriptType.Number) {
+                    return this.marshaller.getMarshalledObject(
+                            handleValue.getInteger(), this.type);
+                }
+            } else if (valueType == JavaScriptType.Null) {
+                return null;
+            }
+            return this.convertDefault(value);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for details.
+
+package com.microsoft.c3p;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Describes the properties of a class that is marshalled by value: the getters that are read
+ * when marshalling an instance to JavaScript, and the setters (with converters for their
+ * parameter types) that are called when marshalling an instance from JavaScript. Descriptors
+ * are created once per class (see JavaScriptMarshaller.getBeanDescriptor()), so that the
+ * class's methods are not scanned and their names are not parsed for every marshalled object.
+ * Instances are immutable and may be shared by any number of callers on any thread.
+ */
+final class BeanDescriptor {
+    private final Class<?> beanClass;
+    private final Constructor<?> constructor;
+    private final Getter[] getters;
+    private final HashMap<String, Getter> gettersByName;
+    private final HashMap<String, Setter> setters;
+
+    private BeanDescriptor(
+            Class<?> beanClass,
+            Constructor<?> constructor,
+            Getter[] getters,
+            HashMap<String, Setter> setters) {
+        this.beanClass = beanClass;
+        this.constructor = constructor;
+        this.getters = getters;
+        this.setters = setters;
+
+        // As with setters, a getter can be found by the capitalized or uncapitalized name.
+        this.gettersByName = new HashMap<String, Getter>();
+        for (Getter getter : getters) {
+            String propertyName = getter.getPropertyName();
+            String capitalizedName =
+                    Character.toUpperCase(propertyName.charAt(0)) + propertyName.substring(1);
+            if (!this.gettersByName.containsKey(propertyName)) {
+                this.gettersByName.put(propertyName, getter);
+            }
+            if (!this.gettersByName.containsKey(capitalizedName)) {
+                this.gettersByName.put(capitalizedName, getter);
+            }
+        }
+    }
+
+    /**
+     * Creates a descriptor for a class by scanning its public methods.
+     */
+    public static BeanDescriptor create(Class<?> beanClass, JavaScriptMarshaller marshaller) {
+        Constructor<?> constructor;
+        try {
+            constructor = beanClass.getConstructor();
+        } catch (NoSuchMethodException e) {
+            constructor = null;
+        }
+
+        boolean isEvent = beanClass.getName().endsWith("Event");
+        List<Getter> getters = new ArrayList<Getter>();
+        HashMap<String, Setter> setters = new HashMap<String, Setter>();
+
+        for (Method method : beanClass.getMethods()) {
+            if (!Modifier.isPublic(method.getModifiers())) {
+                continue;
+            }
+
+            String methodName = method.getName();
+            int parameterCount = method.getParameterTypes().length;
+            if (methodName.startsWith("get") && parameterCount == 0) {
+                if (methodName.equals("getClass") ||
+                        (methodName.equals("getSource") && isEvent)) {
+                    // Omit any objects' Class property and events' Source property.
+                    continue;
+                }
+
+                String propertyName = toJavaScriptPropertyName(methodName.substring(3));
+                if (propertyName != null) {
+                    getters.add(new Getter(propertyName, method));
+                }
+            } else if (methodName.startsWith("is") && parameterCount == 0) {
+                String propertyName = toJavaScriptPropertyName(methodName.substring(2));
+                if (propertyName != null) {
+                    getters.add(new Getter(propertyName, method));
+                }
+            } else if (methodName.startsWith("set") && parameterCount == 1) {
+                // A JavaScript property maps to the setter named "set" followed by the property
+                // name with its first letter capitalized, so the setter can be found by either
+                // the capitalized or uncapitalized name. If there are overloads, the first one
+                // returned by getMethods() is used.
+                String suffix = methodName.substring(3);
+                if (suffix.length() > 0 &&
+                        Character.toUpperCase(suffix.charAt(0)) == suffix.charAt(0)) {
+                    Setter setter = new Setter(method, ArgumentConverter.create(
+                            method.getParameterTypes()[0], marshaller));
+                    addSetter(setters, suffix, setter);
+                    addSetter(setters, toJavaScriptPropertyName(suffix), setter);
+                }
+            }
+        }
+
+        return new BeanDescriptor(
+                beanClass, constructor, getters.toArray(new Getter[getters.size()]), setters);
+    }
+
+    /**
+     * Finds the public getter for a single property of a class, without scanning all of the
+     * class's methods.
+     * @param beanClass The class that has the property.
+     * @param propertyName Name of the property, with or without its first letter capitalized.
+     * @return The getter (with the property name as supplied), or null if the class has no
+     *         public "get" or "is" method for the property.
+     */
+    public static Getter findGetter(Class<?> beanClass, String propertyName) {
+        if (propertyName == null || propertyName.length() == 0) {
+            return null;
+        }
+
+        String suffix = Character.toUpperCase(propertyName.charAt(0)) + propertyName.substring(1);
+        for (String prefix : new String[] { "get", "is" }) {
+            try {
+                Method method = beanClass.getMethod(prefix + suffix);
+                if (method.getReturnType() != void.class) {
+                    return new Getter(propertyName, method);
+                }
+            } catch (NoSuchMethodException e) {
+                // Try the next prefix.
+            }
+        }
+        return null;
+    }
+
+    private static void addSetter(HashMap<String, Setter> setters, String key, Setter setter) {
+        if (!setters.containsKey(key)) {
+            setters.put(key, setter);
+        }
+    }
+
+    private static String toJavaScriptPropertyName(String name) {
+        if (name.length() == 0) {
+            return null;
+        }
+
+        return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+    }
+
+    public Class<?> getBeanClass() {
+        return this.beanClass;
+    }
+
+    /**
+     * Creates a new instance of the class using its public parameterless constructor.
+     * @throws NoSuchMethodException If the class does not have a public parameterless
+     *         constructor.
+     */
+    public Object newInstance()
+            throws NoSuchMethodException, InstantiationException, IllegalAccessException,
+            InvocationTargetException {
+        if (this.constructor == null) {
+            throw new NoSuchMethodException(
+                    "No public parameterless constructor on class " + this.beanClass.getName());
+        }
+
+        return this.constructor.newInstance();
+    }
+
+    /**
+     * Gets the getters of the class, in the order their properties are marshalled.
+     * The returned array is shared and must not be modified.
+     */
+    public Getter[] getGetters() {
+        return this.getters;
+    }
+
+    /**
+     * Gets the getter for a property, or null if the class has no getter for the property.
+     * @param propertyName Name of the property, with or without its first letter capitalized.
+     */
+    public Getter getGetter(String propertyName) {
+        return this.gettersByName.get(propertyName);
+    }
+
+    /**
+     * Gets the setter for a property, or null if the class has no setter for the property.
+     * @param propertyName Name of the property, as it appears on the JavaScript object.
+     */
+    public Setter getSetter(String propertyName) {
+        return this.setters.get(propertyName);
+    }
+
+    /**
+     * A property getter, along with the JavaScript name of the property.
+     */
+    static final class Getter {
+        private final String propertyName;
+        private final Method method;
+
+        Getter(String propertyName, Method method) {
+            this.propertyName = propertyName;
+            this.method = method;
+        }
+
+        public String getPropertyName() {
+            return this.propertyName;
+        }
+
+        public Object getValue(Object bean)
+                throws IllegalAccessException, InvocationTargetException {
+            return this.method.invoke(bean, (Object[]) null);
+        }
+    }
+
+    /**
+     * A property setter, along with a converter for the setter's parameter type.
+     */
+    static final class Setter {
+        private final Method method;
+        private final ArgumentConverter converter;
+
+        Setter(Method method, ArgumentConverter converter) {
+            this.method = method;
+            this.converter = converter;
+        }
+
+        public ArgumentConverter getConverter() {
+            return this.converter;
+        }
+
+        public void setValue(Object bean, Object value)
+                throws IllegalAccessException, InvocationTargetException {
+            this.method.invoke(bean, value);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for details.
+
+package com.microsoft.c3p;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Wraps the bridge's executor to count tasks that are queued, active, and completed. The counts
+ * are kept by the wrapper rather than read from the executor, so they are available for any
+ * executor a host supplies, not only for ThreadPoolExecutors.
+ */
+final class CountingExecutor implements Executor {
+    private final Executor executor;
+    private final AtomicInteger queuedCount;
+    private final AtomicInteger activeCount;
+    private final AtomicLong completedCount;
+
+    public CountingExecutor(Executor executor) {
+        this.executor = executor;
+        this.queuedCount = new AtomicInteger();
+        this.activeCount = new AtomicInteger();
+        this.completedCount = new AtomicLong();
+    }
+
+    /**
+     * Gets the number of tasks that were submitted and have not yet started running.
+     */
+    public int getQueuedCount() {
+        return this.queuedCount.get();
+    }
+
+    /**
+     * Gets the number of tasks that are currently running.
+     */
+    public int getActiveCount() {
+        return this.activeCount.get();
+    }
+
+    /**
+     * Gets the total number of tasks that have finished running (normally or not).
+     */
+    public long getCompletedCount() {
+        return this.completedCount.get();
+    }
+
+    @Override
+    public void execute(final Runnable task) {
+        final CountingExecutor self = this;
+        this.queuedCount.incrementAndGet();
+        try {
+            this.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    self.queuedCount.decrementAndGet();
+                    self.activeCount.incrementAndGet();
+                    try {
+                        task.run();
+                    } finally {
+                        self.activeCount.decrementAndGet();
+                        self.completedCount.incrementAndGet();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException rex) {
+            this.queuedCount.decrementAndGet();
+            throw rex;
+        }
+    }
+}
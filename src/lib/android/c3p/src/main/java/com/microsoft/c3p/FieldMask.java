@@ -0,0 +1,88 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for details.
+
+package com.microsoft.c3p;
+
+import com.microsoft.c3p.js.JavaScriptType;
+import com.microsoft.c3p.js.JavaScriptValue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Selects the properties of a marshal-by-value result that are sent to JavaScript. A mask is
+ * parsed from a list of property paths such as "name" or "address.city": each path includes the
+ * whole value of its last property, and only the named properties of the objects along the way.
+ * A mask applies to each item of an array or list. Objects marshalled by reference are not
+ * affected by a mask.
+ */
+final class FieldMask {
+    // Maps property names to the masks for their values, or to null to include a whole value.
+    private final LinkedHashMap<String, FieldMask> fields;
+
+    private FieldMask() {
+        this.fields = new LinkedHashMap<String, FieldMask>();
+    }
+
+    /**
+     * Parses a mask from a JSON array of property paths.
+     * @return The mask, or null if the value is null or undefined, meaning that all properties
+     *         are included.
+     * @throws IllegalArgumentException If the value is not an array of non-empty paths.
+     */
+    public static FieldMask parse(JavaScriptValue paths) {
+        if (paths == null || paths.getType() == JavaScriptType.Null ||
+                paths.getType() == JavaScriptType.Undefined) {
+            return null;
+        } else if (paths.getType() != JavaScriptType.Array) {
+            throw new IllegalArgumentException("A field mask must be an array of property paths.");
+        }
+
+        FieldMask mask = new FieldMask();
+        int pathCount = paths.getArrayLength();
+        for (int i = 0; i < pathCount; i++) {
+            JavaScriptValue path = paths.getArrayItem(i);
+            if (path == null || path.getType() != JavaScriptType.String ||
+                    path.getString().length() == 0) {
+                throw new IllegalArgumentException(
+                        "Each field mask path must be a non-empty string.");
+            }
+
+            mask.addPath(path.getString().split("\\.", -1), 0);
+        }
+        return mask;
+    }
+
+    /**
+     * Gets the selected properties, each mapped to the mask for its value, or to null if the
+     * whole value is included.
+     */
+    public Iterable<Map.Entry<String, FieldMask>> getFields() {
+        return this.fields.entrySet();
+    }
+
+    private void addPath(String[] propertyNames, int index) {
+        String propertyName = propertyNames[index];
+        if (propertyName.length() == 0) {
+            throw new IllegalArgumentException("A field mask path has an empty property name.");
+        }
+
+        if (index == propertyNames.length - 1) {
+            // The whole value is included, which covers any longer paths through the property.
+            this.fields.put(propertyName, null);
+            return;
+        }
+
+        FieldMask childMask;
+        if (!this.fields.containsKey(propertyName)) {
+            childMask = new FieldMask();
+            this.fields.put(propertyName, childMask);
+        } else {
+            childMask = this.fields.get(propertyName);
+            if (childMask == null) {
+                return;
+            }
+        }
+        childMask.addPath(propertyNames, index + 1);
+    }
+}
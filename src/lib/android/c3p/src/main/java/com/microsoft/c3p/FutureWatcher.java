@@ -0,0 +1,215 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for details.
+
+package com.microsoft.c3p;
+
+import android.util.Log;
+
+import com.microsoft.c3p.util.Promise;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Watches Futures returned by plugin methods, invoking a listener when each one completes.
+ *
+ * Futures that support completion callbacks get a callback attached directly, without blocking
+ * a thread: that includes C3P Promises, CompletionStage implementations such as
+ * CompletableFuture (on API level 24 and above), and Guava ListenableFutures. The latter two are
+ * detected via reflection, so that neither is required at compile time or at runtime. Any other
+ * future that is not already done (including a FutureTask returned by ExecutorService.submit(),
+ * because FutureTask only exposes its completion hook to subclasses) is waited for by a thread
+ * that blocks in get(), so that the listener is invoked as soon as the future completes. Those
+ * threads come from a pool of daemon threads separate from the watcher's executor, so that
+ * waiting does not take threads the futures themselves may need.
+ *
+ * Listeners are always invoked via the watcher's executor, except for futures that are already
+ * done when they are added, for which the listener is invoked synchronously. If the executor
+ * rejects a listener (for example because it is bounded and saturated, or shut down), the
+ * listener is invoked on the thread that completed the future, so that it is never dropped.
+ */
+final class FutureWatcher {
+    private static final String TAG = "FutureWatcher";
+    private static final String WAITER_THREAD_NAME = "C3P future waiter ";
+
+    private static final Class<?> completionStageClass =
+            findClass("java.util.concurrent.CompletionStage");
+    private static final Class<?> biConsumerClass =
+            findClass("java.util.function.BiConsumer");
+    private static final Method whenCompleteMethod = (completionStageClass == null ||
+            biConsumerClass == null ? null :
+            findMethod(completionStageClass, "whenComplete", biConsumerClass));
+    private static final Class<?> listenableFutureClass =
+            findClass("com.google.common.util.concurrent.ListenableFuture");
+    private static final Method addListenerMethod = (listenableFutureClass == null ? null :
+            findMethod(listenableFutureClass, "addListener", Runnable.class, Executor.class));
+
+    private final Executor executor;
+    private final Executor dispatchingExecutor;
+    private final Object waiterExecutorLock;
+    private ExecutorService waiterExecutor;
+
+    public FutureWatcher(Executor executor) {
+        this.executor = executor;
+        this.waiterExecutorLock = new Object();
+
+        final FutureWatcher self = this;
+        this.dispatchingExecutor = new Executor() {
+            @Override
+            public void execute(Runnable listener) {
+                self.dispatch(listener);
+            }
+        };
+    }
+
+    /**
+     * Adds a listener to be invoked when a future is done. The listener may then get the
+     * future's result without blocking.
+     */
+    public void addListener(Future<?> future, final Runnable listener) {
+        if (future.isDone()) {
+            listener.run();
+            return;
+        }
+
+        if (future instanceof Promise<?>) {
+            final FutureWatcher self = this;
+            ((Promise<?>) future).addListener(new Runnable() {
+                @Override
+                public void run() {
+                    self.dispatch(listener);
+                }
+            });
+            return;
+        }
+
+        if (whenCompleteMethod != null && completionStageClass.isInstance(future)) {
+            final FutureWatcher self = this;
+            Object callback = Proxy.newProxyInstance(
+                    biConsumerClass.getClassLoader(),
+                    new Class<?>[] { biConsumerClass },
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            if (method.getDeclaringClass() == Object.class) {
+                                return invokeObjectMethod(proxy, method, args);
+                            }
+
+                            self.dispatch(listener);
+                            return null;
+                        }
+                    });
+            if (invokeListenerMethod(whenCompleteMethod, future, callback)) {
+                return;
+            }
+        } else if (addListenerMethod != null && listenableFutureClass.isInstance(future)) {
+            if (invokeListenerMethod(
+                    addListenerMethod, future, listener, this.dispatchingExecutor)) {
+                return;
+            }
+        }
+
+        this.waitFor(future, listener);
+    }
+
+    /**
+     * Waits for a future that has no completion callback on a waiter thread.
+     */
+    private void waitFor(final Future<?> future, final Runnable listener) {
+        final FutureWatcher self = this;
+        this.getWaiterExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    future.get();
+                } catch (InterruptedException iex) {
+                    // Not expected, since the waiter pool is never shut down; the listener is
+                    // invoked anyway, and gets the future's state itself.
+                    Thread.currentThread().interrupt();
+                } catch (Exception ex) {
+                    // The future was rejected or cancelled; the listener handles that.
+                }
+                self.dispatch(listener);
+            }
+        });
+    }
+
+    private ExecutorService getWaiterExecutor() {
+        synchronized (this.waiterExecutorLock) {
+            if (this.waiterExecutor == null) {
+                final AtomicInteger threadCount = new AtomicInteger();
+                this.waiterExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(
+                                runnable, WAITER_THREAD_NAME + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            return this.waiterExecutor;
+        }
+    }
+
+    private void dispatch(Runnable listener) {
+        try {
+            this.executor.execute(listener);
+        } catch (RejectedExecutionException rex) {
+            Log.w(TAG, "Executor rejected a future completion listener; " +
+                    "invoking it on the current thread instead.", rex);
+            listener.run();
+        }
+    }
+
+    private static boolean invokeListenerMethod(Method method, Object target, Object... args) {
+        try {
+            method.invoke(target, args);
+            return true;
+        } catch (IllegalAccessException iaex) {
+            Log.w(TAG, "Illegal access to " + method.getName() + " on " +
+                    target.getClass().getName() + "; the future will be waited for instead.", iaex);
+        } catch (InvocationTargetException itex) {
+            Log.w(TAG, "Exception thrown by " + method.getName() + " on " +
+                    target.getClass().getName() + "; the future will be waited for instead.",
+                    itex.getTargetException());
+        }
+        return false;
+    }
+
+    private static Object invokeObjectMethod(Object proxy, Method method, Object[] args) {
+        if ("equals".equals(method.getName())) {
+            return proxy == args[0];
+        } else if ("hashCode".equals(method.getName())) {
+            return System.identityHashCode(proxy);
+        } else {
+            return proxy.getClass().getName() + "@" +
+                    Integer.toHexString(System.identityHashCode(proxy));
+        }
+    }
+
+    private static Class<?> findClass(String className) {
+        try {
+            return Class.forName(className);
+        } catch (ClassNotFoundException cnfex) {
+            return null;
+        }
+    }
+
+    private static Method findMethod(Class<?> type, String name, Class<?>... parameterTypes) {
+        try {
+            return type.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException nsmex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,308 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for details.
+
+package com.microsoft.c3p;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks objects that are marshalled by reference, assigning each object a unique integer
+ * handle that JavaScript uses to refer to it.
+ *
+ * Objects are compared by identity, so the objects' own hashCode() and equals() methods are
+ * never called. Both directions (object to handle, handle to object) are stored in
+ * open-addressing tables with linear probing, so lookups do not allocate or box handles, and
+ * removal uses backward-shift deletion so that released entries do not leave tombstones.
+ * Handles are not reused until the handle counter wraps around, after 2^28 handles have been
+ * assigned; after that a new handle may equal a released one, so a stale handle from JavaScript
+ * could then refer to another object. A handle that is still in the table is never reassigned.
+ *
+ * All methods are safe to call concurrently from multiple threads. Entries are split across a
+ * fixed number of segments, each guarded by its own lock. An object's segment is chosen by its
+ * identity hash, and the segment index is encoded in the low bits of the object's handle, so
+ * either kind of lookup locks only one segment. Handles are generated by an atomic counter.
+ */
+final class HandleTable {
+    private static final int SEGMENT_BITS = 4;
+    private static final int SEGMENT_COUNT = 1 << SEGMENT_BITS;
+    private static final int SEGMENT_MASK = SEGMENT_COUNT - 1;
+    private static final int EMPTY_HANDLE = 0;
+    private static final int MINIMUM_CAPACITY = 16;
+
+    private final Segment[] segments;
+    private final AtomicInteger counter;
+
+    public HandleTable() {
+        this.segments = new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            this.segments[i] = new Segment();
+        }
+        this.counter = new AtomicInteger();
+    }
+
+    /**
+     * Gets the number of objects currently in the table.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : this.segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Gets the handle of an object, adding the object to the table with a new handle if it
+     * does not already have one.
+     */
+    public int getOrAddHandle(Object object) {
+        if (object == null) {
+            throw new IllegalArgumentException("An object is required.");
+        }
+
+        int hash = hashObject(object);
+        int segmentIndex = hash >>> (32 - SEGMENT_BITS);
+        Segment segment = this.segments[segmentIndex];
+        synchronized (segment) {
+            int handle = segment.getHandle(object, hash);
+            if (handle == EMPTY_HANDLE) {
+                do {
+                    handle = (this.counter.incrementAndGet() << SEGMENT_BITS) | segmentIndex;
+                } while (handle == EMPTY_HANDLE || segment.getObject(handle) != null);
+
+                segment.add(object, hash, handle);
+            }
+            return handle;
+        }
+    }
+
+    /**
+     * Gets the handle of an object, or 0 if the object is not in the table.
+     */
+    public int getHandle(Object object) {
+        int hash = hashObject(object);
+        Segment segment = this.segments[hash >>> (32 - SEGMENT_BITS)];
+        synchronized (segment) {
+            return segment.getHandle(object, hash);
+        }
+    }
+
+    /**
+     * Gets the object with a handle, or null if there is no object with the handle.
+     */
+    public Object getObject(int handle) {
+        if (handle == EMPTY_HANDLE) {
+            return null;
+        }
+
+        Segment segment = this.segments[handle & SEGMENT_MASK];
+        synchronized (segment) {
+            return segment.getObject(handle);
+        }
+    }
+
+    /**
+     * Removes the object with a handle from the table.
+     * @return The removed object, or null if there was no object with the handle.
+     */
+    public Object release(int handle) {
+        if (handle == EMPTY_HANDLE) {
+            return null;
+        }
+
+        Segment segment = this.segments[handle & SEGMENT_MASK];
+        synchronized (segment) {
+            return segment.release(handle);
+        }
+    }
+
+    /**
+     * Removes the object with a handle from the table, but only if the object is an instance
+     * of a type. The check and the removal are done atomically.
+     * @return The removed object, or null if there was no such object with the handle.
+     */
+    public Object release(int handle, Class<?> type) {
+        if (handle == EMPTY_HANDLE) {
+            return null;
+        }
+
+        Segment segment = this.segments[handle & SEGMENT_MASK];
+        synchronized (segment) {
+            if (!type.isInstance(segment.getObject(handle))) {
+                return null;
+            }
+            return segment.release(handle);
+        }
+    }
+
+    private static int hashObject(Object object) {
+        return mix(System.identityHashCode(object));
+    }
+
+    private static int hashHandle(int handle) {
+        return mix(handle >>> SEGMENT_BITS);
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Checks whether an entry's ideal slot k lies in the cyclic range (i, j], in which case the
+     * entry at j must stay where it is when slot i is vacated.
+     */
+    private static boolean isCyclicallyBetween(int i, int k, int j) {
+        return i <= j ? (i < k && k <= j) : (i < k || k <= j);
+    }
+
+    /**
+     * One segment of the table. All access must be synchronized on the segment.
+     */
+    private static final class Segment {
+        // Object-to-handle table. An entry is empty when its key is null.
+        private Object[] objectKeys;
+        private int[] objectHandles;
+
+        // Handle-to-object table. An entry is empty when its key is EMPTY_HANDLE.
+        private int[] handleKeys;
+        private Object[] handleObjects;
+
+        private int size;
+
+        Segment() {
+            this.allocate(MINIMUM_CAPACITY);
+        }
+
+        int getHandle(Object object, int hash) {
+            Object[] keys = this.objectKeys;
+            int mask = keys.length - 1;
+            for (int i = hash & mask; ; i = (i + 1) & mask) {
+                Object key = keys[i];
+                if (key == object) {
+                    return this.objectHandles[i];
+                } else if (key == null) {
+                    return EMPTY_HANDLE;
+                }
+            }
+        }
+
+        Object getObject(int handle) {
+            int[] keys = this.handleKeys;
+            int mask = keys.length - 1;
+            for (int i = hashHandle(handle) & mask; ; i = (i + 1) & mask) {
+                int key = keys[i];
+                if (key == handle) {
+                    return this.handleObjects[i];
+                } else if (key == EMPTY_HANDLE) {
+                    return null;
+                }
+            }
+        }
+
+        void add(Object object, int hash, int handle) {
+            if ((this.size + 1) * 2 > this.objectKeys.length) {
+                this.resize(this.objectKeys.length * 2);
+            }
+
+            this.insert(object, hash, handle);
+            this.size++;
+        }
+
+        Object release(int handle) {
+            int[] keys = this.handleKeys;
+            int mask = keys.length - 1;
+            int i = hashHandle(handle) & mask;
+            while (keys[i] != handle) {
+                if (keys[i] == EMPTY_HANDLE) {
+                    return null;
+                }
+                i = (i + 1) & mask;
+            }
+
+            Object object = this.handleObjects[i];
+            this.removeHandleAt(i);
+            this.removeObjectAt(this.findObject(object));
+            this.size--;
+            return object;
+        }
+
+        private void allocate(int capacity) {
+            this.objectKeys = new Object[capacity];
+            this.objectHandles = new int[capacity];
+            this.handleKeys = new int[capacity];
+            this.handleObjects = new Object[capacity];
+        }
+
+        private void resize(int capacity) {
+            Object[] oldObjectKeys = this.objectKeys;
+            int[] oldObjectHandles = this.objectHandles;
+            this.allocate(capacity);
+            for (int i = 0; i < oldObjectKeys.length; i++) {
+                if (oldObjectKeys[i] != null) {
+                    this.insert(
+                            oldObjectKeys[i], hashObject(oldObjectKeys[i]), oldObjectHandles[i]);
+                }
+            }
+        }
+
+        private void insert(Object object, int hash, int handle) {
+            int mask = this.objectKeys.length - 1;
+
+            int i = hash & mask;
+            while (this.objectKeys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            this.objectKeys[i] = object;
+            this.objectHandles[i] = handle;
+
+            i = hashHandle(handle) & mask;
+            while (this.handleKeys[i] != EMPTY_HANDLE) {
+                i = (i + 1) & mask;
+            }
+            this.handleKeys[i] = handle;
+            this.handleObjects[i] = object;
+        }
+
+        private int findObject(Object object) {
+            int mask = this.objectKeys.length - 1;
+            int i = hashObject(object) & mask;
+            while (this.objectKeys[i] != object) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        private void removeObjectAt(int i) {
+            Object[] keys = this.objectKeys;
+            int mask = keys.length - 1;
+            for (int j = (i + 1) & mask; keys[j] != null; j = (j + 1) & mask) {
+                int k = hashObject(keys[j]) & mask;
+                if (!isCyclicallyBetween(i, k, j)) {
+                    keys[i] = keys[j];
+                    this.objectHandles[i] = this.objectHandles[j];
+                    i = j;
+                }
+            }
+            keys[i] = null;
+            this.objectHandles[i] = EMPTY_HANDLE;
+        }
+
+        private void removeHandleAt(int i) {
+            int[] keys = this.handleKeys;
+            int mask = keys.length - 1;
+            for (int j = (i + 1) & mask; keys[j] != EMPTY_HANDLE; j = (j + 1) & mask) {
+                int k = hashHandle(keys[j]) & mask;
+                if (!isCyclicallyBetween(i, k, j)) {
+                    keys[i] = keys[j];
+                    this.handleObjects[i] = this.handleObjects[j];
+                    i = j;
+                }
+            }
+            keys[i] = EMPTY_HANDLE;
+            this.handleObjects[i] = null;
+        }
+    }
+}
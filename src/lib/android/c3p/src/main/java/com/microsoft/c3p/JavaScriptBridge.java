@@ -8,21 +8,37 @@ import android.content.Intent;
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.microsoft.c3p.js.JSPrimitiveArray;
+import com.microsoft.c3p.js.JSValue;
 import com.microsoft.c3p.js.JavaScriptType;
 import com.microsoft.c3p.js.JavaScriptValue;
 import com.microsoft.c3p.util.ChainablePromise;
 import com.microsoft.c3p.util.Consumer;
 import com.microsoft.c3p.util.Function;
+import com.microsoft.c3p.util.Promises;
 
 import java.lang.reflect.*;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Bridge for JavaScript callers into Java code. Instantiates and invokes arbitrary
- * classes and members using reflection, and converts arguments and results from/to JSON.
+ * classes and members using reflection (or generated dispatchers, for classes marked with
+ * GenerateDispatcher), and converts arguments and results from/to JSON.
+ *
+ * Methods that take an instance accept an object with a type (or registered typeId) and a
+ * handle, or a packed reference: a single number with the type ID in its upper 32 bits and the
+ * handle in its lower 32 bits, which avoids converting a map for every call.
  */
 public final class JavaScriptBridge {
     public static class CallType {
@@ -35,39 +51,215 @@ public final class JavaScriptBridge {
         public static final String RELEASE_INSTANCE = "releaseInstance";
         public static final String GET_PROPERTY = "getProperty";
         public static final String SET_PROPERTY = "setProperty";
+        public static final String GET_PROPERTIES = "getProperties";
+        public static final String SET_PROPERTIES = "setProperties";
         public static final String INVOKE_METHOD = "invokeMethod";
         public static final String ADD_EVENT_LISTENER = "addEventListener";
         public static final String REMOVE_EVENT_LISTENER = "removeEventListener";
+        public static final String RESOLVE_MEMBER = "resolveMember";
+        public static final String INVOKE_MEMBER = "invokeMember";
+        public static final String BATCH = "batch";
+        public static final String INVOKE_ONE_WAY = "invokeOneWay";
+        public static final String ADD_ONE_WAY_ERROR_LISTENER = "addOneWayErrorListener";
+        public static final String ENABLE_COMPACT_SHAPES = "enableCompactShapes";
+        public static final String REGISTER_TYPES = "registerTypes";
 
         private CallType() { }
     }
 
     private static final String TAG = "JavaScriptBridge";
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+    private static final long EXECUTOR_KEEP_ALIVE_SECONDS = 60;
+    private static final int INVALID_HANDLE = -1;
 
     protected JavaScriptApplicationContext context;
 
     private NamespaceMapper namespaceMapper;
+    private MemberCache memberCache;
     private JavaScriptMarshaller marshaller;
     private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final CountingExecutor countingExecutor;
+    private final FutureWatcher futureWatcher;
     private ArrayList<JavaScriptEventBridge> eventBridges;
     private Object activityResultHandler;
+    private volatile Consumer<JavaScriptValue> oneWayErrorListener;
+    private final PropertyWriteCoalescer propertyWriteCoalescer;
+    private final Object propertyWriteFlushLock;
+    private volatile long propertyWriteCoalescingNanos;
 
+    /**
+     * Creates a bridge that uses its own unbounded, cached thread pool for async work.
+     * The pool is shut down by shutdown().
+     */
     public JavaScriptBridge(JavaScriptApplicationContext context) {
+        this(context, Executors.newCachedThreadPool(), true);
+    }
+
+    /**
+     * Creates a bridge that uses an executor supplied by the host for async work: converting
+     * results of futures returned by plugin methods. See createBoundedExecutor() for an
+     * executor with a limited number of threads. The executor is not shut down by shutdown().
+     */
+    public JavaScriptBridge(JavaScriptApplicationContext context, ExecutorService executor) {
+        this(context, executor, false);
+    }
+
+    private JavaScriptBridge(
+            JavaScriptApplicationContext context, ExecutorService executor, boolean ownsExecutor) {
         if (context == null) {
             throw new IllegalArgumentException("A C3P context is required.");
+        } else if (executor == null) {
+            throw new IllegalArgumentException("An executor is required.");
         }
 
         this.context = context;
         this.namespaceMapper = new NamespaceMapper();
         this.marshaller = new JavaScriptMarshaller(context, this.namespaceMapper);
-        this.executor = Executors.newCachedThreadPool();
+        this.memberCache = new MemberCache(this.namespaceMapper, this.marshaller);
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.countingExecutor = new CountingExecutor(executor);
+        this.futureWatcher = new FutureWatcher(this.countingExecutor);
         this.eventBridges = new ArrayList<JavaScriptEventBridge>();
+        this.propertyWriteCoalescer = new PropertyWriteCoalescer();
+        this.propertyWriteFlushLock = new Object();
+    }
+
+    /**
+     * Creates an executor with a limited number of threads, for use with the bridge. Idle
+     * threads are stopped after a timeout. When all threads are busy, tasks wait in a queue of
+     * limited capacity; when the queue is full, tasks run on the thread that submitted them.
+     * @param maximumThreadCount Maximum number of threads in the pool.
+     * @param queueCapacity Maximum number of tasks waiting for a thread, or Integer.MAX_VALUE
+     *        for an unbounded queue.
+     */
+    public static ExecutorService createBoundedExecutor(
+            int maximumThreadCount, int queueCapacity) {
+        return createBoundedExecutor(
+                maximumThreadCount, queueCapacity, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Creates an executor with a limited number of threads, for use with the bridge. Idle
+     * threads are stopped after a timeout. When all threads are busy, tasks wait in a queue of
+     * limited capacity; when the queue is full, tasks are handled by the rejection handler.
+     * @param maximumThreadCount Maximum number of threads in the pool.
+     * @param queueCapacity Maximum number of tasks waiting for a thread, or Integer.MAX_VALUE
+     *        for an unbounded queue.
+     * @param rejectionHandler Handler for tasks that cannot be queued. If the handler throws
+     *        RejectedExecutionException, the bridge runs the task on the submitting thread
+     *        instead. A handler that silently discards tasks must not be used, because then the
+     *        results of some async calls would never be returned.
+     */
+    public static ExecutorService createBoundedExecutor(
+            int maximumThreadCount, int queueCapacity, RejectedExecutionHandler rejectionHandler) {
+        if (maximumThreadCount <= 0) {
+            throw new IllegalArgumentException("The maximum thread count must be positive.");
+        } else if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("The queue capacity must be positive.");
+        } else if (rejectionHandler == null) {
+            throw new IllegalArgumentException("A rejection handler is required.");
+        }
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                maximumThreadCount,
+                maximumThreadCount,
+                EXECUTOR_KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(queueCapacity),
+                rejectionHandler);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Shuts down the bridge's executor, if the bridge created it. Async calls that are still
+     * pending after shutdown complete on whatever thread completes their futures. Coalesced
+     * property writes that are still pending are applied first.
+     */
+    public void shutdown() {
+        this.flushPropertyWrites();
+        if (this.ownsExecutor) {
+            this.executor.shutdown();
+        }
+    }
+
+    /**
+     * Gets the number of async tasks submitted by the bridge that are waiting for a thread.
+     */
+    public int getExecutorQueuedCount() {
+        return this.countingExecutor.getQueuedCount();
+    }
+
+    /**
+     * Gets the number of async tasks submitted by the bridge that are currently running.
+     */
+    public int getExecutorActiveCount() {
+        return this.countingExecutor.getActiveCount();
+    }
+
+    /**
+     * Gets the total number of async tasks submitted by the bridge that have finished running.
+     */
+    public long getExecutorCompletedCount() {
+        return this.countingExecutor.getCompletedCount();
+    }
+
+    /**
+     * Enables or disables coalescing of writes to properties of instances that are marshalled
+     * by reference. While coalescing is enabled, setProperty() checks that the property has a
+     * setter, records the write, and returns. Writes to the same property of the same instance
+     * within the window are merged, so that only the last value is set.
+     *
+     * Pending writes are applied in the order of their last write: when the window ends (on the
+     * bridge's executor), before any other call on the same instance or any call that passes the
+     * instance as an argument, on flushPropertyWrites(), and when coalescing is disabled. A call
+     * that arrives while the writes to its instance are being applied waits for them. Because
+     * setProperty() has already returned, failures of coalesced writes are reported to the
+     * one-way error listener.
+     * @param window Length of the window, or 0 to disable coalescing (the default).
+     * @param unit Unit of the window length.
+     */
+    public void setPropertyWriteCoalescingWindow(long window, TimeUnit unit) {
+        this.propertyWriteCoalescingNanos = (window > 0 ? unit.toNanos(window) : 0);
+        if (window <= 0) {
+            this.flushPropertyWrites();
+        }
+    }
+
+    /**
+     * Applies all pending coalesced property writes.
+     */
+    public void flushPropertyWrites() {
+        if (this.propertyWriteCoalescer.hasPendingWrites()) {
+            synchronized (this.propertyWriteFlushLock) {
+                this.applyPropertyWrites(this.propertyWriteCoalescer.removeAll());
+            }
+        }
     }
 
     public NamespaceMapper getNamespaceMapper() {
         return this.namespaceMapper;
     }
 
+    /**
+     * Gets the number of member lookups that were satisfied by the bridge's cache of
+     * resolved classes and members, without any reflection.
+     */
+    public long getMemberCacheHitCount() {
+        return this.memberCache.getHitCount();
+    }
+
+    /**
+     * Gets the number of member lookups that required resolving a member via reflection.
+     * After a warm-up period this should stop increasing, unless callers keep accessing
+     * members that were not accessed before.
+     */
+    public long getMemberCacheMissCount() {
+        return this.memberCache.getMissCount();
+    }
+
     /**
      * Java objects returned to JavaScript are marshalled by reference by default, unless
      * the class full name is registered here.
@@ -76,6 +268,65 @@ public final class JavaScriptBridge {
         this.marshaller.registerMarshalByValueClass(javaScriptClassName);
     }
 
+    /**
+     * Registers IDs that JavaScript assigned to its bridged types. Instances marshalled by
+     * reference in either direction may then carry {"typeId": n} instead of the full type name.
+     * @param firstTypeId ID of the first type; the others have consecutive IDs.
+     * @param typeNames Array of full JavaScript type names.
+     */
+    public void registerTypes(int firstTypeId, JavaScriptValue typeNames) {
+        if (typeNames == null || typeNames.getType() != JavaScriptType.Array) {
+            throw new IllegalArgumentException("An array of type names is required.");
+        }
+
+        String[] names = new String[typeNames.getArrayLength()];
+        for (int i = 0; i < names.length; i++) {
+            JavaScriptValue typeName = typeNames.getArrayItem(i);
+            if (typeName.getType() != JavaScriptType.String ||
+                    TextUtils.isEmpty(typeName.getString())) {
+                throw new IllegalArgumentException("Type names must be non-empty strings.");
+            }
+            names[i] = typeName.getString();
+        }
+
+        this.marshaller.registerTypes(firstTypeId, names);
+    }
+
+    /**
+     * Forgets the state that the JavaScript side established for itself, so that it is not
+     * applied to the JavaScript context that replaces it. The host calls this when its JavaScript
+     * context is reloaded: the type IDs registered by the old context are removed, so instances
+     * are marshalled with full type names until the new context registers its own IDs, and
+     * compact shapes are disabled until the new context's marshaller enables them again.
+     */
+    public void reset() {
+        this.marshaller.clearTypes();
+        this.marshaller.setCompactShapesEnabled(false);
+    }
+
+    /**
+     * Registers properties whose values are sent along with the handle of each instance of a
+     * class marshalled by reference, so that JavaScript can read them without another call.
+     * This overrides any PrefetchProperties annotation on the class.
+     */
+    public void registerPrefetchProperties(String javaScriptClassName, String[] properties) {
+        if (properties == null) {
+            throw new IllegalArgumentException("An array of properties is required.");
+        }
+
+        this.marshaller.registerPrefetchProperties(javaScriptClassName, properties);
+    }
+
+    /**
+     * Enables a compact form for marshal-by-value objects within arrays and lists returned to
+     * JavaScript: the property names of each class are sent once per array, and each object
+     * then only has its property values, in order. This is called (via the host) by JavaScript
+     * marshallers that can decode that form, so older ones keep getting plain objects.
+     */
+    public void enableCompactShapes() {
+        this.marshaller.setCompactShapesEnabled(true);
+    }
+
     public JavaScriptValue getStaticProperty(String type, String property)
             throws InvocationTargetException {
         if (TextUtils.isEmpty(type)) {
@@ -85,33 +336,14 @@ public final class JavaScriptBridge {
             throw new IllegalArgumentException("A property is required.");
         }
 
-        try {
-            String classFullName = this.namespaceMapper.getJavaClassForJavaScriptClass(type);
-            Class<?> targetClass = Class.forName(classFullName);
-
-            Method targetMethod = this.resolveMethod(targetClass, "get" + property, true, 0);
-            if (targetMethod == null) {
-                targetMethod = this.resolveMethod(targetClass, "is" + property, true, 0);
-                if (targetMethod == null) {
-                    throw new IllegalArgumentException(
-                            "Property getter not found: " + type + "." + property);
-                }
-            }
-
-            Object returnValue = targetMethod.invoke(null);
-            return this.marshaller.marshalToJavaScript(returnValue);
-        } catch (ClassNotFoundException cnfex) {
-            throw new IllegalArgumentException("Type not found: " + type, cnfex);
-        } catch (IllegalAccessException iaex) {
+        JavaScriptMember getter = this.getMember(
+                type, property, JavaScriptMember.Kind.STATIC_GETTER, 0);
+        if (getter == null) {
             throw new IllegalArgumentException(
-                    "Illegal access to property: " + type + "." + property, iaex);
-        } catch (InvocationTargetException itex) {
-            Log.e(TAG,
-                    "Exception thrown by get static property invocation target: " +
-                            type + "." + property,
-                    itex.getTargetException());
-            throw itex;
+                    "Property getter not found: " + type + "." + property);
         }
+
+        return this.invokeGetter(getter, null);
     }
 
     public void setStaticProperty(String type, String property, JavaScriptValue value)
@@ -123,36 +355,25 @@ public final class JavaScriptBridge {
             throw new IllegalArgumentException("A property is required.");
         }
 
-        try {
-            String classFullName = this.namespaceMapper.getJavaClassForJavaScriptClass(type);
-            Class<?> targetClass = Class.forName(classFullName);
-
-            Method targetMethod = this.resolveMethod(targetClass, "set" + property, true, 1);
-            if (targetMethod == null) {
-                throw new IllegalArgumentException(
-                        "Property setter not found: " + type + "." + property);
-            }
-
-            Object convertedValue = this.marshaller.marshalFromJavaScript(
-                    value, targetMethod.getParameterTypes()[0]);
-            targetMethod.invoke(null, convertedValue);
-        } catch (ClassNotFoundException cnfex) {
-            throw new IllegalArgumentException("Type not found: " + type, cnfex);
-        } catch (IllegalAccessException iaex) {
+        JavaScriptMember setter = this.getMember(
+                type, property, JavaScriptMember.Kind.STATIC_SETTER, 1);
+        if (setter == null) {
             throw new IllegalArgumentException(
-                    "Illegal access to property: " + type + "." + property ,iaex);
-        } catch (InvocationTargetException itex) {
-            Log.e(TAG,
-                    "Exception thrown by set static property invocation target: " +
-                            type + "." + property,
-                    itex.getTargetException());
-            throw itex;
+                    "Property setter not found: " + type + "." + property);
         }
+
+        this.invokeSetter(setter, null, value);
     }
 
     public ChainablePromise<JavaScriptValue> invokeStaticMethod(
             String type, String method, JavaScriptValue arguments)
             throws InvocationTargetException {
+        JavaScriptMember targetMethod = this.getStaticMethod(type, method, arguments);
+        return this.invokeMethod(targetMethod, null, arguments);
+    }
+
+    private JavaScriptMember getStaticMethod(
+            String type, String method, JavaScriptValue arguments) {
         if (TextUtils.isEmpty(type)) {
             throw new IllegalArgumentException("A type is required.");
         }
@@ -162,37 +383,14 @@ public final class JavaScriptBridge {
         if (arguments == null) {
             throw new IllegalArgumentException("JSON arguments are required.");
         }
-        try {
-            String classFullName = this.namespaceMapper.getJavaClassForJavaScriptClass(type);
-            Class<?> targetClass = Class.forName(classFullName);
-
-            String methodName = this.namespaceMapper.getJavaMemberForJavaScriptMember(method);
-            Method targetMethod = this.resolveMethod(targetClass, methodName, true, arguments);
-            if (targetMethod == null) {
-                throw new IllegalArgumentException("Method not found or invalid argument count: " +
-                        type + "." + method);
-            }
 
-            Object[] convertedArguments = this.marshaller.marshalFromJavaScript(
-                    arguments, targetMethod.getParameterTypes());
-            if (convertedArguments == null) {
-                throw new IllegalArgumentException("Supplied arguments could not be converted " +
-                        "to expected types for method " + type + "." + method);
-            }
-
-            Object returnValue = targetMethod.invoke(null, convertedArguments);
-            return this.convertToFutureJson(returnValue);
-        } catch (ClassNotFoundException cnfex) {
-            throw new IllegalArgumentException("Type not found: " + type, cnfex);
-        } catch (IllegalAccessException iaex) {
-            throw new IllegalArgumentException(
-                    "Illegal access to method: " + type + "." + method, iaex);
-        } catch (InvocationTargetException itex) {
-            Log.e(TAG,
-                    "Exception thrown by static method invocation target: " + type + "." + method,
-                    itex.getTargetException());
-            throw itex;
+        JavaScriptMember targetMethod = this.getMember(type, method,
+                JavaScriptMember.Kind.STATIC_METHOD, getArgumentsCount(arguments));
+        if (targetMethod == null) {
+            throw new IllegalArgumentException("Method not found or invalid argument count: " +
+                    type + "." + method);
         }
+        return targetMethod;
     }
 
     public void addStaticEventListener(
@@ -210,8 +408,7 @@ public final class JavaScriptBridge {
 
         String methodName = "add" + event + "Listener";
         try {
-            String classFullName = this.namespaceMapper.getJavaClassForJavaScriptClass(type);
-            Class<?> sourceClass = Class.forName(classFullName);
+            Class<?> sourceClass = this.memberCache.getClass(type);
             JavaScriptEventBridge eventBridge = new JavaScriptEventBridge(
                     sourceClass, event, eventListener, this.marshaller);
             eventBridge.addListener();
@@ -248,8 +445,7 @@ public final class JavaScriptBridge {
 
         String methodName = "remove" + event + "Listener";
         try {
-            String classFullName = this.namespaceMapper.getJavaClassForJavaScriptClass(type);
-            Class<?> sourceClass = Class.forName(classFullName);
+            Class<?> sourceClass = this.memberCache.getClass(type);
 
             JavaScriptEventBridge eventBridge = null;
             synchronized (this.eventBridges) {
@@ -269,7 +465,7 @@ public final class JavaScriptBridge {
                     this.eventBridges.remove(eventBridge);
                 }
             } else {
-                Log.w(TAG, "Event listener not found to remove: " + classFullName + "." + event);
+                Log.w(TAG, "Event listener not found to remove: " + type + "." + event);
             }
         } catch (ClassNotFoundException cnfex) {
             throw new IllegalArgumentException("Type not found: " + type, cnfex);
@@ -294,38 +490,14 @@ public final class JavaScriptBridge {
             throw new IllegalArgumentException("JSON arguments are required.");
         }
 
-        try {
-            String classFullName = this.namespaceMapper.getJavaClassForJavaScriptClass(type);
-            Class<?> targetClass = Class.forName(classFullName);
-            Constructor<?> constructor = this.resolveConstructor(targetClass, arguments);
-            if (constructor == null) {
-                throw new IllegalArgumentException("Constructor not found or invalid " +
-                        "argument count: " + type);
-            }
-
-            Object[] convertedArguments = this.marshaller.marshalFromJavaScript(
-                    arguments, constructor.getParameterTypes());
-            if (convertedArguments == null) {
-                throw new IllegalArgumentException("Supplied arguments could not be converted " +
-                        "to expected types for constructor for type " + type);
-            }
-
-            Object newInstance = constructor.newInstance(convertedArguments);
-            JavaScriptValue jsInstance = this.marshaller.marshalToJavaScript(newInstance);
-            return jsInstance;
-        } catch (ClassNotFoundException cnfex) {
-            throw new IllegalArgumentException("Type not found: " + type, cnfex);
-        } catch (IllegalAccessException iaex) {
-            throw new IllegalArgumentException(
-                    "Illegal access to constructor for type: " + type, iaex);
-        } catch (InstantiationException iex) {
-            throw new IllegalArgumentException("Cannot instantiate type: " + type, iex);
-        } catch (InvocationTargetException itex) {
-            Log.e(TAG,
-                    "Exception thrown by constructor invocation target for type: " + type,
-                    itex.getTargetException());
-            throw itex;
+        JavaScriptMember constructor = this.getMember(
+                type, null, JavaScriptMember.Kind.CONSTRUCTOR, getArgumentsCount(arguments));
+        if (constructor == null) {
+            throw new IllegalArgumentException("Constructor not found or invalid " +
+                    "argument count: " + type);
         }
+
+        return this.invokeConstructor(constructor, arguments);
     }
 
     public void releaseInstance(JavaScriptValue instance) {
@@ -334,10 +506,10 @@ public final class JavaScriptBridge {
         }
 
         String type = this.getInstanceType(instance);
+        this.flushPropertyWrites(instance);
 
         try {
-            String classFullName = this.namespaceMapper.getJavaClassForJavaScriptClass(type);
-            Class<?> targetClass = Class.forName(classFullName);
+            Class<?> targetClass = this.memberCache.getClass(type);
             Object releasedObject = this.marshaller.releaseMarshalledObject(instance, targetClass);
             if (releasedObject != null && releasedObject == this.activityResultHandler) {
                 this.activityResultHandler = null;
@@ -349,6 +521,17 @@ public final class JavaScriptBridge {
 
     public JavaScriptValue getProperty(JavaScriptValue instance, String property)
             throws InvocationTargetException {
+        return this.getProperty(instance, property, null);
+    }
+
+    /**
+     * Gets a property of an instance, sending only part of a marshal-by-value result.
+     * @param fieldMask Array of the property paths of the result to send, such as "name" or
+     *        "address.city", or null to send the whole result.
+     */
+    public JavaScriptValue getProperty(
+            JavaScriptValue instance, String property, JavaScriptValue fieldMask)
+            throws InvocationTargetException {
         if (instance == null) {
             throw new IllegalArgumentException("An instance is required.");
         }
@@ -358,34 +541,14 @@ public final class JavaScriptBridge {
 
         String type = this.getInstanceType(instance);
 
-        try {
-            String classFullName = this.namespaceMapper.getJavaClassForJavaScriptClass(type);
-            Class<?> targetClass = Class.forName(classFullName);
-            Object targetInstance = this.marshaller.marshalFromJavaScript(instance, targetClass);
-
-            Method targetMethod = this.resolveMethod(targetClass, "get" + property, false, 0);
-            if (targetMethod == null) {
-                targetMethod = this.resolveMethod(targetClass, "is" + property, false, 0);
-                if (targetMethod == null) {
-                    throw new IllegalArgumentException(
-                            "Property getter not found: " + type + "." + property);
-                }
-            }
-
-            Object returnValue = targetMethod.invoke(targetInstance);
-            return this.marshaller.marshalToJavaScript(returnValue);
-        } catch (ClassNotFoundException cnfex) {
-            throw new IllegalArgumentException("Type not found: " + type, cnfex);
-        } catch (IllegalAccessException iaex) {
+        JavaScriptMember getter = this.getMember(
+                type, property, JavaScriptMember.Kind.GETTER, 0);
+        if (getter == null) {
             throw new IllegalArgumentException(
-                    "Illegal access to property: " + type + "." + property ,iaex);
-        } catch (InvocationTargetException itex) {
-            Log.e(TAG,
-                    "Exception thrown by get property invocation target: " +
-                            type + "." + property,
-                    itex.getTargetException());
-            throw itex;
+                    "Property getter not found: " + type + "." + property);
         }
+
+        return this.invokeGetter(getter, instance, FieldMask.parse(fieldMask));
     }
 
     public void setProperty(JavaScriptValue instance, String property, JavaScriptValue value)
@@ -399,82 +562,283 @@ public final class JavaScriptBridge {
 
         String type = this.getInstanceType(instance);
 
-        try {
-            String classFullName = this.namespaceMapper.getJavaClassForJavaScriptClass(type);
-            Class<?> targetClass = Class.forName(classFullName);
-            Object targetInstance = this.marshaller.marshalFromJavaScript(instance, targetClass);
+        JavaScriptMember setter = this.getMember(
+                type, property, JavaScriptMember.Kind.SETTER, 1);
+        if (setter == null) {
+            throw new IllegalArgumentException(
+                    "Property setter not found: " + type + "." + property);
+        }
+
+        if (this.propertyWriteCoalescingNanos > 0) {
+            int handle = getHandle(instance);
+            if (handle != INVALID_HANDLE) {
+                this.coalescePropertyWrite(handle, type, setter, value);
+                return;
+            }
+        }
+
+        this.invokeSetter(setter, instance, value);
+    }
+
+    /**
+     * Gets several properties of an instance in one call. All of the property getters are
+     * resolved before any of them is invoked, and the instance is converted only once.
+     * @param instance The instance whose properties are to be read.
+     * @param properties Array of property names.
+     * @return An object with a field for each requested property, holding its value.
+     */
+    public JavaScriptValue getProperties(JavaScriptValue instance, JavaScriptValue properties)
+            throws InvocationTargetException {
+        if (instance == null) {
+            throw new IllegalArgumentException("An instance is required.");
+        }
+        if (properties == null || properties.getType() != JavaScriptType.Array) {
+            throw new IllegalArgumentException("A JSON array of properties is required.");
+        }
+
+        String type = this.getInstanceType(instance);
+
+        int propertyCount = properties.getArrayLength();
+        JavaScriptMember[] getters = new JavaScriptMember[propertyCount];
+        for (int i = 0; i < propertyCount; i++) {
+            String property = getString(properties, i);
+            if (TextUtils.isEmpty(property)) {
+                throw new IllegalArgumentException("Each property must be a non-empty string.");
+            }
 
-            Method targetMethod = this.resolveMethod(targetClass, "set" + property, false, 1);
-            if (targetMethod == null) {
+            getters[i] = this.getMember(type, property, JavaScriptMember.Kind.GETTER, 0);
+            if (getters[i] == null) {
                 throw new IllegalArgumentException(
-                        "Property setter not found: " + type + "." + property);
+                        "Property getter not found: " + type + "." + property);
             }
+        }
 
-            Object convertedValue = this.marshaller.marshalFromJavaScript(
-                    value, targetMethod.getParameterTypes()[0]);
-            targetMethod.invoke(targetInstance, convertedValue);
-        } catch (ClassNotFoundException cnfex) {
-            throw new IllegalArgumentException("Type not found: " + type, cnfex);
-        } catch (IllegalAccessException iaex) {
-            throw new IllegalArgumentException(
-                    "Illegal access to property: " + type + "." + property ,iaex);
-        } catch (InvocationTargetException itex) {
-            Log.e(TAG,
-                    "Exception thrown by set static property invocation target: " +
-                            type + "." + property,
-                    itex.getTargetException());
+        JSValue values = JSValue.createObjectValue();
+        if (propertyCount > 0) {
+            Object targetInstance = this.getTargetInstance(getters[0], instance);
+            for (JavaScriptMember getter : getters) {
+                JavaScriptValue value = this.invokeGetterOnTarget(getter, targetInstance, null);
+                values.putObjectValue(getter.getName(), value != null ? value : JSValue.Null);
+            }
         }
+        return values;
     }
 
-    public ChainablePromise<JavaScriptValue> invokeMethod(
-            JavaScriptValue instance, String method, JavaScriptValue arguments)
+    /**
+     * Sets several properties of an instance in one call. All of the property setters are
+     * resolved and all of the values are converted before any setter is invoked, so an unknown
+     * property or an invalid value leaves the instance unchanged; the instance is converted only
+     * once. The setters are invoked in the order of the object's fields as received, which
+     * callers should not rely on. If a setter throws, the remaining setters are not invoked.
+     * While property write coalescing is enabled, the writes are coalesced as in setProperty().
+     * @param instance The instance whose properties are to be written.
+     * @param values Object with a field for each property to be set, holding the new value.
+     */
+    public void setProperties(JavaScriptValue instance, JavaScriptValue values)
             throws InvocationTargetException {
         if (instance == null) {
             throw new IllegalArgumentException("An instance is required.");
         }
-        if (TextUtils.isEmpty(method)) {
-            throw new IllegalArgumentException("A method is required.");
+        if (values == null || values.getType() != JavaScriptType.Object) {
+            throw new IllegalArgumentException("A JSON object of property values is required.");
         }
 
         String type = this.getInstanceType(instance);
 
-        try {
-            String classFullName = this.namespaceMapper.getJavaClassForJavaScriptClass(type);
-            Class<?> targetClass = Class.forName(classFullName);
-            Object targetInstance = this.marshaller.marshalFromJavaScript(instance, targetClass);
-
-            String methodName = this.namespaceMapper.getJavaMemberForJavaScriptMember(method);
-            Method targetMethod = this.resolveMethod(targetClass, methodName, false, arguments);
-            if (targetMethod == null) {
-                throw new IllegalArgumentException("Method not found or invalid argument count: " +
-                        type + "." + method);
+        ArrayList<JavaScriptMember> setters = new ArrayList<JavaScriptMember>();
+        ArrayList<JavaScriptValue> setterValues = new ArrayList<JavaScriptValue>();
+        for (Map.Entry<String, JavaScriptValue> entry : values.getObjectEntries()) {
+            String property = entry.getKey();
+            JavaScriptMember setter = this.getMember(
+                    type, property, JavaScriptMember.Kind.SETTER, 1);
+            if (setter == null) {
+                throw new IllegalArgumentException(
+                        "Property setter not found: " + type + "." + property);
             }
 
-            Object[] convertedArguments = this.marshaller.marshalFromJavaScript(
-                    arguments, targetMethod.getParameterTypes());
-            if (convertedArguments == null) {
-                throw new IllegalArgumentException("Supplied arguments could not be converted " +
-                        "to expected types for method " + type + "." + method);
+            setters.add(setter);
+            setterValues.add(entry.getValue() != null ? entry.getValue() : JSValue.Null);
+        }
+
+        if (setters.isEmpty()) {
+            return;
+        }
+
+        if (this.propertyWriteCoalescingNanos > 0) {
+            int handle = getHandle(instance);
+            if (handle != INVALID_HANDLE) {
+                for (int i = 0; i < setters.size(); i++) {
+                    this.coalescePropertyWrite(handle, type, setters.get(i), setterValues.get(i));
+                }
+                return;
             }
+        }
 
+        this.flushPropertyWritesInArguments(values);
+        Object[] convertedValues = new Object[setters.size()];
+        for (int i = 0; i < convertedValues.length; i++) {
+            convertedValues[i] =
+                    setters.get(i).getArgumentConverters()[0].convert(setterValues.get(i));
+        }
 
-            this.saveActivityResultHandler(targetInstance, convertedArguments);
+        Object targetInstance = this.getTargetInstance(setters.get(0), instance);
+        for (int i = 0; i < convertedValues.length; i++) {
+            this.invokeSetterOnTarget(setters.get(i), targetInstance, convertedValues[i]);
+        }
+    }
 
-            Object returnValue = targetMethod.invoke(targetInstance, convertedArguments);
-            return this.convertToFutureJson(returnValue);
-        } catch (ClassNotFoundException cnfex) {
-            throw new IllegalArgumentException("Type not found: " + type, cnfex);
-        } catch (IllegalAccessException iaex) {
-            throw new IllegalArgumentException(
-                    "Illegal access to method: " + type + "." + method, iaex);
-        } catch (InvocationTargetException itex) {
-            Log.e(TAG,
-                    "Exception thrown by method invocation target: " + type + "." + method,
-                    itex.getTargetException());
-            throw itex;
+    private void coalescePropertyWrite(
+            int handle, String type, JavaScriptMember setter, JavaScriptValue value) {
+        // Keep only the type and handle of the instance, not an adapter over the caller's map.
+        JSValue instanceReference = JSValue.createObjectValue();
+        instanceReference.putObjectValue("type", type);
+        instanceReference.putObjectValue("handle", handle);
+
+        if (this.propertyWriteCoalescer.add(handle, setter, instanceReference, value)) {
+            final JavaScriptBridge self = this;
+            Promises.delay(this.propertyWriteCoalescingNanos, TimeUnit.NANOSECONDS).thenOn(
+                    this.countingExecutor,
+                    new Function<Void, Void>() {
+                        @Override
+                        public Void apply(Void result) {
+                            self.flushPropertyWrites();
+                            return null;
+                        }
+                    }).thenCatch(new Consumer<Exception>() {
+                        @Override
+                        public void accept(Exception exception) {
+                            // The executor rejected the flush; apply the writes on this thread.
+                            self.flushPropertyWrites();
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Applies pending coalesced writes to an instance, before another call on the instance.
+     * Writes are removed and applied while holding the flush lock, so if another thread is
+     * applying writes already (which are then no longer pending), this waits for it to finish.
+     */
+    private void flushPropertyWrites(JavaScriptValue instance) {
+        if (this.propertyWriteCoalescer.hasPendingWrites()) {
+            int handle = getHandle(instance);
+            if (handle != INVALID_HANDLE) {
+                synchronized (this.propertyWriteFlushLock) {
+                    this.applyPropertyWrites(this.propertyWriteCoalescer.remove(handle));
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies pending coalesced writes to any instances referred to within the arguments of a
+     * call (or a property value), before the arguments are converted and passed to the call.
+     */
+    private void flushPropertyWritesInArguments(JavaScriptValue arguments) {
+        if (arguments == null || !this.propertyWriteCoalescer.hasPendingWrites() ||
+                arguments instanceof JSPrimitiveArray) {
+            return;
+        }
+
+        if (arguments.getType() == JavaScriptType.Array) {
+            int length = arguments.getArrayLength();
+            for (int i = 0; i < length; i++) {
+                this.flushPropertyWritesInArguments(arguments.getArrayItem(i));
+            }
+        } else if (arguments.getType() == JavaScriptType.Object) {
+            if (getHandle(arguments) != INVALID_HANDLE) {
+                this.flushPropertyWrites(arguments);
+            } else {
+                // Objects marshalled by value may refer to instances in their properties.
+                for (Map.Entry<String, JavaScriptValue> entry : arguments.getObjectEntries()) {
+                    this.flushPropertyWritesInArguments(entry.getValue());
+                }
+            }
         }
     }
 
+    private void applyPropertyWrites(List<PropertyWriteCoalescer.PendingWrite> writes) {
+        if (writes == null) {
+            return;
+        }
+
+        try {
+            for (PropertyWriteCoalescer.PendingWrite write : writes) {
+                try {
+                    this.invokeSetter(write.setter, write.instance, write.value);
+                } catch (InvocationTargetException itex) {
+                    this.reportOneWayError(getPropertyWriteCall(write), itex.getTargetException());
+                } catch (RuntimeException rex) {
+                    this.reportOneWayError(getPropertyWriteCall(write), rex);
+                }
+            }
+        } finally {
+            this.propertyWriteCoalescer.applied(writes);
+        }
+    }
+
+    private static JavaScriptValue getPropertyWriteCall(
+            PropertyWriteCoalescer.PendingWrite write) {
+        JSValue call = JSValue.createArrayValue();
+        call.addArrayItem(JSValue.fromString(CallType.SET_PROPERTY));
+        call.addArrayItem(write.instance);
+        call.addArrayItem(JSValue.fromString(write.setter.getName()));
+        call.addArrayItem(write.value);
+        return call;
+    }
+
+    private static int getHandle(JavaScriptValue instance) {
+        if (JavaScriptMarshaller.isPackedReference(instance)) {
+            return JavaScriptMarshaller.getPackedHandle(instance);
+        }
+
+        JavaScriptValue handleValue = instance.getObjectValue("handle");
+        return (handleValue != null && handleValue.getType() == JavaScriptType.Number ?
+                handleValue.getInteger() : INVALID_HANDLE);
+    }
+
+    public ChainablePromise<JavaScriptValue> invokeMethod(
+            JavaScriptValue instance, String method, JavaScriptValue arguments)
+            throws InvocationTargetException {
+        return this.invokeMethod(instance, method, arguments, null);
+    }
+
+    /**
+     * Invokes a method of an instance, sending only part of a marshal-by-value result.
+     * @param fieldMask Array of the property paths of the result to send, such as "name" or
+     *        "address.city", or null to send the whole result.
+     */
+    public ChainablePromise<JavaScriptValue> invokeMethod(
+            JavaScriptValue instance,
+            String method,
+            JavaScriptValue arguments,
+            JavaScriptValue fieldMask)
+            throws InvocationTargetException {
+        FieldMask parsedFieldMask = FieldMask.parse(fieldMask);
+        JavaScriptMember targetMethod = this.getInstanceMethod(instance, method, arguments);
+        return this.invokeMethod(targetMethod, instance, arguments, parsedFieldMask);
+    }
+
+    private JavaScriptMember getInstanceMethod(
+            JavaScriptValue instance, String method, JavaScriptValue arguments) {
+        if (instance == null) {
+            throw new IllegalArgumentException("An instance is required.");
+        }
+        if (TextUtils.isEmpty(method)) {
+            throw new IllegalArgumentException("A method is required.");
+        }
+
+        String type = this.getInstanceType(instance);
+
+        JavaScriptMember targetMethod = this.getMember(
+                type, method, JavaScriptMember.Kind.METHOD, getArgumentsCount(arguments));
+        if (targetMethod == null) {
+            throw new IllegalArgumentException("Method not found or invalid argument count: " +
+                    type + "." + method);
+        }
+        return targetMethod;
+    }
+
     public void addEventListener(
             JavaScriptValue instance, String event, Consumer<JavaScriptValue> eventListener)
             throws InvocationTargetException {
@@ -489,12 +853,13 @@ public final class JavaScriptBridge {
         }
 
         String type = this.getInstanceType(instance);
+        this.flushPropertyWrites(instance);
 
         String methodName = "add" + event + "Listener";
         try {
-            String classFullName = this.namespaceMapper.getJavaClassForJavaScriptClass(type);
-            Class<?> sourceClass = Class.forName(classFullName);
-            Object sourceInstance = this.marshaller.marshalFromJavaScript(instance, sourceClass);
+            Class<?> sourceClass = this.memberCache.getClass(type);
+            Object sourceInstance =
+                    this.marshaller.marshalInstanceFromJavaScript(instance, sourceClass);
             JavaScriptEventBridge eventBridge = new JavaScriptEventBridge(
                     sourceInstance, event, eventListener, this.marshaller);
             eventBridge.addListener();
@@ -530,12 +895,13 @@ public final class JavaScriptBridge {
         }
 
         String type = this.getInstanceType(instance);
+        this.flushPropertyWrites(instance);
 
         String methodName = "remove" + event + "Listener";
         try {
-            String classFullName = this.namespaceMapper.getJavaClassForJavaScriptClass(type);
-            Class<?> sourceClass = Class.forName(classFullName);
-            Object sourceInstance = this.marshaller.marshalFromJavaScript(instance, sourceClass);
+            Class<?> sourceClass = this.memberCache.getClass(type);
+            Object sourceInstance =
+                    this.marshaller.marshalInstanceFromJavaScript(instance, sourceClass);
 
             JavaScriptEventBridge eventBridge = null;
             synchronized (this.eventBridges) {
@@ -555,7 +921,7 @@ public final class JavaScriptBridge {
                     this.eventBridges.remove(eventBridge);
                 }
             } else {
-                Log.w(TAG, "Event listener not found to remove: " + classFullName + "." + event);
+                Log.w(TAG, "Event listener not found to remove: " + type + "." + event);
             }
         } catch (ClassNotFoundException cnfex) {
             throw new IllegalArgumentException("Type not found: " + type, cnfex);
@@ -571,60 +937,690 @@ public final class JavaScriptBridge {
         }
     }
 
+    /**
+     * Resolves a property, method, or constructor of a type, and returns a compact ID for it.
+     * Callers may save the ID and pass it to invokeMember() for subsequent calls, to avoid
+     * sending and mapping the type and member names again for every call.
+     * @param callType One of the get/set property, invoke method, or create instance values
+     *        from CallType, which determines the kind of member that is resolved.
+     * @param type Full JavaScript type name.
+     * @param member JavaScript name of the property or method, or null for a constructor.
+     * @param argumentsCount Number of arguments the method or constructor will be invoked with.
+     *        (Ignored for properties.)
+     * @return ID of the resolved member, valid for the lifetime of the bridge.
+     */
+    public int resolveMember(String callType, String type, String member, int argumentsCount) {
+        if (TextUtils.isEmpty(callType)) {
+            throw new IllegalArgumentException("A call type is required.");
+        }
+        if (TextUtils.isEmpty(type)) {
+            throw new IllegalArgumentException("A type is required.");
+        }
+
+        JavaScriptMember.Kind kind = getMemberKind(callType);
+        if (kind == JavaScriptMember.Kind.CONSTRUCTOR) {
+            member = null;
+        } else if (TextUtils.isEmpty(member)) {
+            throw new IllegalArgumentException("A member is required.");
+        }
+
+        if (kind == JavaScriptMember.Kind.GETTER || kind == JavaScriptMember.Kind.STATIC_GETTER) {
+            argumentsCount = 0;
+        } else if (kind == JavaScriptMember.Kind.SETTER ||
+                kind == JavaScriptMember.Kind.STATIC_SETTER) {
+            argumentsCount = 1;
+        }
+
+        JavaScriptMember resolvedMember = this.getMember(type, member, kind, argumentsCount);
+        if (resolvedMember == null) {
+            throw new IllegalArgumentException("Member not found or invalid argument count: " +
+                    (member != null ? type + "." + member : type));
+        }
+
+        return resolvedMember.getId();
+    }
+
+    /**
+     * Invokes a member that was previously resolved by resolveMember().
+     * @param memberId ID of the resolved member.
+     * @param instance Instance to invoke the member on, or null if the member is static or is a
+     *        constructor.
+     * @param arguments Array of arguments. For a property setter, the array has a single item
+     *        that is the value to set. For a property getter, the arguments are ignored.
+     * @return A promise for the member's return value. For a constructor this is the new
+     *        instance; for a property setter it is null.
+     */
+    public ChainablePromise<JavaScriptValue> invokeMember(
+            int memberId, JavaScriptValue instance, JavaScriptValue arguments)
+            throws InvocationTargetException {
+        JavaScriptMember member = this.memberCache.getMember(memberId);
+        if (member == null) {
+            throw new IllegalArgumentException("Member ID not found: " + memberId);
+        }
+
+        switch (member.getKind()) {
+            case CONSTRUCTOR:
+                if (arguments == null) {
+                    throw new IllegalArgumentException("JSON arguments are required.");
+                }
+                return new ChainablePromise<JavaScriptValue>(
+                        this.invokeConstructor(member, arguments));
+            case STATIC_GETTER:
+            case GETTER:
+                return new ChainablePromise<JavaScriptValue>(this.invokeGetter(member, instance));
+            case STATIC_SETTER:
+            case SETTER:
+                if (getArgumentsCount(arguments) != 1) {
+                    throw new IllegalArgumentException(
+                            "A single value is required to set property: " + member);
+                }
+                this.invokeSetter(member, instance, arguments.getArrayItem(0));
+                return new ChainablePromise<JavaScriptValue>(JSValue.Null);
+            default:
+                if (arguments == null) {
+                    throw new IllegalArgumentException("JSON arguments are required.");
+                }
+                return this.invokeMethod(member, instance, arguments);
+        }
+    }
+
+    /**
+     * Executes a batch of calls in one bridge crossing. The calls are started in order, each
+     * after the previous one has returned (though asynchronous methods may still be running).
+     * The batch completes after all the calls are done; a failed call does not stop the others.
+     *
+     * A call may use the result of an earlier call in the batch as its instance or in its
+     * arguments, via a placeholder object: { "type": "&lt;slot&gt;", "value": callIndex }. Such a
+     * call is started as soon as the results it depends on are available (immediately, if they
+     * came from synchronous calls), so that a chain of dependent calls needs only one bridge
+     * crossing. If any of those calls fails, the dependent call fails too.
+     * @param calls Array of calls. Each call is an array whose first item is a value from
+     *        CallType, followed by the same arguments as the corresponding bridge method:
+     *        <ul>
+     *        <li>getStaticProperty: type, property</li>
+     *        <li>setStaticProperty: type, property, value</li>
+     *        <li>invokeStaticMethod: type, method, arguments array</li>
+     *        <li>createInstance: type, arguments array</li>
+     *        <li>releaseInstance: instance</li>
+     *        <li>getProperty: instance, property, optional field mask</li>
+     *        <li>setProperty: instance, property, value</li>
+     *        <li>getProperties: instance, properties array</li>
+     *        <li>setProperties: instance, property values object</li>
+     *        <li>invokeMethod: instance, method, arguments array, optional field mask</li>
+     *        <li>resolveMember: call type, type, member (or null), arguments count</li>
+     *        <li>invokeMember: member ID, instance (or null), arguments array</li>
+     *        </ul>
+     *        Event listeners cannot be added or removed in a batch, because each registration
+     *        needs its own callback.
+     * @return A promise for an array with one item per call, in the same order as the calls.
+     *        Each item is an object with either a "result" field holding the call's return value
+     *        (null or absent for calls that return nothing), or an "error" field holding the
+     *        message of the exception that caused the call to fail.
+     */
+    public ChainablePromise<JavaScriptValue> invokeBatch(JavaScriptValue calls) {
+        if (calls == null || calls.getType() != JavaScriptType.Array) {
+            throw new IllegalArgumentException("A JSON array of calls is required.");
+        }
+
+        int callCount = calls.getArrayLength();
+        List<ChainablePromise<JavaScriptValue>> results =
+                new ArrayList<ChainablePromise<JavaScriptValue>>(callCount);
+        for (int i = 0; i < callCount; i++) {
+            JavaScriptValue call = calls.getArrayItem(i);
+            BitSet slotIndexes = new BitSet();
+            ChainablePromise<JavaScriptValue> result;
+            try {
+                JavaScriptMarshaller.findSlotReferences(call, slotIndexes);
+                if (slotIndexes.isEmpty()) {
+                    result = this.invokeBatchCallSafely(call);
+                } else if (slotIndexes.length() > i) {
+                    throw new IllegalArgumentException(
+                            "A batched call can only use the results of earlier calls.");
+                } else {
+                    result = this.invokePipelinedBatchCall(call, slotIndexes, results);
+                }
+            } catch (IllegalArgumentException iaex) {
+                result = new ChainablePromise<JavaScriptValue>(iaex);
+            }
+            results.add(result);
+        }
+
+        return Promises.allSettled(results).then(
+                new Function<List<Promises.Settlement<JavaScriptValue>>, JavaScriptValue>() {
+                    @Override
+                    public JavaScriptValue apply(
+                            List<Promises.Settlement<JavaScriptValue>> settlements) {
+                        JSValue batchResult = JSValue.createArrayValue();
+                        for (Promises.Settlement<JavaScriptValue> settlement : settlements) {
+                            JSValue callResult = JSValue.createObjectValue();
+                            if (settlement.isResolved()) {
+                                JavaScriptValue value = settlement.getResult();
+                                callResult.putObjectValue(
+                                        "result", value != null ? value : JSValue.Null);
+                            } else {
+                                callResult.putObjectValue(
+                                        "error", getErrorMessage(settlement.getException()));
+                            }
+                            batchResult.addArrayItem(callResult);
+                        }
+                        return batchResult;
+                    }
+                });
+    }
+
+    /**
+     * Invokes a batched call after the earlier calls whose results it uses are done, replacing
+     * the placeholders in the call with those results.
+     */
+    private ChainablePromise<JavaScriptValue> invokePipelinedBatchCall(
+            final JavaScriptValue call,
+            BitSet slotIndexes,
+            List<ChainablePromise<JavaScriptValue>> earlierResults) {
+        final int[] dependencyIndexes = new int[slotIndexes.cardinality()];
+        List<ChainablePromise<JavaScriptValue>> dependencies =
+                new ArrayList<ChainablePromise<JavaScriptValue>>(dependencyIndexes.length);
+        for (int i = slotIndexes.nextSetBit(0), j = 0; i >= 0;
+                i = slotIndexes.nextSetBit(i + 1), j++) {
+            dependencyIndexes[j] = i;
+            dependencies.add(earlierResults.get(i));
+        }
+
+        final JavaScriptBridge self = this;
+        final int slotCount = earlierResults.size();
+        final ChainablePromise<JavaScriptValue> result = new ChainablePromise<JavaScriptValue>();
+        Promises.all(dependencies).then(
+                new Consumer<List<JavaScriptValue>>() {
+                    @Override
+                    public void accept(List<JavaScriptValue> dependencyResults) {
+                        JavaScriptValue[] slotResults = new JavaScriptValue[slotCount];
+                        for (int j = 0; j < dependencyIndexes.length; j++) {
+                            JavaScriptValue dependencyResult = dependencyResults.get(j);
+                            slotResults[dependencyIndexes[j]] =
+                                    dependencyResult != null ? dependencyResult : JSValue.Null;
+                        }
+
+                        JavaScriptValue resolvedCall =
+                                JavaScriptMarshaller.replaceSlotReferences(call, slotResults);
+                        self.invokeBatchCallSafely(resolvedCall).then(
+                                new Consumer<JavaScriptValue>() {
+                                    @Override
+                                    public void accept(JavaScriptValue value) {
+                                        result.resolve(value);
+                                    }
+                                },
+                                new Consumer<Exception>() {
+                                    @Override
+                                    public void accept(Exception exception) {
+                                        result.reject(exception);
+                                    }
+                                });
+                    }
+                },
+                new Consumer<Exception>() {
+                    @Override
+                    public void accept(Exception exception) {
+                        result.reject(new IllegalStateException(
+                                "An earlier call whose result is used by this call failed: " +
+                                        getErrorMessage(exception), exception));
+                    }
+                });
+        return result;
+    }
+
+    /**
+     * Invokes a batched call, returning a rejected promise instead of throwing if it fails.
+     */
+    private ChainablePromise<JavaScriptValue> invokeBatchCallSafely(JavaScriptValue call) {
+        try {
+            return this.invokeBatchCall(call);
+        } catch (InvocationTargetException itex) {
+            Throwable targetException = itex.getTargetException();
+            return new ChainablePromise<JavaScriptValue>(
+                    targetException instanceof Exception ? (Exception) targetException :
+                            new RuntimeException(targetException));
+        } catch (RuntimeException rex) {
+            return new ChainablePromise<JavaScriptValue>(rex);
+        }
+    }
+
+    private ChainablePromise<JavaScriptValue> invokeBatchCall(JavaScriptValue call)
+            throws InvocationTargetException {
+        if (call == null || call.getType() != JavaScriptType.Array ||
+                call.getArrayLength() == 0) {
+            throw new IllegalArgumentException("Each batched call must be a non-empty array.");
+        }
+
+        String callType = getString(call, 0);
+        if (CallType.GET_STATIC_PROPERTY.equals(callType)) {
+            return new ChainablePromise<JavaScriptValue>(this.getStaticProperty(
+                    getString(call, 1), getString(call, 2)));
+        } else if (CallType.SET_STATIC_PROPERTY.equals(callType)) {
+            this.setStaticProperty(getString(call, 1), getString(call, 2), getValue(call, 3));
+            return new ChainablePromise<JavaScriptValue>(JSValue.Null);
+        } else if (CallType.INVOKE_STATIC_METHOD.equals(callType)) {
+            return this.invokeStaticMethod(
+                    getString(call, 1), getString(call, 2), getItem(call, 3));
+        } else if (CallType.CREATE_INSTANCE.equals(callType)) {
+            return new ChainablePromise<JavaScriptValue>(this.createInstance(
+                    getString(call, 1), getItem(call, 2)));
+        } else if (CallType.RELEASE_INSTANCE.equals(callType)) {
+            this.releaseInstance(getItem(call, 1));
+            return new ChainablePromise<JavaScriptValue>(JSValue.Null);
+        } else if (CallType.GET_PROPERTY.equals(callType)) {
+            return new ChainablePromise<JavaScriptValue>(this.getProperty(
+                    getItem(call, 1), getString(call, 2), getItem(call, 3)));
+        } else if (CallType.SET_PROPERTY.equals(callType)) {
+            this.setProperty(getItem(call, 1), getString(call, 2), getValue(call, 3));
+            return new ChainablePromise<JavaScriptValue>(JSValue.Null);
+        } else if (CallType.GET_PROPERTIES.equals(callType)) {
+            return new ChainablePromise<JavaScriptValue>(this.getProperties(
+                    getItem(call, 1), getItem(call, 2)));
+        } else if (CallType.SET_PROPERTIES.equals(callType)) {
+            this.setProperties(getItem(call, 1), getItem(call, 2));
+            return new ChainablePromise<JavaScriptValue>(JSValue.Null);
+        } else if (CallType.INVOKE_METHOD.equals(callType)) {
+            return this.invokeMethod(
+                    getItem(call, 1), getString(call, 2), getItem(call, 3), getItem(call, 4));
+        } else if (CallType.RESOLVE_MEMBER.equals(callType)) {
+            JavaScriptValue argumentsCount = getItem(call, 4);
+            int memberId = this.resolveMember(
+                    getString(call, 1),
+                    getString(call, 2),
+                    getString(call, 3),
+                    argumentsCount != null && argumentsCount.getType() == JavaScriptType.Number ?
+                            argumentsCount.getInteger() : 0);
+            return new ChainablePromise<JavaScriptValue>(JSValue.fromInteger(memberId));
+        } else if (CallType.INVOKE_MEMBER.equals(callType)) {
+            JavaScriptValue memberId = getItem(call, 1);
+            if (memberId == null || memberId.getType() != JavaScriptType.Number) {
+                throw new IllegalArgumentException("A member ID is required.");
+            }
+            return this.invokeMember(memberId.getInteger(), getItem(call, 2), getItem(call, 3));
+        } else {
+            throw new IllegalArgumentException("Invalid batched call type: " + callType);
+        }
+    }
+
+    /**
+     * Sets a listener for failures of calls made via invokeOneWay(). The listener is invoked
+     * with an object that has "callType", "member" (a name, or "#" and an ID for invokeMember)
+     * and "error" (the exception message) fields. Without a listener, failures are only logged.
+     * @param listener The listener, or null to remove the listener.
+     */
+    public void setOneWayErrorListener(Consumer<JavaScriptValue> listener) {
+        this.oneWayErrorListener = listener;
+    }
+
+    /**
+     * Sets a property or invokes a method without producing a result, so that hosts need not
+     * send any response for the call. The return value of a method is not marshalled; if it is
+     * a future, it is only watched for failure. This method does not throw: any failure of the
+     * call, including a failure of a returned future, is reported to the one-way error listener.
+     * @param call Array of a call type followed by the same arguments as in invokeBatch(). The
+     *        call type must be setStaticProperty, invokeStaticMethod, setProperty,
+     *        setProperties, invokeMethod, or invokeMember (for a method or property setter).
+     */
+    public void invokeOneWay(JavaScriptValue call) {
+        try {
+            if (call == null || call.getType() != JavaScriptType.Array ||
+                    call.getArrayLength() == 0) {
+                throw new IllegalArgumentException("A one-way call must be a non-empty array.");
+            }
+
+            String callType = getString(call, 0);
+            Object returnValue;
+            if (CallType.SET_STATIC_PROPERTY.equals(callType)) {
+                this.setStaticProperty(getString(call, 1), getString(call, 2), getValue(call, 3));
+                return;
+            } else if (CallType.SET_PROPERTY.equals(callType)) {
+                this.setProperty(getItem(call, 1), getString(call, 2), getValue(call, 3));
+                return;
+            } else if (CallType.SET_PROPERTIES.equals(callType)) {
+                this.setProperties(getItem(call, 1), getItem(call, 2));
+                return;
+            } else if (CallType.INVOKE_STATIC_METHOD.equals(callType)) {
+                JavaScriptValue arguments = getItem(call, 3);
+                JavaScriptMember targetMethod =
+                        this.getStaticMethod(getString(call, 1), getString(call, 2), arguments);
+                returnValue = this.invokeMethodTarget(targetMethod, null, arguments);
+            } else if (CallType.INVOKE_METHOD.equals(callType)) {
+                JavaScriptValue instance = getItem(call, 1);
+                JavaScriptValue arguments = getItem(call, 3);
+                JavaScriptMember targetMethod =
+                        this.getInstanceMethod(instance, getString(call, 2), arguments);
+                returnValue = this.invokeMethodTarget(targetMethod, instance, arguments);
+            } else if (CallType.INVOKE_MEMBER.equals(callType)) {
+                returnValue = this.invokeMemberOneWay(
+                        getItem(call, 1), getItem(call, 2), getItem(call, 3));
+            } else {
+                throw new IllegalArgumentException("Invalid one-way call type: " + callType);
+            }
+
+            this.watchOneWayResult(returnValue, call);
+        } catch (InvocationTargetException itex) {
+            this.reportOneWayError(call, itex.getTargetException());
+        } catch (RuntimeException rex) {
+            this.reportOneWayError(call, rex);
+        }
+    }
+
+    private Object invokeMemberOneWay(
+            JavaScriptValue memberId, JavaScriptValue instance, JavaScriptValue arguments)
+            throws InvocationTargetException {
+        if (memberId == null || memberId.getType() != JavaScriptType.Number) {
+            throw new IllegalArgumentException("A member ID is required.");
+        }
+
+        JavaScriptMember member = this.memberCache.getMember(memberId.getInteger());
+        if (member == null) {
+            throw new IllegalArgumentException("Member ID not found: " + memberId.getInteger());
+        }
+
+        switch (member.getKind()) {
+            case STATIC_SETTER:
+            case SETTER:
+                if (getArgumentsCount(arguments) != 1) {
+                    throw new IllegalArgumentException(
+                            "A single value is required to set property: " + member);
+                }
+                this.invokeSetter(member, instance, arguments.getArrayItem(0));
+                return null;
+            case STATIC_METHOD:
+            case METHOD:
+                if (arguments == null) {
+                    throw new IllegalArgumentException("JSON arguments are required.");
+                }
+                return this.invokeMethodTarget(member, instance, arguments);
+            default:
+                throw new IllegalArgumentException(
+                        "Only methods and property setters can be invoked one-way: " + member);
+        }
+    }
+
+    /**
+     * Reports a failure of a future or promise returned by a one-way call, if it fails.
+     */
+    @SuppressWarnings("unchecked")
+    private void watchOneWayResult(Object returnValue, final JavaScriptValue call) {
+        final JavaScriptBridge self = this;
+        if (returnValue instanceof ChainablePromise<?>) {
+            ((ChainablePromise<Object>) returnValue).thenCatch(new Consumer<Exception>() {
+                @Override
+                public void accept(Exception exception) {
+                    self.reportOneWayError(call, exception);
+                }
+            });
+        } else if (returnValue instanceof Future<?>) {
+            final Future<?> futureValue = (Future<?>) returnValue;
+            this.futureWatcher.addListener(futureValue, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        futureValue.get();
+                    } catch (ExecutionException eex) {
+                        self.reportOneWayError(call, eex.getCause());
+                    } catch (Exception ex) {
+                        self.reportOneWayError(call, ex);
+                    }
+                }
+            });
+        }
+    }
+
+    private void reportOneWayError(JavaScriptValue call, Throwable error) {
+        Consumer<JavaScriptValue> listener = this.oneWayErrorListener;
+        String callType = null;
+        String member = null;
+        if (call != null && call.getType() == JavaScriptType.Array) {
+            callType = getString(call, 0);
+            if (CallType.INVOKE_MEMBER.equals(callType)) {
+                JavaScriptValue memberId = getItem(call, 1);
+                member = (memberId != null && memberId.getType() == JavaScriptType.Number ?
+                        "#" + memberId.getInteger() : null);
+            } else {
+                member = getString(call, 2);
+            }
+        }
+
+        if (listener == null) {
+            Log.w(TAG, "One-way call failed: " + callType + " " + member, error);
+            return;
+        }
+
+        JSValue errorValue = JSValue.createObjectValue();
+        errorValue.putObjectValue("callType", callType != null ? callType : "");
+        errorValue.putObjectValue("member", member != null ? member : "");
+        errorValue.putObjectValue("error", getErrorMessage(error));
+        listener.accept(errorValue);
+    }
+
+    /**
+     * Gets an item from a batched call array, or null if the item is missing or is JS null.
+     */
+    private static JavaScriptValue getItem(JavaScriptValue call, int index) {
+        if (index >= call.getArrayLength()) {
+            return null;
+        }
+
+        JavaScriptValue item = call.getArrayItem(index);
+        if (item == null || item.getType() == JavaScriptType.Null ||
+                item.getType() == JavaScriptType.Undefined) {
+            return null;
+        }
+        return item;
+    }
+
+    /**
+     * Gets a value to be set from a batched call array, which may be JS null.
+     */
+    private static JavaScriptValue getValue(JavaScriptValue call, int index) {
+        JavaScriptValue item = getItem(call, index);
+        return item != null ? item : JSValue.Null;
+    }
+
+    private static String getString(JavaScriptValue call, int index) {
+        JavaScriptValue item = getItem(call, index);
+        return item != null && item.getType() == JavaScriptType.String ? item.getString() : null;
+    }
+
+    private static String getErrorMessage(Throwable exception) {
+        String message = exception.getMessage();
+        return message != null ? message : exception.getClass().getName();
+    }
+
     private String getInstanceType(JavaScriptValue instance) {
-        JavaScriptValue typeValue = instance.getObjectValue("type");
-        String type = typeValue.getType() == JavaScriptType.String ? typeValue.getString() : null;
+        String type = this.marshaller.getTypeName(instance);
         if (TextUtils.isEmpty(type)) {
             throw new IllegalArgumentException("The instance must have a type field.");
         }
         return type;
     }
 
-    private Constructor<?> resolveConstructor(
-            Class<?> constructorClass, JavaScriptValue arguments) {
-        int argumentsCount = 0;
+    private static int getArgumentsCount(JavaScriptValue arguments) {
         if (arguments != null && arguments.getType() == JavaScriptType.Array) {
-            argumentsCount = arguments.getArrayLength();
+            return arguments.getArrayLength();
         }
+        return 0;
+    }
 
-        return this.resolveConstructor(constructorClass, argumentsCount);
+    private static JavaScriptMember.Kind getMemberKind(String callType) {
+        if (CallType.GET_STATIC_PROPERTY.equals(callType)) {
+            return JavaScriptMember.Kind.STATIC_GETTER;
+        } else if (CallType.SET_STATIC_PROPERTY.equals(callType)) {
+            return JavaScriptMember.Kind.STATIC_SETTER;
+        } else if (CallType.INVOKE_STATIC_METHOD.equals(callType)) {
+            return JavaScriptMember.Kind.STATIC_METHOD;
+        } else if (CallType.CREATE_INSTANCE.equals(callType)) {
+            return JavaScriptMember.Kind.CONSTRUCTOR;
+        } else if (CallType.GET_PROPERTY.equals(callType)) {
+            return JavaScriptMember.Kind.GETTER;
+        } else if (CallType.SET_PROPERTY.equals(callType)) {
+            return JavaScriptMember.Kind.SETTER;
+        } else if (CallType.INVOKE_METHOD.equals(callType)) {
+            return JavaScriptMember.Kind.METHOD;
+        } else {
+            throw new IllegalArgumentException("Call type cannot be resolved to a member: " +
+                    callType);
+        }
     }
 
-    private Constructor<?> resolveConstructor(Class<?> constructorClass, int argumentsCount) {
-        for (Constructor<?> constructor: constructorClass.getConstructors()) {
-            if (Modifier.isPublic(constructor.getModifiers()) &&
-                    constructor.getParameterTypes().length == argumentsCount) {
-                return constructor;
-            }
+    private JavaScriptMember getMember(
+            String type, String name, JavaScriptMember.Kind kind, int argumentsCount) {
+        try {
+            return this.memberCache.getMember(type, name, kind, argumentsCount);
+        } catch (ClassNotFoundException cnfex) {
+            throw new IllegalArgumentException("Type not found: " + type, cnfex);
         }
+    }
 
-        return null;
+    private Object getTargetInstance(JavaScriptMember member, JavaScriptValue instance) {
+        if (member.isStatic()) {
+            return null;
+        } else if (instance == null || (instance.getType() != JavaScriptType.Object &&
+                !JavaScriptMarshaller.isPackedReference(instance))) {
+            throw new IllegalArgumentException("An instance is required for member: " + member);
+        }
+
+        this.flushPropertyWrites(instance);
+
+        if (JavaScriptMarshaller.isPackedReference(instance)) {
+            return this.marshaller.marshalInstanceFromJavaScript(
+                    instance, member.getTargetClass());
+        }
+        return member.getTargetConverter().convert(instance);
     }
 
-    private Method resolveMethod(
-            Class<?> methodClass, String methodName, boolean isStatic, JavaScriptValue arguments) {
-        int argumentsCount = 0;
-        if (arguments != null && arguments.getType() == JavaScriptType.Array) {
-            argumentsCount = arguments.getArrayLength();
+    private JavaScriptValue invokeGetter(JavaScriptMember getter, JavaScriptValue instance)
+            throws InvocationTargetException {
+        return this.invokeGetter(getter, instance, null);
+    }
+
+    private JavaScriptValue invokeGetter(
+            JavaScriptMember getter, JavaScriptValue instance, FieldMask fieldMask)
+            throws InvocationTargetException {
+        Object targetInstance = this.getTargetInstance(getter, instance);
+        return this.invokeGetterOnTarget(getter, targetInstance, fieldMask);
+    }
+
+    private JavaScriptValue invokeGetterOnTarget(
+            JavaScriptMember getter, Object targetInstance, FieldMask fieldMask)
+            throws InvocationTargetException {
+        try {
+            Object returnValue = getter.invoke(targetInstance, NO_ARGUMENTS);
+            return this.marshaller.marshalToJavaScript(returnValue, fieldMask);
+        } catch (IllegalAccessException iaex) {
+            throw new IllegalArgumentException("Illegal access to property: " + getter, iaex);
+        } catch (InvocationTargetException itex) {
+            Log.e(TAG,
+                    "Exception thrown by get " + (getter.isStatic() ? "static " : "") +
+                            "property invocation target: " + getter,
+                    itex.getTargetException());
+            throw itex;
         }
+    }
 
-        return this.resolveMethod(methodClass, methodName, isStatic, argumentsCount);
+    private void invokeSetter(
+            JavaScriptMember setter, JavaScriptValue instance, JavaScriptValue value)
+            throws InvocationTargetException {
+        Object targetInstance = this.getTargetInstance(setter, instance);
+        this.flushPropertyWritesInArguments(value);
+        Object convertedValue = setter.getArgumentConverters()[0].convert(value);
+        this.invokeSetterOnTarget(setter, targetInstance, convertedValue);
     }
 
-    private Method resolveMethod(
-            Class<?> methodClass, String methodName, boolean isStatic, int argumentsCount) {
-        for (Method method: methodClass.getMethods()) {
-            int methodModifiers = method.getModifiers();
-            if (Modifier.isPublic(methodModifiers) && method.getName().equals(methodName) &&
-                    Modifier.isStatic(methodModifiers) == isStatic &&
-                    method.getParameterTypes().length == argumentsCount) {
-                return method;
-            }
+    private void invokeSetterOnTarget(
+            JavaScriptMember setter, Object targetInstance, Object convertedValue)
+            throws InvocationTargetException {
+        try {
+            setter.invoke(targetInstance, new Object[] { convertedValue });
+        } catch (IllegalAccessException iaex) {
+            throw new IllegalArgumentException("Illegal access to property: " + setter, iaex);
+        } catch (InvocationTargetException itex) {
+            Log.e(TAG,
+                    "Exception thrown by set " + (setter.isStatic() ? "static " : "") +
+                            "property invocation target: " + setter,
+                    itex.getTargetException());
+            throw itex;
+        }
+    }
+
+    private ChainablePromise<JavaScriptValue> invokeMethod(
+            JavaScriptMember targetMethod, JavaScriptValue instance, JavaScriptValue arguments)
+            throws InvocationTargetException {
+        return this.invokeMethod(targetMethod, instance, arguments, null);
+    }
+
+    private ChainablePromise<JavaScriptValue> invokeMethod(
+            JavaScriptMember targetMethod,
+            JavaScriptValue instance,
+            JavaScriptValue arguments,
+            FieldMask fieldMask)
+            throws InvocationTargetException {
+        Object returnValue = this.invokeMethodTarget(targetMethod, instance, arguments);
+        return this.convertToFutureJson(returnValue, fieldMask);
+    }
+
+    /**
+     * Invokes a method, returning its result without marshalling it to JavaScript.
+     */
+    private Object invokeMethodTarget(
+            JavaScriptMember targetMethod, JavaScriptValue instance, JavaScriptValue arguments)
+            throws InvocationTargetException {
+        Object targetInstance = this.getTargetInstance(targetMethod, instance);
+        this.flushPropertyWritesInArguments(arguments);
+        Object[] convertedArguments = this.marshaller.marshalFromJavaScript(
+                arguments, targetMethod.getArgumentConverters());
+        if (convertedArguments == null) {
+            throw new IllegalArgumentException("Supplied arguments could not be converted " +
+                    "to expected types for method " + targetMethod);
+        }
+
+        if (targetInstance != null) {
+            this.saveActivityResultHandler(targetInstance, convertedArguments);
+        }
+
+        try {
+            return targetMethod.invoke(targetInstance, convertedArguments);
+        } catch (IllegalAccessException iaex) {
+            throw new IllegalArgumentException("Illegal access to method: " + targetMethod, iaex);
+        } catch (InvocationTargetException itex) {
+            Log.e(TAG,
+                    "Exception thrown by " + (targetMethod.isStatic() ? "static " : "") +
+                            "method invocation target: " + targetMethod,
+                    itex.getTargetException());
+            throw itex;
+        }
+    }
+
+    private JavaScriptValue invokeConstructor(
+            JavaScriptMember constructor, JavaScriptValue arguments)
+            throws InvocationTargetException {
+        this.flushPropertyWritesInArguments(arguments);
+        Object[] convertedArguments = this.marshaller.marshalFromJavaScript(
+                arguments, constructor.getArgumentConverters());
+        if (convertedArguments == null) {
+            throw new IllegalArgumentException("Supplied arguments could not be converted " +
+                    "to expected types for constructor for type " + constructor);
+        }
+
+        try {
+            Object newInstance = constructor.newInstance(convertedArguments);
+            return this.marshaller.marshalToJavaScript(newInstance);
+        } catch (IllegalAccessException iaex) {
+            throw new IllegalArgumentException(
+                    "Illegal access to constructor for type: " + constructor, iaex);
+        } catch (InstantiationException iex) {
+            throw new IllegalArgumentException("Cannot instantiate type: " + constructor, iex);
+        } catch (InvocationTargetException itex) {
+            Log.e(TAG,
+                    "Exception thrown by constructor invocation target for type: " + constructor,
+                    itex.getTargetException());
+            throw itex;
         }
-        return null;
     }
 
-    private ChainablePromise<JavaScriptValue> convertToFutureJson(Object value) {
+    private ChainablePromise<JavaScriptValue> convertToFutureJson(
+            Object value, final FieldMask fieldMask) {
         final JavaScriptBridge self = this;
         if (value instanceof ChainablePromise<?>) {
             return ((ChainablePromise<Object>)value).then(
@@ -632,20 +1628,21 @@ public final class JavaScriptBridge {
                         @Override
                         public JavaScriptValue apply(Object result) {
                             JavaScriptValue convertedValue =
-                                self.marshaller.marshalToJavaScript(result);
+                                self.marshaller.marshalToJavaScript(result, fieldMask);
                             return convertedValue;
                         }
                     });
         } else if (value instanceof Future<?>) {
+            // The listener is invoked only after the future is done, so get() does not block.
             final ChainablePromise<JavaScriptValue> promise = new ChainablePromise<JavaScriptValue>();
             final Future<?> futureValue = (Future<?>) value;
-            executor.submit(new Runnable() {
+            this.futureWatcher.addListener(futureValue, new Runnable() {
                 @Override
                 public void run() {
                     try {
                         Object result = futureValue.get();
                         JavaScriptValue convertedValue =
-                                self.marshaller.marshalToJavaScript(result);
+                                self.marshaller.marshalToJavaScript(result, fieldMask);
                         promise.resolve(convertedValue);
                     } catch (Exception ex) {
                         promise.reject(ex);
@@ -656,7 +1653,7 @@ public final class JavaScriptBridge {
         }
         else {
             JavaScriptValue convertedValue =
-                    this.marshaller.marshalToJavaScript(value);
+                    this.marshaller.marshalToJavaScript(value, fieldMask);
             return new ChainablePromise<JavaScriptValue>(convertedValue);
         }
     }
@@ -664,7 +1661,7 @@ public final class JavaScriptBridge {
     private void saveActivityResultHandler(Object handlerInstance, Object[] arguments) {
         Method onActivityResultMethod = null;
         if (arguments.length > 0 && arguments[0] != null && arguments[0] instanceof Activity) {
-            onActivityResultMethod = this.resolveMethod(
+            onActivityResultMethod = MemberCache.resolveMethod(
                     handlerInstance.getClass(), "onActivityResult", false, 3);
         }
 
@@ -690,7 +1687,7 @@ public final class JavaScriptBridge {
     public void onActivityResult(int requestCode, int resultCode, Intent data) {
         Object resultHandler = this.activityResultHandler;
         if (resultHandler != null) {
-            Method onActivityResultMethod = this.resolveMethod(
+            Method onActivityResultMethod = MemberCache.resolveMethod(
                     resultHandler.getClass(), "onActivityResult", false, 3);
             if (onActivityResultMethod != null) {
                 try {
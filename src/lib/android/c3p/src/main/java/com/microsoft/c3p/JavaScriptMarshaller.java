@@ -8,131 +8,390 @@ import android.app.Application;
 import android.net.Uri;
 import android.util.Log;
 
+import com.microsoft.c3p.js.JSPrimitiveArray;
 import com.microsoft.c3p.js.JSValue;
 import com.microsoft.c3p.js.JavaScriptType;
 import com.microsoft.c3p.js.JavaScriptValue;
 
 import java.lang.reflect.Array;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Marshals parameters from and return values to the JavaScript bridge.
+ * Marshalling methods are safe to call concurrently from multiple threads, including
+ * registration, lookup and release of objects marshalled by reference.
  */
 final class JavaScriptMarshaller {
     private static final String TAG = "JavaScriptBridge";
     private static final int INVALID_HANDLE_VALUE = -1;
 
+    /**
+     * Type of a placeholder for the result of an earlier call in the same batch, whose value is
+     * the index of that call. Placeholders let a batch pipeline dependent calls, for example
+     * invoking a method on an object returned by an earlier call, in one bridge crossing.
+     */
+    static final String SLOT_PLACEHOLDER = "<slot>";
+
+    /**
+     * Type of an envelope around an array or list whose marshal-by-value objects are sent in
+     * compact form (see ShapeTable).
+     */
+    static final String SHAPES_PLACEHOLDER = "<shapes>";
+
+    /**
+     * Enumerates the ways objects are marshalled to JavaScript. Each class is classified once,
+     * the first time an instance is marshalled, so that marshalling an object only requires
+     * looking up the strategy for its class.
+     */
+    private enum Strategy {
+        ARRAY,
+        PRIMITIVE_ARRAY,
+        LIST,
+        BOOLEAN,
+        INTEGER,
+        LONG,
+        DOUBLE,
+        STRING,
+        JAVASCRIPT_VALUE,
+        CLASS,
+        BY_VALUE,
+        UUID,
+        URI,
+        DATE,
+        BY_REFERENCE
+    }
+
     private JavaScriptApplicationContext context;
     private NamespaceMapper namespaceMapper;
-    private HashMap<Class<?>, HashMap<Object, Integer>> objectsToHandles;
-    private HashMap<Class<?>, HashMap<Integer, Object>> handlesToObjects;
-    private int counter;
-    private HashSet<String> marshalByValueClassNames;
+    private final HandleTable handles;
+    private final Set<String> marshalByValueClassNames;
+    private final ConcurrentHashMap<Class<?>, BeanDescriptor> beanDescriptors;
+    private final ConcurrentHashMap<String, String[]> prefetchPropertyNames;
+    private final ConcurrentHashMap<Class<?>, BeanDescriptor.Getter[]> prefetchGetters;
+    private final TypeTable types;
+    private final ConcurrentHashMap<Class<?>, Integer> referenceTypeIds;
+    private final ConcurrentHashMap<Class<?>, Strategy> strategies;
+    private volatile boolean compactShapesEnabled;
+    private volatile int generation;
 
     public JavaScriptMarshaller(
             JavaScriptApplicationContext context, NamespaceMapper namespaceMapper) {
         this.context = context;
         this.namespaceMapper = namespaceMapper;
-        this.objectsToHandles = new HashMap<Class<?>, HashMap<Object, Integer>>();
-        this.handlesToObjects = new HashMap<Class<?>, HashMap<Integer, Object>>();
-        this.marshalByValueClassNames = new HashSet<String>();
+        this.handles = new HandleTable();
+        this.marshalByValueClassNames =
+                Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        this.beanDescriptors = new ConcurrentHashMap<Class<?>, BeanDescriptor>();
+        this.prefetchPropertyNames = new ConcurrentHashMap<String, String[]>();
+        this.prefetchGetters = new ConcurrentHashMap<Class<?>, BeanDescriptor.Getter[]>();
+        this.types = new TypeTable(namespaceMapper);
+        this.referenceTypeIds = new ConcurrentHashMap<Class<?>, Integer>();
+        this.strategies = new ConcurrentHashMap<Class<?>, Strategy>();
     }
 
-    public void registerMarshalByValueClass(String className) {
+    public synchronized void registerMarshalByValueClass(String className) {
         this.marshalByValueClassNames.add(className);
+        this.generation++;
+
+        // The class may have been marshalled by reference already, before it was registered.
+        // The caches are cleared after the generation changes; see putCached().
+        this.referenceTypeIds.clear();
+        this.strategies.clear();
+    }
+
+    /**
+     * Registers IDs that JavaScript assigned to type names. Instances of those types that are
+     * marshalled by reference then carry the ID instead of the type name.
+     * @param firstTypeId ID of the first type name; the others have consecutive IDs.
+     * @param typeNames Full JavaScript type names.
+     */
+    public synchronized void registerTypes(int firstTypeId, String[] typeNames) {
+        this.types.register(firstTypeId, typeNames);
+        this.generation++;
+
+        // IDs that were cached for classes may have been reassigned.
+        this.referenceTypeIds.clear();
+    }
+
+    /**
+     * Removes all type IDs registered by JavaScript, so that instances are marshalled with
+     * their full type names until JavaScript registers IDs again.
+     */
+    public synchronized void clearTypes() {
+        this.types.clear();
+        this.generation++;
+        this.referenceTypeIds.clear();
+    }
+
+    /**
+     * Gets the full JavaScript type name of an instance, from either its type field or its
+     * typeId field, or null if it has neither.
+     * @throws IllegalArgumentException If the type ID is not registered.
+     */
+    public String getTypeName(JavaScriptValue jsObject) {
+        if (isPackedReference(jsObject)) {
+            return this.types.getTypeName(getPackedTypeId(jsObject));
+        }
+
+        JavaScriptValue typeValue = jsObject.getObjectValue("type");
+        if (typeValue.getType() == JavaScriptType.String) {
+            return typeValue.getString();
+        }
+
+        JavaScriptValue typeIdValue = jsObject.getObjectValue("typeId");
+        if (typeIdValue.getType() == JavaScriptType.Number) {
+            return this.types.getTypeName(typeIdValue.getInteger());
+        }
+        return null;
+    }
+
+    /**
+     * Registers properties of a class marshalled by reference whose values are sent along with
+     * the handle, overriding any PrefetchProperties annotation on the class.
+     * @param className Simple name of the class.
+     * @param propertyNames Names of the properties, as used in getProperty calls.
+     */
+    public void registerPrefetchProperties(String className, String[] propertyNames) {
+        this.prefetchPropertyNames.put(className, propertyNames.clone());
+
+        // Getters may have been resolved for the class already, before it was registered.
+        this.prefetchGetters.clear();
+    }
+
+    /**
+     * Enables sending the marshal-by-value objects within arrays and lists in compact form,
+     * which JavaScript requests when its marshaller is able to decode that form.
+     */
+    public void setCompactShapesEnabled(boolean enabled) {
+        this.compactShapesEnabled = enabled;
     }
 
     public JavaScriptValue marshalToJavaScript(Object object) {
+        return this.marshalToJavaScript(object, true, null, null);
+    }
+
+    /**
+     * Marshals an object, sending only the properties of marshal-by-value objects that are
+     * selected by a field mask.
+     * @param fieldMask The mask, or null to send all properties.
+     */
+    public JavaScriptValue marshalToJavaScript(Object object, FieldMask fieldMask) {
+        return this.marshalToJavaScript(object, true, fieldMask, null);
+    }
+
+    /**
+     * Marshals an object, optionally sending the values of the prefetched properties of objects
+     * marshalled by reference. Prefetched values are themselves marshalled without prefetching,
+     * so that objects referring to each other do not recurse.
+     * @param shapes Shapes of the enclosing array or list, when marshal-by-value objects are sent
+     *        in compact form, or null.
+     */
+    private JavaScriptValue marshalToJavaScript(
+            Object object, boolean prefetch, FieldMask fieldMask, ShapeTable shapes) {
         if (object == null) {
             return JSValue.Null;
         }
 
-        if (object.getClass().isArray()) {
-            JSValue convertedArray = JSValue.createArrayValue();
-            int length = Array.getLength(object);
-            for (int i = 0; i < length; i++) {
-                convertedArray.addArrayItem(this.marshalToJavaScript(Array.get(object, i)));
-            }
-            return convertedArray;
-        } else if (List.class.isAssignableFrom(object.getClass())) {
-            List listObject = (List)object;
-            JSValue convertedArray = JSValue.createArrayValue();
-            int length = listObject.size();
-            for (int i = 0; i < length; i++) {
-                convertedArray.addArrayItem(this.marshalToJavaScript(listObject.get(i)));
-            }
-            return convertedArray;
+        Class<?> objectClass = object.getClass();
+        Strategy strategy = this.strategies.get(objectClass);
+        if (strategy == null) {
+            int generation = this.generation;
+            strategy = this.classify(object);
+            this.putCached(this.strategies, objectClass, strategy, generation);
+        }
+
+        String pluginTypeName;
+        JSValue jsObject;
+        switch (strategy) {
+            case ARRAY:
+            case LIST:
+                return this.marshalArrayToJavaScript(
+                        object, strategy == Strategy.ARRAY, prefetch, fieldMask, shapes);
+            case PRIMITIVE_ARRAY:
+                // The items are converted as they are sent, without boxing each one. That may be
+                // after this returns, so the array is copied in case the plugin reuses it.
+                return new JSPrimitiveArray(copyPrimitiveArray(object));
+            case BOOLEAN:
+                return JSValue.fromBoolean(((Boolean) object).booleanValue());
+            case INTEGER:
+                return JSValue.fromInteger(((Number) object).intValue());
+            case LONG:
+                return JSValue.fromLong(((Long) object).longValue());
+            case DOUBLE:
+                return JSValue.fromDouble(((Double) object).doubleValue());
+            case STRING:
+                return JSValue.fromString((String) object);
+            case JAVASCRIPT_VALUE:
+                return JSValue.fromObject(object);
+            case CLASS:
+                pluginTypeName =
+                        this.namespaceMapper.getJavaScriptClassForJavaClass((Class<?>) object);
+                return JSValue.fromString(pluginTypeName);
+            case BY_VALUE:
+                pluginTypeName = this.namespaceMapper.getJavaScriptClassForJavaClass(objectClass);
+                if (shapes != null) {
+                    return this.marshalShapedPropertiesToJavaScript(
+                            object, pluginTypeName, prefetch, fieldMask, shapes);
+                }
+
+                jsObject = JSValue.createObjectValue();
+                jsObject.putObjectValue("type", pluginTypeName);
+                if (fieldMask != null) {
+                    this.marshalMaskedPropertiesToJavaScript(object, jsObject, prefetch, fieldMask);
+                } else {
+                    this.marshalPropertiesToJavaScript(object, jsObject, prefetch);
+                }
+                return jsObject;
+            case UUID:
+                jsObject = JSValue.createObjectValue();
+                jsObject.putObjectValue("type", NamespaceMapper.uuidClassPlaceholder);
+                jsObject.putObjectValue("value", object.toString().toUpperCase());
+                return jsObject;
+            case URI:
+                jsObject = JSValue.createObjectValue();
+                jsObject.putObjectValue("type", NamespaceMapper.uriClassPlaceholder);
+                jsObject.putObjectValue("value", object.toString());
+                return jsObject;
+            case DATE:
+                jsObject = JSValue.createObjectValue();
+                jsObject.putObjectValue("type", NamespaceMapper.dateClassPlaceholder);
+                jsObject.putObjectValue("value", ((Date) object).getTime());
+                return jsObject;
+            default:
+                break;
         }
 
-        JavaScriptValue convertedValue = JSValue.fromObject(object);
-        if (convertedValue != JSValue.Undefined) {
-            return convertedValue;
+        Integer referenceTypeId = this.referenceTypeIds.get(objectClass);
+        if (referenceTypeId != null) {
+            // The class has a registered type ID, so its type name is not needed.
+            return this.marshalReferenceToJavaScript(
+                    object, null, referenceTypeId, prefetch, shapes);
         }
 
-        String pluginTypeName;
+        int generation = this.generation;
+        pluginTypeName = this.namespaceMapper.getJavaScriptClassForJavaClass(objectClass);
+        int typeId = this.types.getTypeId(pluginTypeName);
+        if (typeId >= 0) {
+            this.putCached(this.referenceTypeIds, objectClass, typeId, generation);
+        }
+        return this.marshalReferenceToJavaScript(object, pluginTypeName, typeId, prefetch, shapes);
+    }
+
+    /**
+     * Caches a strategy or type ID for a class, unless a class or type was registered since it
+     * was determined. The value is put first and then removed if the generation changed, so that
+     * a registration that clears the caches just before the put can not leave a stale value.
+     * @param generation The generation read before the value was determined.
+     */
+    private <V> void putCached(
+            ConcurrentHashMap<Class<?>, V> cache, Class<?> key, V value, int generation) {
+        cache.put(key, value);
+        if (this.generation != generation) {
+            cache.remove(key, value);
+        }
+    }
+
+    /**
+     * Determines how objects of the same class as an object are marshalled.
+     * @throws IllegalArgumentException If the class is in a package with no namespace mapping.
+     */
+    private Strategy classify(Object object) {
         Class<?> objectClass = object.getClass();
-        if (objectClass == Class.class) {
-            pluginTypeName = this.namespaceMapper.getJavaScriptClassForJavaClass(
-                    ((Class<?>) object).getName());
-            return JSValue.fromString(pluginTypeName);
-        }
-
-        String classSimpleName = objectClass.getSimpleName();
-        String classFullName = objectClass.getName();
-        pluginTypeName = this.namespaceMapper.getJavaScriptClassForJavaClass(classFullName);
-
-        if (this.marshalByValueClassNames.contains(classSimpleName)) {
-            JSValue jsObject = JSValue.createObjectValue();
-            jsObject.putObjectValue("type", pluginTypeName);
-            this.marshalPropertiesToJavaScript(object, jsObject);
-            return jsObject;
-        } else if (NamespaceMapper.uuidClassPlaceholder.equals(pluginTypeName)) {
-            JSValue jsObject = JSValue.createObjectValue();
-            jsObject.putObjectValue("type", pluginTypeName);
-            jsObject.putObjectValue("value", object.toString().toUpperCase());
-            return jsObject;
+        if (objectClass.isArray()) {
+            return objectClass.getComponentType().isPrimitive() ?
+                    Strategy.PRIMITIVE_ARRAY : Strategy.ARRAY;
+        } else if (List.class.isAssignableFrom(objectClass)) {
+            return Strategy.LIST;
+        } else if (objectClass == Boolean.class) {
+            return Strategy.BOOLEAN;
+        } else if (objectClass == Short.class || objectClass == Integer.class) {
+            return Strategy.INTEGER;
+        } else if (objectClass == Long.class) {
+            return Strategy.LONG;
+        } else if (objectClass == Double.class) {
+            return Strategy.DOUBLE;
+        } else if (objectClass == String.class) {
+            return Strategy.STRING;
+        } else if (JSValue.fromObject(object) != JSValue.Undefined) {
+            // Maps and JSON values, which JSValue converts depending only on their class.
+            return Strategy.JAVASCRIPT_VALUE;
+        } else if (objectClass == Class.class) {
+            return Strategy.CLASS;
+        } else if (this.marshalByValueClassNames.contains(objectClass.getSimpleName())) {
+            return Strategy.BY_VALUE;
+        }
+
+        String pluginTypeName = this.namespaceMapper.getJavaScriptClassForJavaClass(objectClass);
+        if (NamespaceMapper.uuidClassPlaceholder.equals(pluginTypeName)) {
+            return Strategy.UUID;
         } else if (NamespaceMapper.uriClassPlaceholder.equals(pluginTypeName)) {
-            JSValue jsObject = JSValue.createObjectValue();
-            jsObject.putObjectValue("type", pluginTypeName);
-            jsObject.putObjectValue("value", object.toString());
-            return jsObject;
+            return Strategy.URI;
         } else if (NamespaceMapper.dateClassPlaceholder.equals(pluginTypeName)) {
-            JSValue jsObject = JSValue.createObjectValue();
-            jsObject.putObjectValue("type", pluginTypeName);
-            jsObject.putObjectValue("value", ((Date) object).getTime());
-            return jsObject;
+            return Strategy.DATE;
+        } else {
+            return Strategy.BY_REFERENCE;
         }
+    }
 
-        HashMap<Object, Integer> classObjectsToHandles = this.objectsToHandles.get(object.getClass());
-        if (classObjectsToHandles == null) {
-            classObjectsToHandles = new HashMap<Object, Integer>();
-            this.objectsToHandles.put(object.getClass(), classObjectsToHandles);
+    /**
+     * Marshals an array or list, item by item.
+     */
+    private JavaScriptValue marshalArrayToJavaScript(Object object, boolean isArray,
+            boolean prefetch, FieldMask fieldMask, ShapeTable shapes) {
+        // The outermost array or list gets the shape table, which nested ones share.
+        ShapeTable itemShapes = shapes;
+        if (itemShapes == null && this.compactShapesEnabled) {
+            itemShapes = new ShapeTable();
         }
 
-        HashMap<Integer, Object> classHandlesToObjects = this.handlesToObjects.get(object.getClass());
-        if (classHandlesToObjects == null) {
-            classHandlesToObjects = new HashMap<Integer, Object>();
-            this.handlesToObjects.put(object.getClass(), classHandlesToObjects);
+        JSValue convertedArray = JSValue.createArrayValue();
+        if (isArray) {
+            int length = Array.getLength(object);
+            for (int i = 0; i < length; i++) {
+                convertedArray.addArrayItem(this.marshalToJavaScript(
+                        Array.get(object, i), prefetch, fieldMask, itemShapes));
+            }
+        } else {
+            List listObject = (List)object;
+            int length = listObject.size();
+            for (int i = 0; i < length; i++) {
+                convertedArray.addArrayItem(this.marshalToJavaScript(
+                        listObject.get(i), prefetch, fieldMask, itemShapes));
+            }
         }
 
-        Integer handle = classObjectsToHandles.get(object);
-        if (handle == null) {
-            handle = ++counter;
-            classObjectsToHandles.put(object, handle);
-            classHandlesToObjects.put(handle, object);
+        if (itemShapes != shapes && !itemShapes.isEmpty()) {
+            return itemShapes.wrap(convertedArray);
         }
+        return convertedArray;
+    }
+
+    /**
+     * Marshals an object by reference, with its type ID if it has one, or else its type name.
+     */
+    private JavaScriptValue marshalReferenceToJavaScript(Object object, String typeName,
+            int typeId, boolean prefetch, ShapeTable shapes) {
+        int handle = this.handles.getOrAddHandle(object);
 
         JSValue jsObject = JSValue.createObjectValue();
-        jsObject.putObjectValue("type", pluginTypeName);
+        if (typeId >= 0) {
+            jsObject.putObjectValue("typeId", typeId);
+        } else {
+            jsObject.putObjectValue("type", typeName);
+        }
         jsObject.putObjectValue("handle", handle);
+        if (prefetch) {
+            this.marshalPrefetchedPropertiesToJavaScript(object, jsObject, shapes);
+        }
         return jsObject;
     }
 
@@ -144,12 +403,14 @@ final class JavaScriptMarshaller {
         }
 
         if (jsObject.getType() == JavaScriptType.Array && type.isArray()) {
+            if (type.getComponentType().isPrimitive()) {
+                return marshalPrimitiveArrayFromJavaScript(jsObject, type.getComponentType());
+            }
+
             int length = jsObject.getArrayLength();
             Object localArray = Array.newInstance(type.getComponentType(), length);
             for (int i = 0; i < length; i++) {
-                JavaScriptValue item = jsObject.getArrayItem(i);
-                Class<?> itemClass = this.getJavaClassForJavaScriptObject(item);
-                Array.set(localArray, i, this.marshalFromJavaScript(item, itemClass));
+                Array.set(localArray, i, this.marshalItemFromJavaScript(jsObject.getArrayItem(i)));
             }
             return localArray;
         } else if (jsObject.getType() == JavaScriptType.Array
@@ -157,9 +418,7 @@ final class JavaScriptMarshaller {
             int length = jsObject.getArrayLength();
             ArrayList<Object> localArray = new ArrayList<Object>(length);
             for (int i = 0; i < length; i++) {
-                JavaScriptValue item = jsObject.getArrayItem(i);
-                Class<?> itemClass = this.getJavaClassForJavaScriptObject(item);
-                localArray.add(this.marshalFromJavaScript(item, itemClass));
+                localArray.add(this.marshalItemFromJavaScript(jsObject.getArrayItem(i)));
             }
             return localArray;
         } else if (jsObject.getType() != JavaScriptType.Object) {
@@ -185,9 +444,15 @@ final class JavaScriptMarshaller {
                 }
             }
 
+            if (getSlotIndex(jsObject) >= 0) {
+                throw new IllegalArgumentException(
+                        "A result placeholder can only be used in a batch.");
+            }
+
             try {
-                Object instance = type.getConstructor().newInstance();
-                this.marshalPropertiesFromJavaScript(jsObject, instance);
+                BeanDescriptor descriptor = this.getBeanDescriptor(type);
+                Object instance = descriptor.newInstance();
+                this.marshalPropertiesFromJavaScript(jsObject, descriptor, instance);
                 return instance;
             } catch (InstantiationException e) {
                 Log.w(TAG, "Exception when instantiating object of type " + type.getName() +
@@ -208,13 +473,53 @@ final class JavaScriptMarshaller {
             }
         }
 
-        int handle = handleValue.getInteger();
-        HashMap<Integer, Object> classHandlesToObjects = this.handlesToObjects.get(type);
-        if (classHandlesToObjects != null) {
-            Object object = classHandlesToObjects.get(handle);
-            if (object != null) {
-                return object;
-            }
+        return this.getMarshalledObject(handleValue.getInteger(), type);
+    }
+
+    /**
+     * Marshals the instance of an instance call, which may be a packed reference.
+     */
+    public Object marshalInstanceFromJavaScript(JavaScriptValue instance, Class<?> type) {
+        if (isPackedReference(instance)) {
+            return this.getMarshalledObject(getPackedHandle(instance), type);
+        }
+        return this.marshalFromJavaScript(instance, type);
+    }
+
+    /**
+     * Checks whether the instance of an instance call is a packed reference: a single number
+     * that holds the type ID of an object marshalled by reference in its upper 32 bits and the
+     * handle in its lower 32 bits, which JavaScript may send instead of a {typeId, handle} object
+     * once its type IDs are registered. Numbers are only treated as packed references where an
+     * instance is expected, never within arguments.
+     */
+    private static Object copyPrimitiveArray(Object array) {
+        int length = Array.getLength(array);
+        Object copy = Array.newInstance(array.getClass().getComponentType(), length);
+        System.arraycopy(array, 0, copy, 0, length);
+        return copy;
+    }
+
+    static boolean isPackedReference(JavaScriptValue instance) {
+        return instance != null && instance.getType() == JavaScriptType.Number;
+    }
+
+    static int getPackedTypeId(JavaScriptValue instance) {
+        return (int) (instance.getLong() >>> 32);
+    }
+
+    static int getPackedHandle(JavaScriptValue instance) {
+        return (int) instance.getLong();
+    }
+
+    /**
+     * Gets an object that was previously marshalled by reference.
+     * @throws IllegalArgumentException If there is no object with the handle.
+     */
+    Object getMarshalledObject(int handle, Class<?> type) {
+        Object object = this.handles.getObject(handle);
+        if (type.isInstance(object)) {
+            return object;
         }
 
         if (type == Application.class) {
@@ -227,11 +532,29 @@ final class JavaScriptMarshaller {
                 "Proxied object with handle " + handle + " was not found.");
     }
 
+    /**
+     * Marshals an item of a JavaScript array, using a class determined from the item itself.
+     */
+    Object marshalItemFromJavaScript(JavaScriptValue item) {
+        Class<?> itemClass = this.getJavaClassForJavaScriptObject(item);
+        return this.marshalFromJavaScript(item, itemClass);
+    }
+
     private Class<?> getJavaClassForJavaScriptObject(JavaScriptValue jsObject) {
         if (jsObject.getType() != JavaScriptType.Object) {
             return Object.class;
         }
 
+        JavaScriptValue typeIdValue = jsObject.getObjectValue("typeId");
+        if (typeIdValue.getType() == JavaScriptType.Number) {
+            try {
+                return this.types.getClass(typeIdValue.getInteger());
+            } catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException(
+                        "Type not found: " + this.types.getTypeName(typeIdValue.getInteger()), e);
+            }
+        }
+
         JavaScriptValue typeValue = jsObject.getObjectValue("type");
         String itemType = typeValue.getType() ==
                 JavaScriptType.String ? typeValue.getString() : null;
@@ -248,13 +571,26 @@ final class JavaScriptMarshaller {
         }
     }
 
-    public Object[] marshalFromJavaScript(JavaScriptValue jsValues, Class<?>[] types) {
-        if (jsValues.getType() == JavaScriptType.Array && jsValues.getArrayLength() == types.length)
-        {
-            Object[] convertedValues = new Object[types.length];
+    /**
+     * Creates converters for a member's parameter types. The converters can then be used with
+     * marshalFromJavaScript(JavaScriptValue, ArgumentConverter[]) for every call to the member.
+     */
+    public ArgumentConverter[] compileArgumentConverters(Class<?>[] types) {
+        ArgumentConverter[] converters = new ArgumentConverter[types.length];
+        for (int i = 0; i < types.length; i++) {
+            converters[i] = ArgumentConverter.create(types[i], this);
+        }
+        return converters;
+    }
+
+    public Object[] marshalFromJavaScript(
+            JavaScriptValue jsValues, ArgumentConverter[] converters) {
+        if (jsValues.getType() == JavaScriptType.Array &&
+                jsValues.getArrayLength() == converters.length) {
+            Object[] convertedValues = new Object[converters.length];
 
-            for (int i = 0; i < types.length; i++) {
-                convertedValues[i] = this.marshalFromJavaScript(jsValues.getArrayItem(i), types[i]);
+            for (int i = 0; i < converters.length; i++) {
+                convertedValues[i] = converters[i].convert(jsValues.getArrayItem(i));
             }
 
             return convertedValues;
@@ -311,6 +647,9 @@ final class JavaScriptMarshaller {
             return Short.valueOf((short) jsValue.getInteger());
         } else if (type == String.class && valueType == JavaScriptType.String) {
             return jsValue.getString();
+        } else if (type.isArray() && type.getComponentType().isPrimitive() &&
+                valueType == JavaScriptType.Array) {
+            return marshalPrimitiveArrayFromJavaScript(jsValue, type.getComponentType());
         } else if ((type.isArray() || type == Object.class) &&
                 valueType == JavaScriptType.Array) {
             Class<?> componentType = type.getComponentType();
@@ -339,6 +678,114 @@ final class JavaScriptMarshaller {
                 "Could not convert " + valueType + " to expected type " + type.getName());
     }
 
+    /**
+     * Converts a JavaScript array to a Java primitive array, setting the items directly rather
+     * than boxing each one. Items are converted the same as individual primitive values.
+     * @param componentType Primitive component type of the array.
+     * @throws IllegalArgumentException If an item cannot be converted to the component type.
+     */
+    static Object marshalPrimitiveArrayFromJavaScript(
+            JavaScriptValue jsArray, Class<?> componentType) {
+        if (jsArray instanceof JSPrimitiveArray) {
+            // A result of an earlier call in the same batch. It is copied like any other
+            // argument, so that the callee does not share it with the previous caller.
+            Object array = ((JSPrimitiveArray) jsArray).getArray();
+            if (array.getClass().getComponentType() == componentType) {
+                int length = jsArray.getArrayLength();
+                Object copy = Array.newInstance(componentType, length);
+                System.arraycopy(array, 0, copy, 0, length);
+                return copy;
+            }
+        }
+
+        int length = jsArray.getArrayLength();
+        if (componentType == double.class) {
+            double[] array = new double[length];
+            for (int i = 0; i < length; i++) {
+                array[i] = getNumberItem(jsArray, i, componentType);
+            }
+            return array;
+        } else if (componentType == int.class) {
+            int[] array = new int[length];
+            for (int i = 0; i < length; i++) {
+                array[i] = (int) getNumberItem(jsArray, i, componentType);
+            }
+            return array;
+        } else if (componentType == long.class) {
+            long[] array = new long[length];
+            for (int i = 0; i < length; i++) {
+                array[i] = (long) getNumberItem(jsArray, i, componentType);
+            }
+            return array;
+        } else if (componentType == float.class) {
+            float[] array = new float[length];
+            for (int i = 0; i < length; i++) {
+                array[i] = (float) getNumberItem(jsArray, i, componentType);
+            }
+            return array;
+        } else if (componentType == byte.class) {
+            byte[] array = new byte[length];
+            for (int i = 0; i < length; i++) {
+                array[i] = (byte) (int) getNumberItem(jsArray, i, componentType);
+            }
+            return array;
+        } else if (componentType == short.class) {
+            short[] array = new short[length];
+            for (int i = 0; i < length; i++) {
+                array[i] = (short) (int) getNumberItem(jsArray, i, componentType);
+            }
+            return array;
+        } else if (componentType == char.class) {
+            char[] array = new char[length];
+            for (int i = 0; i < length; i++) {
+                array[i] = (char) (int) getNumberItem(jsArray, i, componentType);
+            }
+            return array;
+        } else if (componentType == boolean.class) {
+            boolean[] array = new boolean[length];
+            for (int i = 0; i < length; i++) {
+                array[i] = getBooleanItem(jsArray, i);
+            }
+            return array;
+        }
+
+        throw new IllegalArgumentException(
+                "Not a primitive array component type: " + componentType.getName());
+    }
+
+    private static double getNumberItem(
+            JavaScriptValue jsArray, int index, Class<?> componentType) {
+        if (jsArray instanceof JSPrimitiveArray &&
+                !((JSPrimitiveArray) jsArray).isBooleanArray()) {
+            return ((JSPrimitiveArray) jsArray).getNumberItem(index);
+        }
+
+        JavaScriptValue item = jsArray.getArrayItem(index);
+        if (item.getType() == JavaScriptType.Number) {
+            return item.getDouble();
+        } else if (item.getType() == JavaScriptType.Null) {
+            return 0;
+        }
+        throw new IllegalArgumentException("Could not convert " + item.getType() +
+                " to expected type " + componentType.getName());
+    }
+
+    private static boolean getBooleanItem(JavaScriptValue jsArray, int index) {
+        if (jsArray instanceof JSPrimitiveArray &&
+                ((JSPrimitiveArray) jsArray).isBooleanArray()) {
+            return ((JSPrimitiveArray) jsArray).getBooleanItem(index);
+        }
+
+        JavaScriptValue item = jsArray.getArrayItem(index);
+        if (item.getType() == JavaScriptType.Boolean) {
+            return item.getBoolean();
+        } else if (item.getType() == JavaScriptType.Null) {
+            return false;
+        }
+        throw new IllegalArgumentException(
+                "Could not convert " + item.getType() + " to expected type boolean");
+    }
+
     public Object releaseMarshalledObject(JavaScriptValue jsObject, Class<?> type) {
         if (jsObject == null) {
             throw new IllegalArgumentException("Object to be relased cannot be null.");
@@ -347,87 +794,300 @@ final class JavaScriptMarshaller {
             throw new IllegalArgumentException("A type is required.");
         }
 
+        if (isPackedReference(jsObject)) {
+            return this.handles.release(getPackedHandle(jsObject), type);
+        }
+
         JavaScriptValue handleValue = jsObject.getObjectValue("handle");
         if (handleValue.getType() != JavaScriptType.Number) {
             return null;
         }
 
-        int handle = handleValue.getInteger();
-        HashMap<Integer, Object> classHandlesToObjects = this.handlesToObjects.get(type);
-        if (classHandlesToObjects != null) {
-            Object object = classHandlesToObjects.get(handle);
-            if (object != null) {
-                classHandlesToObjects.remove(handle);
+        return this.handles.release(handleValue.getInteger(), type);
+    }
+
+    /**
+     * Gets the index of the call that a result placeholder refers to, or -1 if the value is not
+     * a result placeholder.
+     */
+    static int getSlotIndex(JavaScriptValue value) {
+        if (value.getType() != JavaScriptType.Object) {
+            return -1;
+        }
+
+        JavaScriptValue typeValue = value.getObjectValue("type");
+        if (typeValue.getType() != JavaScriptType.String ||
+                !SLOT_PLACEHOLDER.equals(typeValue.getString())) {
+            return -1;
+        }
+
+        JavaScriptValue indexValue = value.getObjectValue("value");
+        if (indexValue.getType() != JavaScriptType.Number || indexValue.getInteger() < 0) {
+            throw new IllegalArgumentException("A result placeholder requires a call index.");
+        }
+        return indexValue.getInteger();
+    }
 
-                HashMap<Object, Integer> classObjectsToHandles = this.objectsToHandles.get(type);
-                if (classObjectsToHandles != null) {
-                    classObjectsToHandles.remove(object);
+    /**
+     * Finds the indexes of the calls referred to by result placeholders anywhere within a value.
+     */
+    static void findSlotReferences(JavaScriptValue value, BitSet slotIndexes) {
+        if (value == null) {
+            return;
+        } else if (value.getType() == JavaScriptType.Array) {
+            int length = value.getArrayLength();
+            for (int i = 0; i < length; i++) {
+                findSlotReferences(value.getArrayItem(i), slotIndexes);
+            }
+        } else if (value.getType() == JavaScriptType.Object) {
+            int slotIndex = getSlotIndex(value);
+            if (slotIndex >= 0) {
+                slotIndexes.set(slotIndex);
+            } else {
+                for (String key : value.getObjectKeys()) {
+                    findSlotReferences(value.getObjectValue(key), slotIndexes);
                 }
+            }
+        }
+    }
 
-                return object;
+    /**
+     * Replaces result placeholders anywhere within a value with the results of the calls they
+     * refer to. Parts of the value that do not contain placeholders are not copied.
+     * @param value The value, typically a batched call.
+     * @param slotResults Results of earlier calls, indexed by call; only the entries that are
+     *        referred to by placeholders are required.
+     * @return The value with placeholders replaced, or the same value if it has none.
+     */
+    static JavaScriptValue replaceSlotReferences(
+            JavaScriptValue value, JavaScriptValue[] slotResults) {
+        if (value == null) {
+            return null;
+        } else if (value.getType() == JavaScriptType.Array) {
+            JSValue replacedArray = null;
+            int length = value.getArrayLength();
+            for (int i = 0; i < length; i++) {
+                JavaScriptValue item = value.getArrayItem(i);
+                JavaScriptValue replacedItem = replaceSlotReferences(item, slotResults);
+                if (replacedItem != item && replacedArray == null) {
+                    replacedArray = JSValue.createArrayValue();
+                    for (int j = 0; j < i; j++) {
+                        replacedArray.addArrayItem(value.getArrayItem(j));
+                    }
+                }
+                if (replacedArray != null) {
+                    replacedArray.addArrayItem(replacedItem);
+                }
             }
+            return replacedArray != null ? replacedArray : value;
+        } else if (value.getType() == JavaScriptType.Object) {
+            int slotIndex = getSlotIndex(value);
+            if (slotIndex >= 0) {
+                return slotResults[slotIndex];
+            }
+
+            JSValue replacedObject = null;
+            for (String key : value.getObjectKeys()) {
+                JavaScriptValue item = value.getObjectValue(key);
+                JavaScriptValue replacedItem = replaceSlotReferences(item, slotResults);
+                if (replacedItem != item && replacedObject == null) {
+                    replacedObject = JSValue.createObjectValue();
+                    for (String copiedKey : value.getObjectKeys()) {
+                        replacedObject.putObjectValue(copiedKey, value.getObjectValue(copiedKey));
+                    }
+                }
+                if (replacedObject != null) {
+                    replacedObject.putObjectValue(key, replacedItem);
+                }
+            }
+            return replacedObject != null ? replacedObject : value;
+        } else {
+            return value;
         }
+    }
 
-        return null;
+    /**
+     * Gets the (cached) descriptor of the properties of a class that is marshalled by value.
+     */
+    BeanDescriptor getBeanDescriptor(Class<?> type) {
+        BeanDescriptor descriptor = this.beanDescriptors.get(type);
+        if (descriptor == null) {
+            descriptor = BeanDescriptor.create(type, this);
+            BeanDescriptor existingDescriptor = this.beanDescriptors.putIfAbsent(type, descriptor);
+            if (existingDescriptor != null) {
+                descriptor = existingDescriptor;
+            }
+        }
+        return descriptor;
+    }
+
+    private BeanDescriptor.Getter[] getPrefetchGetters(Class<?> type) {
+        BeanDescriptor.Getter[] getters = this.prefetchGetters.get(type);
+        if (getters == null) {
+            getters = this.resolvePrefetchGetters(type);
+            BeanDescriptor.Getter[] existingGetters =
+                    this.prefetchGetters.putIfAbsent(type, getters);
+            if (existingGetters != null) {
+                getters = existingGetters;
+            }
+        }
+        return getters;
+    }
+
+    private BeanDescriptor.Getter[] resolvePrefetchGetters(Class<?> type) {
+        String[] propertyNames = this.prefetchPropertyNames.get(type.getSimpleName());
+        if (propertyNames == null) {
+            PrefetchProperties annotation = type.getAnnotation(PrefetchProperties.class);
+            propertyNames = (annotation != null ? annotation.value() : new String[0]);
+        }
+
+        List<BeanDescriptor.Getter> getters = new ArrayList<BeanDescriptor.Getter>();
+        for (String propertyName : propertyNames) {
+            BeanDescriptor.Getter getter = BeanDescriptor.findGetter(type, propertyName);
+            if (getter != null) {
+                getters.add(getter);
+            } else {
+                Log.w(TAG, "Prefetch property getter not found: " +
+                        type.getName() + "." + propertyName);
+            }
+        }
+        return getters.toArray(new BeanDescriptor.Getter[getters.size()]);
+    }
+
+    /**
+     * Adds a "properties" object with the values of the prefetched properties of an object
+     * marshalled by reference, if it has any. A property whose getter throws is omitted, so that
+     * JavaScript gets it (and the exception) via a regular getProperty call.
+     */
+    private void marshalPrefetchedPropertiesToJavaScript(
+            Object from, JSValue to, ShapeTable shapes) {
+        BeanDescriptor.Getter[] getters = this.getPrefetchGetters(from.getClass());
+        if (getters.length == 0) {
+            return;
+        }
+
+        JSValue properties = JSValue.createObjectValue();
+        for (BeanDescriptor.Getter getter : getters) {
+            Object propertyValue;
+            try {
+                propertyValue = getter.getValue(from);
+            } catch (IllegalAccessException e) {
+                continue;
+            } catch (InvocationTargetException e) {
+                continue;
+            }
+
+            properties.putObjectValue(
+                    getter.getPropertyName(),
+                    this.marshalToJavaScript(propertyValue, false, null, shapes));
+        }
+        to.putObjectValue("properties", properties);
     }
 
-    private void marshalPropertiesFromJavaScript(JavaScriptValue from, Object to)
-            throws NoSuchMethodException, InvocationTargetException, IllegalAccessException {
+    private void marshalPropertiesFromJavaScript(
+            JavaScriptValue from, BeanDescriptor descriptor, Object to)
+            throws InvocationTargetException, IllegalAccessException {
         for (String propertyName : from.getObjectKeys()) {
             if ("type".equals(propertyName) || "handle".equals(propertyName)) {
                 continue;
             }
 
-            String methodName = "set" + Character.toUpperCase(propertyName.charAt(0)) +
-                    propertyName.substring(1);
-            JavaScriptValue value = from.getObjectValue(propertyName);
+            BeanDescriptor.Setter setter = descriptor.getSetter(propertyName);
+            if (setter != null) {
+                JavaScriptValue value = from.getObjectValue(propertyName);
+                setter.setValue(to, setter.getConverter().convert(value));
+            }
+        }
+    }
 
-            for (Method targetMethod: to.getClass().getMethods()) {
-                if (Modifier.isPublic(targetMethod.getModifiers()) &&
-                        targetMethod.getName().equals(methodName) &&
-                        Modifier.isPublic(targetMethod.getModifiers()) &&
-                        targetMethod.getParameterTypes().length == 1) {
-                    Object convertedValue = this.marshalFromJavaScript(
-                            value, targetMethod.getParameterTypes()[0]);
-                    targetMethod.invoke(to, convertedValue);
-                    break;
-                }
+    private void marshalPropertiesToJavaScript(Object from, JSValue to, boolean prefetch) {
+        BeanDescriptor descriptor = this.getBeanDescriptor(from.getClass());
+        for (BeanDescriptor.Getter getter : descriptor.getGetters()) {
+            to.putObjectValue(
+                    getter.getPropertyName(),
+                    this.marshalToJavaScript(
+                            getPropertyValue(getter, from), prefetch, null, null));
+        }
+    }
+
+    /**
+     * Marshals only the properties selected by a field mask, looking up each getter by name.
+     * Names in the mask that are not properties of the object are ignored.
+     */
+    private void marshalMaskedPropertiesToJavaScript(
+            Object from, JSValue to, boolean prefetch, FieldMask fieldMask) {
+        BeanDescriptor descriptor = this.getBeanDescriptor(from.getClass());
+        for (Map.Entry<String, FieldMask> field : fieldMask.getFields()) {
+            BeanDescriptor.Getter getter = descriptor.getGetter(field.getKey());
+            if (getter == null) {
+                continue;
             }
+
+            to.putObjectValue(
+                    getter.getPropertyName(),
+                    this.marshalToJavaScript(
+                            getPropertyValue(getter, from), prefetch, field.getValue(), null));
         }
     }
 
-    private void marshalPropertiesToJavaScript(Object from, JSValue to) {
-        for (Method method : from.getClass().getMethods()) {
-            if (Modifier.isPublic(method.getModifiers())) {
-                String propertyName;
-                if (method.getName().startsWith("get")) {
-                    if (method.getName().equals("getClass") ||
-                            (method.getName().equals("getSource") &&
-                            from.getClass().getName().endsWith("Event"))) {
-                        // Omit any objects' Class property and events' Source property.
-                        continue;
+    /**
+     * Marshals an object in compact form: a shape ID and the property values in the order of
+     * the shape's properties. The shape is added to the table the first time it is used, so the
+     * getters (and any field mask) are only resolved once per array.
+     */
+    private JavaScriptValue marshalShapedPropertiesToJavaScript(Object from, String typeName,
+            boolean prefetch, FieldMask fieldMask, ShapeTable shapes) {
+        Class<?> type = from.getClass();
+        ShapeTable.Shape shape = shapes.get(type, fieldMask);
+        if (shape == null) {
+            BeanDescriptor descriptor = this.getBeanDescriptor(type);
+            BeanDescriptor.Getter[] getters;
+            FieldMask[] fieldMasks;
+            if (fieldMask == null) {
+                getters = descriptor.getGetters();
+                fieldMasks = new FieldMask[getters.length];
+            } else {
+                List<BeanDescriptor.Getter> maskedGetters = new ArrayList<BeanDescriptor.Getter>();
+                List<FieldMask> maskedFieldMasks = new ArrayList<FieldMask>();
+                for (Map.Entry<String, FieldMask> field : fieldMask.getFields()) {
+                    BeanDescriptor.Getter getter = descriptor.getGetter(field.getKey());
+                    if (getter != null) {
+                        maskedGetters.add(getter);
+                        maskedFieldMasks.add(field.getValue());
                     }
-
-                    propertyName = method.getName().substring(3);
-                } else if (method.getName().startsWith("is")) {
-                    propertyName = method.getName().substring(2);
-                } else {
-                    continue;
                 }
+                getters = maskedGetters.toArray(new BeanDescriptor.Getter[maskedGetters.size()]);
+                fieldMasks = maskedFieldMasks.toArray(new FieldMask[maskedFieldMasks.size()]);
+            }
+            shape = shapes.add(type, fieldMask, typeName, getters, fieldMasks);
+        }
 
-                Object propertyValue;
-                try {
-                    propertyValue = method.invoke(from, (Object[])null);
-                } catch (IllegalAccessException e) {
-                    propertyValue = null;
-                } catch (InvocationTargetException e) {
-                    propertyValue = null;
-                }
+        JSValue values = JSValue.createArrayValue();
+        for (int i = 0; i < shape.getters.length; i++) {
+            values.addArrayItem(this.marshalToJavaScript(
+                    getPropertyValue(shape.getters[i], from),
+                    prefetch,
+                    shape.fieldMasks[i],
+                    shapes));
+        }
 
-                propertyName = Character.toLowerCase(propertyName.charAt(0)) +
-                        propertyName.substring(1);
-                to.putObjectValue(propertyName, this.marshalToJavaScript(propertyValue));
-            }
+        JSValue jsObject = JSValue.createObjectValue();
+        jsObject.putObjectValue("shape", shape.id);
+        jsObject.putObjectValue("values", values);
+        return jsObject;
+    }
+
+    /**
+     * Gets the value of a property of an object marshalled by value, or null if the getter
+     * throws.
+     */
+    private static Object getPropertyValue(BeanDescriptor.Getter getter, Object from) {
+        try {
+            return getter.getValue(from);
+        } catch (IllegalAccessException e) {
+            return null;
+        } catch (InvocationTargetException e) {
+            return null;
         }
     }
 }
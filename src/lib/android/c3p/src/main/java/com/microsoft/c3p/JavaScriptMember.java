@@ -0,0 +1,192 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for details.
+
+package com.microsoft.c3p;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * A class member that was resolved (via reflection) for access over the JavaScript bridge.
+ * Instances are immutable and may be shared by any number of callers on any thread.
+ */
+final class JavaScriptMember {
+    /**
+     * Enumerates the kinds of members that can be accessed over the bridge.
+     */
+    enum Kind {
+        CONSTRUCTOR,
+        STATIC_GETTER,
+        STATIC_SETTER,
+        STATIC_METHOD,
+        GETTER,
+        SETTER,
+        METHOD;
+
+        public boolean isStatic() {
+            return this == STATIC_GETTER || this == STATIC_SETTER || this == STATIC_METHOD;
+        }
+    }
+
+    private final int id;
+    private final String type;
+    private final String name;
+    private final Kind kind;
+    private final Class<?> targetClass;
+    private final Method method;
+    private final Constructor<?> constructor;
+    private final Class<?>[] parameterTypes;
+    private final ArgumentConverter[] argumentConverters;
+    private final ArgumentConverter targetConverter;
+    private final MemberDispatcher dispatcher;
+    private final int dispatchIndex;
+
+    JavaScriptMember(
+            int id, String type, String name, Kind kind, Class<?> targetClass, Method method,
+            JavaScriptMarshaller marshaller, MemberDispatcher dispatcher, int dispatchIndex) {
+        this.id = id;
+        this.type = type;
+        this.name = name;
+        this.kind = kind;
+        this.targetClass = targetClass;
+        this.method = method;
+        this.constructor = null;
+        this.parameterTypes = method.getParameterTypes();
+        this.argumentConverters = marshaller.compileArgumentConverters(this.parameterTypes);
+        this.targetConverter =
+                kind.isStatic() ? null : ArgumentConverter.create(targetClass, marshaller);
+        this.dispatcher = dispatcher;
+        this.dispatchIndex = dispatchIndex;
+    }
+
+    JavaScriptMember(
+            int id, String type, Class<?> targetClass, Constructor<?> constructor,
+            JavaScriptMarshaller marshaller, MemberDispatcher dispatcher, int dispatchIndex) {
+        this.id = id;
+        this.type = type;
+        this.name = null;
+        this.kind = Kind.CONSTRUCTOR;
+        this.targetClass = targetClass;
+        this.method = null;
+        this.constructor = constructor;
+        this.parameterTypes = constructor.getParameterTypes();
+        this.argumentConverters = marshaller.compileArgumentConverters(this.parameterTypes);
+        this.targetConverter = null;
+        this.dispatcher = dispatcher;
+        this.dispatchIndex = dispatchIndex;
+    }
+
+    /**
+     * Gets the compact ID assigned to the member by the cache that resolved it. Callers that
+     * have resolved a member may use the ID to access the member again without any lookup.
+     */
+    public int getId() {
+        return this.id;
+    }
+
+    /**
+     * Gets the full JavaScript name of the type the member was resolved on.
+     */
+    public String getType() {
+        return this.type;
+    }
+
+    /**
+     * Gets the JavaScript name of the member, or null for a constructor.
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    public Kind getKind() {
+        return this.kind;
+    }
+
+    public boolean isStatic() {
+        return this.kind.isStatic();
+    }
+
+    public Class<?> getTargetClass() {
+        return this.targetClass;
+    }
+
+    /**
+     * Gets the resolved method, or null if the member is a constructor.
+     */
+    public Method getMethod() {
+        return this.method;
+    }
+
+    /**
+     * Gets the resolved constructor, or null if the member is not a constructor.
+     */
+    public Constructor<?> getConstructor() {
+        return this.constructor;
+    }
+
+    /**
+     * Gets the member's parameter types. The returned array is shared and must not be modified.
+     */
+    public Class<?>[] getParameterTypes() {
+        return this.parameterTypes;
+    }
+
+    /**
+     * Gets converters for the member's parameters, compiled when the member was resolved.
+     * The returned array is shared and must not be modified.
+     */
+    public ArgumentConverter[] getArgumentConverters() {
+        return this.argumentConverters;
+    }
+
+    /**
+     * Gets a converter for the target instance of the member, or null if the member is static
+     * or is a constructor.
+     */
+    public ArgumentConverter getTargetConverter() {
+        return this.targetConverter;
+    }
+
+    /**
+     * Checks whether the member is invoked via a generated dispatcher rather than reflection.
+     */
+    public boolean hasDispatcher() {
+        return this.dispatcher != null;
+    }
+
+    /**
+     * Invokes a method member, via the generated dispatcher if there is one, else via reflection.
+     * @param target Target instance, or null if the method is static.
+     * @param arguments Arguments, already converted to the method's parameter types.
+     * @return The method's return value, or null if the return type is void.
+     */
+    public Object invoke(Object target, Object[] arguments)
+            throws IllegalAccessException, InvocationTargetException {
+        if (this.dispatcher != null) {
+            return this.dispatcher.invoke(this.dispatchIndex, target, arguments);
+        }
+
+        return this.method.invoke(target, arguments);
+    }
+
+    /**
+     * Invokes a constructor member, via the generated dispatcher if there is one, else via
+     * reflection.
+     * @param arguments Arguments, already converted to the constructor's parameter types.
+     * @return The new instance.
+     */
+    public Object newInstance(Object[] arguments)
+            throws IllegalAccessException, InstantiationException, InvocationTargetException {
+        if (this.dispatcher != null) {
+            return this.dispatcher.invoke(this.dispatchIndex, null, arguments);
+        }
+
+        return this.constructor.newInstance(arguments);
+    }
+
+    @Override
+    public String toString() {
+        return this.name != null ? this.type + "." + this.name : this.type;
+    }
+}
@@ -0,0 +1,389 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for details.
+
+package com.microsoft.c3p;
+
+import android.util.Log;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches classes and members resolved for JavaScript callers, so that reflection is only
+ * used the first time a particular type or member is accessed over the bridge. Each cached
+ * member is also assigned a compact integer ID that can be used to get it again directly.
+ * Members of classes that have a generated MemberDispatcher are bound to the dispatcher, so
+ * that they can be invoked without reflection. Members that could not be resolved are cached
+ * too, so that calls to them do not use reflection again; since JavaScript can request any
+ * name, that cache is cleared whenever it reaches a size limit. The cached classes and members
+ * are discarded when a namespace mapping is registered. All methods are safe to call
+ * concurrently from multiple threads.
+ */
+final class MemberCache {
+    private static final String TAG = "MemberCache";
+    private static final int MAXIMUM_UNRESOLVED_MEMBER_COUNT = 1024;
+
+    private final NamespaceMapper namespaceMapper;
+    private final JavaScriptMarshaller marshaller;
+    private final ConcurrentHashMap<String, Class<?>> classes;
+    private final ConcurrentHashMap<Class<?>, DispatcherEntry> dispatchers;
+    private final ConcurrentHashMap<MemberKey, JavaScriptMember> members;
+    private final Set<MemberKey> unresolvedMembers;
+    private volatile int namespaceGeneration;
+    private final Object memberTableLock;
+    private volatile JavaScriptMember[] memberTable;
+    private int memberCount;
+    private final AtomicLong hitCount;
+    private final AtomicLong missCount;
+
+    public MemberCache(NamespaceMapper namespaceMapper, JavaScriptMarshaller marshaller) {
+        this.namespaceMapper = namespaceMapper;
+        this.marshaller = marshaller;
+        this.classes = new ConcurrentHashMap<String, Class<?>>();
+        this.dispatchers = new ConcurrentHashMap<Class<?>, DispatcherEntry>();
+        this.members = new ConcurrentHashMap<MemberKey, JavaScriptMember>();
+        this.unresolvedMembers =
+                Collections.newSetFromMap(new ConcurrentHashMap<MemberKey, Boolean>());
+        this.namespaceGeneration = namespaceMapper.getGeneration();
+        this.memberTableLock = new Object();
+        this.memberTable = new JavaScriptMember[16];
+        this.hitCount = new AtomicLong();
+        this.missCount = new AtomicLong();
+    }
+
+    /**
+     * Gets the Java class for a full JavaScript type name.
+     */
+    public Class<?> getClass(String type) throws ClassNotFoundException {
+        int generation = this.checkNamespaceGeneration();
+        Class<?> targetClass = this.classes.get(type);
+        if (targetClass == null) {
+            String classFullName = this.namespaceMapper.getJavaClassForJavaScriptClass(type);
+            targetClass = Class.forName(classFullName);
+            this.classes.putIfAbsent(type, targetClass);
+            if (this.namespaceMapper.getGeneration() != generation) {
+                // The class was mapped with a namespace mapping that may have been replaced.
+                this.classes.remove(type, targetClass);
+            }
+        }
+        return targetClass;
+    }
+
+    /**
+     * Gets a member of a class, resolving it the first time it is requested.
+     * @param type Full JavaScript name of the type that declares the member.
+     * @param name JavaScript name of the member, or null for a constructor. For a property getter
+     *        or setter this is the property name, without any get/set/is prefix.
+     * @param kind Kind of member to get.
+     * @param argumentsCount Number of arguments the member is to be invoked with.
+     * @return The resolved member, or null if no matching public member was found.
+     * @throws ClassNotFoundException If the type could not be found.
+     */
+    public JavaScriptMember getMember(
+            String type, String name, JavaScriptMember.Kind kind, int argumentsCount)
+            throws ClassNotFoundException {
+        int generation = this.checkNamespaceGeneration();
+        MemberKey key = new MemberKey(type, name, kind, argumentsCount);
+        JavaScriptMember member = this.members.get(key);
+        if (member != null) {
+            this.hitCount.incrementAndGet();
+            return member;
+        } else if (this.unresolvedMembers.contains(key)) {
+            this.hitCount.incrementAndGet();
+            return null;
+        }
+
+        this.missCount.incrementAndGet();
+        Class<?> targetClass = this.getClass(type);
+        Object resolvedMember = this.resolveMember(targetClass, name, kind, argumentsCount);
+        if (resolvedMember == null) {
+            if (this.unresolvedMembers.size() >= MAXIMUM_UNRESOLVED_MEMBER_COUNT) {
+                // Any name can be requested, so the set would otherwise grow without limit.
+                this.unresolvedMembers.clear();
+            }
+            this.unresolvedMembers.add(key);
+            if (this.namespaceMapper.getGeneration() != generation) {
+                this.unresolvedMembers.remove(key);
+            }
+            return null;
+        }
+
+        DispatcherEntry dispatcherEntry = this.getDispatcher(targetClass);
+        int dispatchIndex = dispatcherEntry.getIndex(resolvedMember);
+        MemberDispatcher dispatcher = (dispatchIndex >= 0 ? dispatcherEntry.dispatcher : null);
+
+        // Members are added to the map and ID table together, so that IDs are assigned
+        // sequentially and any member obtained from the map already has a valid ID.
+        synchronized (this.memberTableLock) {
+            member = this.members.get(key);
+            if (member == null) {
+                int id = this.memberCount;
+                if (resolvedMember instanceof Constructor<?>) {
+                    member = new JavaScriptMember(id, type, targetClass,
+                            (Constructor<?>) resolvedMember, this.marshaller,
+                            dispatcher, dispatchIndex);
+                } else {
+                    member = new JavaScriptMember(id, type, name, kind, targetClass,
+                            (Method) resolvedMember, this.marshaller,
+                            dispatcher, dispatchIndex);
+                }
+
+                JavaScriptMember[] table = this.memberTable;
+                if (id == table.length) {
+                    JavaScriptMember[] newTable = new JavaScriptMember[table.length * 2];
+                    System.arraycopy(table, 0, newTable, 0, table.length);
+                    table = newTable;
+                }
+                table[id] = member;
+                this.memberTable = table;
+                this.memberCount = id + 1;
+                this.members.put(key, member);
+            }
+        }
+
+        if (this.namespaceMapper.getGeneration() != generation) {
+            // The member was resolved with a namespace mapping that may have been replaced. It
+            // keeps its ID, but later lookups by name resolve it again.
+            this.members.remove(key, member);
+        }
+        return member;
+    }
+
+    /**
+     * Gets a member that was previously resolved by this cache, using the member's ID.
+     * @return The member with the ID, or null if there is no such member.
+     */
+    public JavaScriptMember getMember(int id) {
+        JavaScriptMember[] table = this.memberTable;
+        return (id >= 0 && id < table.length ? table[id] : null);
+    }
+
+    /**
+     * Gets the number of member lookups that were satisfied from the cache.
+     */
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    /**
+     * Gets the number of member lookups that required resolving the member via reflection.
+     */
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    /**
+     * Discards the cached classes and members if a namespace mapping was registered since they
+     * were cached. Entries cached concurrently with a registration are removed by the thread
+     * that cached them, after it checks the generation again.
+     * @return The namespace mapping generation that lookups are valid for.
+     */
+    private int checkNamespaceGeneration() {
+        int generation = this.namespaceMapper.getGeneration();
+        if (generation != this.namespaceGeneration) {
+            synchronized (this.memberTableLock) {
+                if (generation != this.namespaceGeneration) {
+                    this.classes.clear();
+                    this.members.clear();
+                    this.unresolvedMembers.clear();
+                    this.namespaceGeneration = generation;
+                }
+            }
+        }
+        return generation;
+    }
+
+    /**
+     * Resolves a Method or Constructor via reflection.
+     */
+    private Object resolveMember(
+            Class<?> targetClass, String name, JavaScriptMember.Kind kind, int argumentsCount) {
+        Method method;
+
+        switch (kind) {
+            case CONSTRUCTOR:
+                return resolveConstructor(targetClass, argumentsCount);
+            case STATIC_GETTER:
+            case GETTER:
+                method = resolveMethod(targetClass, "get" + name, kind.isStatic(), 0);
+                if (method == null) {
+                    method = resolveMethod(targetClass, "is" + name, kind.isStatic(), 0);
+                }
+                break;
+            case STATIC_SETTER:
+            case SETTER:
+                method = resolveMethod(targetClass, "set" + name, kind.isStatic(), 1);
+                break;
+            default:
+                String methodName = this.namespaceMapper.getJavaMemberForJavaScriptMember(name);
+                method = resolveMethod(targetClass, methodName, kind.isStatic(), argumentsCount);
+                break;
+        }
+
+        return method;
+    }
+
+    /**
+     * Gets the generated dispatcher for a class, loading it the first time it is requested.
+     * Classes that do not have a dispatcher are cached too, so the load is only attempted once.
+     */
+    private DispatcherEntry getDispatcher(Class<?> targetClass) {
+        DispatcherEntry entry = this.dispatchers.get(targetClass);
+        if (entry == null) {
+            entry = loadDispatcher(targetClass);
+            DispatcherEntry existingEntry = this.dispatchers.putIfAbsent(targetClass, entry);
+            if (existingEntry != null) {
+                entry = existingEntry;
+            }
+        }
+        return entry;
+    }
+
+    private static DispatcherEntry loadDispatcher(Class<?> targetClass) {
+        String className = targetClass.getName();
+        int packageLength = className.lastIndexOf('.') + 1;
+        String dispatcherClassName = className.substring(0, packageLength) +
+                className.substring(packageLength).replace('$', '_') +
+                MemberDispatcher.CLASS_NAME_SUFFIX;
+
+        try {
+            Class<?> dispatcherClass =
+                    Class.forName(dispatcherClassName, true, targetClass.getClassLoader());
+            MemberDispatcher dispatcher = (MemberDispatcher) dispatcherClass.newInstance();
+            return new DispatcherEntry(dispatcher);
+        } catch (ClassNotFoundException cnfex) {
+            return DispatcherEntry.NONE;
+        } catch (Exception ex) {
+            Log.w(TAG, "Failed to load generated dispatcher " + dispatcherClassName +
+                    "; falling back to reflection.", ex);
+            return DispatcherEntry.NONE;
+        }
+    }
+
+    static Constructor<?> resolveConstructor(Class<?> constructorClass, int argumentsCount) {
+        for (Constructor<?> constructor: constructorClass.getConstructors()) {
+            if (Modifier.isPublic(constructor.getModifiers()) &&
+                    constructor.getParameterTypes().length == argumentsCount) {
+                return constructor;
+            }
+        }
+
+        return null;
+    }
+
+    static Method resolveMethod(
+            Class<?> methodClass, String methodName, boolean isStatic, int argumentsCount) {
+        for (Method method: methodClass.getMethods()) {
+            int methodModifiers = method.getModifiers();
+            if (Modifier.isPublic(methodModifiers) && method.getName().equals(methodName) &&
+                    Modifier.isStatic(methodModifiers) == isStatic &&
+                    method.getParameterTypes().length == argumentsCount) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A generated dispatcher for a class, along with the dispatcher's member indexes keyed by
+     * member signature.
+     */
+    private static final class DispatcherEntry {
+        static final DispatcherEntry NONE = new DispatcherEntry(null);
+
+        final MemberDispatcher dispatcher;
+        private final HashMap<String, Integer> indexes;
+
+        public DispatcherEntry(MemberDispatcher dispatcher) {
+            this.dispatcher = dispatcher;
+            this.indexes = new HashMap<String, Integer>();
+            if (dispatcher != null) {
+                String[] signatures = dispatcher.getSignatures();
+                for (int i = 0; i < signatures.length; i++) {
+                    this.indexes.put(signatures[i], i);
+                }
+            }
+        }
+
+        /**
+         * Gets the dispatcher's index for a resolved Method or Constructor, or -1 if the
+         * dispatcher cannot invoke the member.
+         */
+        public int getIndex(Object member) {
+            if (this.dispatcher == null) {
+                return -1;
+            }
+
+            String name;
+            Class<?>[] parameterTypes;
+            if (member instanceof Constructor<?>) {
+                name = "<init>";
+                parameterTypes = ((Constructor<?>) member).getParameterTypes();
+            } else {
+                name = ((Method) member).getName();
+                parameterTypes = ((Method) member).getParameterTypes();
+            }
+
+            StringBuilder signature = new StringBuilder(name).append('(');
+            for (int i = 0; i < parameterTypes.length; i++) {
+                if (i > 0) {
+                    signature.append(',');
+                }
+                signature.append(parameterTypes[i].getCanonicalName());
+            }
+            signature.append(')');
+
+            Integer index = this.indexes.get(signature.toString());
+            return index != null ? index : -1;
+        }
+    }
+
+    private static final class MemberKey {
+        private final String type;
+        private final String name;
+        private final JavaScriptMember.Kind kind;
+        private final int argumentsCount;
+        private final int hashCode;
+
+        public MemberKey(
+                String type, String name, JavaScriptMember.Kind kind, int argumentsCount) {
+            this.type = type;
+            this.name = name;
+            this.kind = kind;
+            this.argumentsCount = argumentsCount;
+
+            int hash = type.hashCode();
+            hash = 31 * hash + (name != null ? name.hashCode() : 0);
+            hash = 31 * hash + kind.ordinal();
+            hash = 31 * hash + argumentsCount;
+            this.hashCode = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            } else if (!(obj instanceof MemberKey)) {
+                return false;
+            }
+
+            MemberKey other = (MemberKey) obj;
+            return this.hashCode == other.hashCode &&
+                    this.kind == other.kind &&
+                    this.argumentsCount == other.argumentsCount &&
+                    this.type.equals(other.type) &&
+                    (this.name != null ? this.name.equals(other.name) : other.name == null);
+        }
+    }
+}
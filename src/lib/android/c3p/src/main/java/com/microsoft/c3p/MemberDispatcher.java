@@ -0,0 +1,42 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for details.
+
+package com.microsoft.c3p;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Invokes the public constructors and methods of a class directly, without reflection.
+ * Implementations are generated at build time by the C3P annotation processor for classes
+ * marked with GenerateDispatcher, and are named after the class with a "_MemberDispatcher"
+ * suffix, for example "com.example.Outer_Inner_MemberDispatcher" for "com.example.Outer.Inner".
+ */
+public interface MemberDispatcher {
+    /**
+     * Suffix appended to the (flattened) name of a class to get the name of its dispatcher.
+     */
+    String CLASS_NAME_SUFFIX = "_MemberDispatcher";
+
+    /**
+     * Gets the signatures of all members that can be invoked by the dispatcher, in member
+     * index order. A signature is the method name (or {@code "<init>"} for a constructor),
+     * followed by the canonical names of the erased parameter types in parentheses, for
+     * example "setName(java.lang.String)". The returned array must not be modified.
+     */
+    String[] getSignatures();
+
+    /**
+     * Invokes a member.
+     * @param index Index of the member in the array returned by getSignatures().
+     * @param target Target instance, or null if the member is static or is a constructor.
+     * @param arguments Arguments, already converted to the member's parameter types.
+     * @return The member's return value (boxed if primitive), null if the member's return
+     *         type is void, or the new instance if the member is a constructor.
+     * @throws NullPointerException If the member is an instance method and the target is null.
+     * @throws IllegalArgumentException If the target is not an instance of the member's class,
+     *         or the arguments do not match the member's parameters.
+     * @throws InvocationTargetException Wraps any exception thrown by the member itself.
+     */
+    Object invoke(int index, Object target, Object[] arguments)
+            throws InvocationTargetException;
+}
@@ -9,13 +9,18 @@ import android.net.Uri;
 import android.util.Log;
 
 import java.util.Date;
-import java.util.HashMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Handles mapping mappings between JavaScript namespaces and Java packages, and classes within
  * them. While the JavaScript language technically doesn't have namespaces, the JavaScript bridge
  * here enforces namespace semantics to avoid naming collisions among multiple libraries.
+ * Mapped class and member names are cached in both directions, since the same few names are
+ * mapped for every call and every marshalled object; the class name caches are cleared whenever
+ * a namespace is registered. A name mapped concurrently with a registration is not left in the
+ * cache, because it may have been mapped with the replaced namespace. Since JavaScript can ask
+ * for any name, each cache is also cleared whenever it reaches a size limit.
  */
 public final class NamespaceMapper {
     public static final String appClassPlaceholder = "<application>";
@@ -25,22 +30,47 @@ public final class NamespaceMapper {
     public static final String dateClassPlaceholder = "<date>";
 
     private static final String TAG = "JavaScriptBridge";
+    private static final int MAXIMUM_CACHED_NAME_COUNT = 1024;
 
-    private HashMap<String, String> packagesToNamespaces;
-    private HashMap<String, String> namespacesToPackages;
+    private final ConcurrentHashMap<String, String> packagesToNamespaces;
+    private final ConcurrentHashMap<String, String> namespacesToPackages;
+    private final ConcurrentHashMap<String, String> javaClassNames;
+    private final ConcurrentHashMap<String, String> javaScriptClassNames;
+    private final ConcurrentHashMap<Class<?>, String> javaScriptClassNamesForClasses;
+    private final ConcurrentHashMap<String, String> javaMemberNames;
+    private volatile int generation;
 
     public NamespaceMapper() {
-        this.packagesToNamespaces = new HashMap<String, String>();
-        this.namespacesToPackages = new HashMap<String, String>();
+        this.packagesToNamespaces = new ConcurrentHashMap<String, String>();
+        this.namespacesToPackages = new ConcurrentHashMap<String, String>();
+        this.javaClassNames = new ConcurrentHashMap<String, String>();
+        this.javaScriptClassNames = new ConcurrentHashMap<String, String>();
+        this.javaScriptClassNamesForClasses = new ConcurrentHashMap<Class<?>, String>();
+        this.javaMemberNames = new ConcurrentHashMap<String, String>();
     }
 
-    public void register(String javaScriptNamespace, String javaPackage) {
+    public synchronized void register(String javaScriptNamespace, String javaPackage) {
         this.namespacesToPackages.put(javaScriptNamespace, javaPackage);
         this.packagesToNamespaces.put(javaPackage, javaScriptNamespace);
+        this.generation++;
+
+        // A new mapping may replace one that cached names were mapped with. The caches are
+        // cleared after the generation changes; see putMappedName().
+        this.javaClassNames.clear();
+        this.javaScriptClassNames.clear();
+        this.javaScriptClassNamesForClasses.clear();
         Log.d(TAG, "Registered namespace mapping: " +
                 javaScriptNamespace + " <=> " + javaPackage);
     }
 
+    /**
+     * Gets a number that changes whenever a namespace is registered, so that callers that cache
+     * results derived from the mappings can tell when those results may be out of date.
+     */
+    int getGeneration() {
+        return this.generation;
+    }
+
     public String getJavaPackageForJavaScriptNamespace(String javaScriptNamespace) {
         String javaPackageName = this.namespacesToPackages.get(javaScriptNamespace);
 
@@ -66,6 +96,17 @@ public final class NamespaceMapper {
     }
 
     public String getJavaClassForJavaScriptClass(String javaScriptClassFullName) {
+        String javaClassFullName = this.javaClassNames.get(javaScriptClassFullName);
+        if (javaClassFullName == null) {
+            int generation = this.generation;
+            javaClassFullName = this.mapJavaScriptClassToJavaClass(javaScriptClassFullName);
+            this.putMappedName(
+                    this.javaClassNames, javaScriptClassFullName, javaClassFullName, generation);
+        }
+        return javaClassFullName;
+    }
+
+    private String mapJavaScriptClassToJavaClass(String javaScriptClassFullName) {
         int lastDot = javaScriptClassFullName.lastIndexOf('.');
         if (lastDot < 0) {
             if (appClassPlaceholder.equals(javaScriptClassFullName)) {
@@ -89,6 +130,46 @@ public final class NamespaceMapper {
     }
 
     public String getJavaScriptClassForJavaClass(String javaClassFullName) {
+        String javaScriptClassFullName = this.javaScriptClassNames.get(javaClassFullName);
+        if (javaScriptClassFullName == null) {
+            int generation = this.generation;
+            javaScriptClassFullName = this.mapJavaClassToJavaScriptClass(javaClassFullName);
+            this.putMappedName(this.javaScriptClassNames,
+                    javaClassFullName, javaScriptClassFullName, generation);
+        }
+        return javaScriptClassFullName;
+    }
+
+    /**
+     * Gets the full JavaScript class name for a Java class. Unlike the overload that takes a
+     * class name, this does not need to get the name of the class once it is cached.
+     */
+    public String getJavaScriptClassForJavaClass(Class<?> javaClass) {
+        String javaScriptClassFullName = this.javaScriptClassNamesForClasses.get(javaClass);
+        if (javaScriptClassFullName == null) {
+            int generation = this.generation;
+            javaScriptClassFullName = this.getJavaScriptClassForJavaClass(javaClass.getName());
+            this.putMappedName(this.javaScriptClassNamesForClasses,
+                    javaClass, javaScriptClassFullName, generation);
+        }
+        return javaScriptClassFullName;
+    }
+
+    /**
+     * Caches a mapped class name, unless a namespace was registered since the mapping started.
+     * The name is put first and then removed if the generation changed, so that a registration
+     * that clears the caches just before the put can not leave a stale name behind.
+     * @param generation The generation read before the name was mapped.
+     */
+    private <K> void putMappedName(
+            ConcurrentHashMap<K, String> cache, K key, String name, int generation) {
+        putBoundedName(cache, key, name);
+        if (this.generation != generation) {
+            cache.remove(key, name);
+        }
+    }
+
+    private String mapJavaClassToJavaScriptClass(String javaClassFullName) {
         int lastDot = javaClassFullName.lastIndexOf('.');
         if (lastDot < 0) {
             return javaClassFullName;
@@ -110,7 +191,23 @@ public final class NamespaceMapper {
     }
 
     public String getJavaMemberForJavaScriptMember(String javaScriptMemberName) {
-        return Character.toLowerCase(javaScriptMemberName.charAt(0)) + javaScriptMemberName.substring(1);
+        String javaMemberName = this.javaMemberNames.get(javaScriptMemberName);
+        if (javaMemberName == null) {
+            javaMemberName = Character.toLowerCase(javaScriptMemberName.charAt(0)) +
+                    javaScriptMemberName.substring(1);
+            putBoundedName(this.javaMemberNames, javaScriptMemberName, javaMemberName);
+        }
+        return javaMemberName;
+    }
+
+    /**
+     * Caches a mapped name, first clearing the cache if it is full.
+     */
+    private static <K> void putBoundedName(ConcurrentHashMap<K, String> cache, K key, String name) {
+        if (cache.size() >= MAXIMUM_CACHED_NAME_COUNT) {
+            cache.clear();
+        }
+        cache.put(key, name);
     }
 
     public String getJavaScriptMemberForJavaMember(String javaMemberName) {
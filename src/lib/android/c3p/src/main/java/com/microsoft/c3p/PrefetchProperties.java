@@ -0,0 +1,25 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for details.
+
+package com.microsoft.c3p;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares properties of a plugin class that is marshalled by reference, whose values are sent
+ * to JavaScript along with the handle whenever an instance is marshalled. JavaScript can then
+ * read those properties without calling back across the bridge. Properties declared in
+ * plugin.xml (via the prefetch-properties attribute of the class) take precedence.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface PrefetchProperties {
+    /**
+     * Names of the properties, as used in getProperty calls, for example "Name" for getName()
+     * or "Enabled" for isEnabled().
+     */
+    String[] value();
+}
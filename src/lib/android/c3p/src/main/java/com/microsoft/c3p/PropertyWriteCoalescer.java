@@ -0,0 +1,140 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for details.
+
+package com.microsoft.c3p;
+
+import com.microsoft.c3p.js.JavaScriptValue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Holds writes to properties of instances that are marshalled by reference, so that repeated
+ * writes to the same property within a short window are applied once, with the last value.
+ *
+ * Pending writes are kept in the order of their last write. They are applied (by the bridge) in
+ * that order when the window ends, and any pending writes to an instance are applied before any
+ * other call on that instance, so that the other call observes them. Writes that have been
+ * removed for applying still count as pending until the caller reports that they were applied,
+ * so that a call on the instance in the meantime knows to wait for them.
+ */
+final class PropertyWriteCoalescer {
+    private final LinkedHashMap<Long, PendingWrite> pendingWrites;
+    private volatile int pendingWriteCount;
+    private volatile int applyingWriteCount;
+
+    public PropertyWriteCoalescer() {
+        this.pendingWrites = new LinkedHashMap<Long, PendingWrite>();
+    }
+
+    /**
+     * Adds a pending write, replacing any pending write to the same property of the same instance.
+     * @return True if there were no pending writes before, in which case the caller should
+     *         schedule a flush.
+     */
+    public boolean add(int handle, JavaScriptMember setter, JavaScriptValue instance,
+            JavaScriptValue value) {
+        Long key = getKey(handle, setter);
+        synchronized (this.pendingWrites) {
+            boolean wasEmpty = this.pendingWrites.isEmpty();
+
+            // Remove before putting, so that the write moves to the end of the order.
+            this.pendingWrites.remove(key);
+            this.pendingWrites.put(key, new PendingWrite(handle, setter, instance, value));
+            this.pendingWriteCount = this.pendingWrites.size();
+            return wasEmpty;
+        }
+    }
+
+    /**
+     * Checks whether there are any pending writes, including writes that were removed but not
+     * yet applied, without locking.
+     */
+    public boolean hasPendingWrites() {
+        return this.pendingWriteCount != 0 || this.applyingWriteCount != 0;
+    }
+
+    /**
+     * Removes and returns all pending writes, in order, or null if there are none. The caller
+     * must call applied() once it has applied the returned writes.
+     */
+    public ArrayList<PendingWrite> removeAll() {
+        if (this.pendingWriteCount == 0) {
+            return null;
+        }
+
+        synchronized (this.pendingWrites) {
+            if (this.pendingWrites.isEmpty()) {
+                return null;
+            }
+
+            ArrayList<PendingWrite> writes =
+                    new ArrayList<PendingWrite>(this.pendingWrites.values());
+            this.pendingWrites.clear();
+            this.pendingWriteCount = 0;
+            this.applyingWriteCount += writes.size();
+            return writes;
+        }
+    }
+
+    /**
+     * Removes and returns the pending writes to one instance, in order, or null if there are none.
+     * This is cheap when there are no pending writes at all. The caller must call applied() once
+     * it has applied the returned writes.
+     */
+    public ArrayList<PendingWrite> remove(int handle) {
+        if (this.pendingWriteCount == 0) {
+            return null;
+        }
+
+        synchronized (this.pendingWrites) {
+            ArrayList<PendingWrite> writes = null;
+            Iterator<PendingWrite> iterator = this.pendingWrites.values().iterator();
+            while (iterator.hasNext()) {
+                PendingWrite write = iterator.next();
+                if (write.handle == handle) {
+                    if (writes == null) {
+                        writes = new ArrayList<PendingWrite>();
+                    }
+                    writes.add(write);
+                    iterator.remove();
+                }
+            }
+            this.pendingWriteCount = this.pendingWrites.size();
+            if (writes != null) {
+                this.applyingWriteCount += writes.size();
+            }
+            return writes;
+        }
+    }
+
+    /**
+     * Reports that writes returned by removeAll() or remove() have been applied (or have failed).
+     */
+    public void applied(List<PendingWrite> writes) {
+        synchronized (this.pendingWrites) {
+            this.applyingWriteCount -= writes.size();
+        }
+    }
+
+    private static Long getKey(int handle, JavaScriptMember setter) {
+        return ((long) handle << 32) | (setter.getId() & 0xFFFFFFFFL);
+    }
+
+    static final class PendingWrite {
+        final int handle;
+        final JavaScriptMember setter;
+        final JavaScriptValue instance;
+        final JavaScriptValue value;
+
+        PendingWrite(int handle, JavaScriptMember setter, JavaScriptValue instance,
+                JavaScriptValue value) {
+            this.handle = handle;
+            this.setter = setter;
+            this.instance = instance;
+            this.value = value;
+        }
+    }
+}
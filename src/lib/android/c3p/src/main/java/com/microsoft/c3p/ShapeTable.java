@@ -0,0 +1,111 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for details.
+
+package com.microsoft.c3p;
+
+import com.microsoft.c3p.js.JSValue;
+import com.microsoft.c3p.js.JavaScriptValue;
+
+import java.util.HashMap;
+
+/**
+ * Collects the shapes of the marshal-by-value objects within a marshalled array or list, so that
+ * each object can be sent as {"shape": id, "values": [...]}, with its property values in the
+ * order of the shape's properties, instead of repeating every property name in every object.
+ * Each shape is described once, as an array of the type name followed by the property names, in
+ * a "&lt;shapes&gt;" envelope around the array. A table is only used by a single marshalling
+ * call, on one thread.
+ */
+final class ShapeTable {
+    private final HashMap<ShapeKey, Shape> shapes;
+    private final JSValue descriptors;
+
+    public ShapeTable() {
+        this.shapes = new HashMap<ShapeKey, Shape>();
+        this.descriptors = JSValue.createArrayValue();
+    }
+
+    /**
+     * Gets the shape of objects of a class marshalled with a field mask (or null for no mask),
+     * or null if the table has no such shape yet.
+     */
+    public Shape get(Class<?> type, FieldMask fieldMask) {
+        return this.shapes.get(new ShapeKey(type, fieldMask));
+    }
+
+    /**
+     * Adds the shape of objects of a class marshalled with a field mask.
+     * @param typeName JavaScript type name of the class.
+     * @param getters Getters of the properties, in the order their values are sent.
+     * @param fieldMasks Masks for the values of the properties, or null for any that have none.
+     * @return The new shape.
+     */
+    public Shape add(Class<?> type, FieldMask fieldMask, String typeName,
+            BeanDescriptor.Getter[] getters, FieldMask[] fieldMasks) {
+        Shape shape = new Shape(this.shapes.size(), getters, fieldMasks);
+        this.shapes.put(new ShapeKey(type, fieldMask), shape);
+
+        JSValue descriptor = JSValue.createArrayValue();
+        descriptor.addArrayItem(JSValue.fromString(typeName));
+        for (BeanDescriptor.Getter getter : getters) {
+            descriptor.addArrayItem(JSValue.fromString(getter.getPropertyName()));
+        }
+        this.descriptors.addArrayItem(descriptor);
+        return shape;
+    }
+
+    public boolean isEmpty() {
+        return this.shapes.isEmpty();
+    }
+
+    /**
+     * Wraps a marshalled value in an envelope that describes the shapes it uses.
+     */
+    public JavaScriptValue wrap(JavaScriptValue value) {
+        JSValue envelope = JSValue.createObjectValue();
+        envelope.putObjectValue("type", JavaScriptMarshaller.SHAPES_PLACEHOLDER);
+        envelope.putObjectValue("shapes", this.descriptors);
+        envelope.putObjectValue("value", value);
+        return envelope;
+    }
+
+    static final class Shape {
+        final int id;
+        final BeanDescriptor.Getter[] getters;
+        final FieldMask[] fieldMasks;
+
+        Shape(int id, BeanDescriptor.Getter[] getters, FieldMask[] fieldMasks) {
+            this.id = id;
+            this.getters = getters;
+            this.fieldMasks = fieldMasks;
+        }
+    }
+
+    /**
+     * Identifies a shape by class and field mask. Masks are compared by identity: the same mask
+     * object is passed to every item of an array, and to every value of the same masked path.
+     */
+    private static final class ShapeKey {
+        private final Class<?> type;
+        private final FieldMask fieldMask;
+
+        ShapeKey(Class<?> type, FieldMask fieldMask) {
+            this.type = type;
+            this.fieldMask = fieldMask;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof ShapeKey)) {
+                return false;
+            }
+            ShapeKey otherKey = (ShapeKey) other;
+            return this.type == otherKey.type && this.fieldMask == otherKey.fieldMask;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.type.hashCode() * 31 + System.identityHashCode(this.fieldMask);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for details.
+
+package com.microsoft.c3p;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps small integer type IDs to full JavaScript type names, so that instances marshalled by
+ * reference can carry {"typeId": n} instead of the type name, and both sides can decode the
+ * type with an array lookup instead of parsing the name. The IDs are assigned by JavaScript, in
+ * the order its types are registered, so JavaScript always knows an ID before native code sends
+ * it. The Java class for each ID is resolved the first time it is needed. All methods are safe
+ * to call concurrently from multiple threads.
+ */
+final class TypeTable {
+    private final NamespaceMapper namespaceMapper;
+    private final Object lock;
+    private volatile Entry[] entries;
+    private final ConcurrentHashMap<String, Integer> typeIds;
+
+    public TypeTable(NamespaceMapper namespaceMapper) {
+        this.namespaceMapper = namespaceMapper;
+        this.lock = new Object();
+        this.entries = new Entry[0];
+        this.typeIds = new ConcurrentHashMap<String, Integer>();
+    }
+
+    /**
+     * Registers type names with consecutive IDs. An ID that was registered before (for example
+     * by a JavaScript context that has since been reloaded) is reassigned to the new name.
+     * @param firstTypeId ID of the first type name.
+     * @param typeNames Full JavaScript type names.
+     */
+    public void register(int firstTypeId, String[] typeNames) {
+        if (firstTypeId < 0) {
+            throw new IllegalArgumentException("Invalid type ID: " + firstTypeId);
+        }
+
+        synchronized (this.lock) {
+            Entry[] table = this.entries;
+            int count = firstTypeId + typeNames.length;
+            if (count > table.length) {
+                Entry[] newTable = new Entry[count];
+                System.arraycopy(table, 0, newTable, 0, table.length);
+                table = newTable;
+            }
+
+            for (int i = 0; i < typeNames.length; i++) {
+                int typeId = firstTypeId + i;
+                Entry entry = table[typeId];
+                if (entry != null) {
+                    if (entry.typeName.equals(typeNames[i])) {
+                        continue;
+                    }
+                    this.typeIds.remove(entry.typeName, typeId);
+                }
+
+                table[typeId] = new Entry(typeNames[i]);
+                this.typeIds.put(typeNames[i], typeId);
+            }
+            this.entries = table;
+        }
+    }
+
+    /**
+     * Removes all registered IDs, for example when the JavaScript context that assigned them is
+     * being reloaded.
+     */
+    public void clear() {
+        synchronized (this.lock) {
+            this.entries = new Entry[0];
+            this.typeIds.clear();
+        }
+    }
+
+    /**
+     * Gets the ID of a type name, or -1 if the name is not registered.
+     */
+    public int getTypeId(String typeName) {
+        Integer typeId = this.typeIds.get(typeName);
+        return (typeId != null ? typeId : -1);
+    }
+
+    /**
+     * Gets the type name with an ID.
+     * @throws IllegalArgumentException If no type name is registered with the ID.
+     */
+    public String getTypeName(int typeId) {
+        return this.getEntry(typeId).typeName;
+    }
+
+    /**
+     * Gets the Java class for the type with an ID, resolving it the first time it is requested.
+     * @throws IllegalArgumentException If no type name is registered with the ID.
+     * @throws ClassNotFoundException If the class could not be found.
+     */
+    public Class<?> getClass(int typeId) throws ClassNotFoundException {
+        Entry entry = this.getEntry(typeId);
+        Class<?> javaClass = entry.javaClass;
+        if (javaClass == null) {
+            javaClass = Class.forName(
+                    this.namespaceMapper.getJavaClassForJavaScriptClass(entry.typeName));
+            entry.javaClass = javaClass;
+        }
+        return javaClass;
+    }
+
+    private Entry getEntry(int typeId) {
+        Entry[] table = this.entries;
+        Entry entry = (typeId >= 0 && typeId < table.length ? table[typeId] : null);
+        if (entry == null) {
+            throw new IllegalArgumentException("Type ID not registered: " + typeId);
+        }
+        return entry;
+    }
+
+    private static final class Entry {
+        final String typeName;
+        volatile Class<?> javaClass;
+
+        Entry(String typeName) {
+            this.typeName = typeName;
+        }
+    }
+}
@@ -157,8 +157,7 @@ public abstract class JSAdapter implements JavaScriptValue {
 
         @Override
         public JavaScriptValue next() {
-            ++_index;
-            return getArrayItem(_index);
+            return getArrayItem(_index++);
         }
 
         @Override
@@ -0,0 +1,98 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for details.
+
+package com.microsoft.c3p.js;
+
+import java.lang.reflect.Array;
+
+/**
+ * Adapts a Java primitive array (boolean[], byte[], char[], short[], int[], long[], float[] or
+ * double[]) to a JavaScript array, without converting or copying its items. Code that knows
+ * about this class can read the items directly as primitives via getBooleanItem() and
+ * getNumberItem(); items read via getArrayItem() are converted one at a time. The array must
+ * not be modified while it is adapted.
+ */
+public final class JSPrimitiveArray extends JSAdapter {
+    private final Object _array;
+    private final int _length;
+
+    public JSPrimitiveArray(Object array) {
+        if (array == null || !array.getClass().isArray() ||
+                !array.getClass().getComponentType().isPrimitive()) {
+            throw new IllegalArgumentException("A primitive array is required.");
+        }
+
+        _array = array;
+        _length = Array.getLength(array);
+    }
+
+    @Override
+    public JavaScriptType getType() {
+        return JavaScriptType.Array;
+    }
+
+    @Override
+    public int getArrayLength() {
+        return _length;
+    }
+
+    @Override
+    public JavaScriptValue getArrayItem(int index) {
+        if (index >= _length) {
+            return JSValue.Undefined;
+        } else if (_array instanceof boolean[]) {
+            return JSValue.fromBoolean(((boolean[]) _array)[index]);
+        } else {
+            return JSValue.fromDouble(this.getNumberItem(index));
+        }
+    }
+
+    @Override
+    public Iterable<JavaScriptValue> getArrayItems() {
+        return new JSAdapter.ItemsIterable();
+    }
+
+    /**
+     * Gets the adapted array. The caller must not modify it.
+     */
+    public Object getArray() {
+        return _array;
+    }
+
+    /**
+     * Checks whether the items are booleans rather than numbers.
+     */
+    public boolean isBooleanArray() {
+        return _array instanceof boolean[];
+    }
+
+    /**
+     * Gets an item of a boolean[] array.
+     */
+    public boolean getBooleanItem(int index) {
+        return ((boolean[]) _array)[index];
+    }
+
+    /**
+     * Gets an item of a numeric (or char[]) array, as a JavaScript number.
+     */
+    public double getNumberItem(int index) {
+        if (_array instanceof double[]) {
+            return ((double[]) _array)[index];
+        } else if (_array instanceof int[]) {
+            return ((int[]) _array)[index];
+        } else if (_array instanceof long[]) {
+            return ((long[]) _array)[index];
+        } else if (_array instanceof float[]) {
+            return ((float[]) _array)[index];
+        } else if (_array instanceof byte[]) {
+            return ((byte[]) _array)[index];
+        } else if (_array instanceof short[]) {
+            return ((short[]) _array)[index];
+        } else if (_array instanceof char[]) {
+            return ((char[]) _array)[index];
+        } else {
+            throw new IllegalArgumentException("The array items are not numbers.");
+        }
+    }
+}
@@ -364,6 +364,10 @@ public final class JSValue implements JavaScriptValue {
             case String:
                 return value.getString();
             case Array:
+                if (value instanceof JSPrimitiveArray) {
+                    return JSValue.toJSONArray((JSPrimitiveArray) value);
+                }
+
                 JSONArray array = new JSONArray();
                 int length = value.getArrayLength();
                 for (int i = 0; i < length; i++) {
@@ -385,6 +389,25 @@ public final class JSValue implements JavaScriptValue {
         }
     }
 
+    /**
+     * Converts a primitive array to JSON directly from its items, with the same item types as
+     * toObject() would produce for the converted items.
+     */
+    private static JSONArray toJSONArray(JSPrimitiveArray value) {
+        JSONArray array = new JSONArray();
+        int length = value.getArrayLength();
+        if (value.isBooleanArray()) {
+            for (int i = 0; i < length; i++) {
+                array.put(Boolean.valueOf(value.getBooleanItem(i)));
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                array.put(Double.valueOf(value.getNumberItem(i)));
+            }
+        }
+        return array;
+    }
+
     private static final class JSONObjectAdapter extends JSAdapter {
         private JSONObject _json;
 
@@ -3,16 +3,28 @@
 
 package com.microsoft.c3p.util;
 
+import android.util.Log;
+
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
- * A promise that supports chaining via "then" methods.
+ * A promise that supports chaining via "then" methods. Any number of promises may be chained
+ * to the same promise; their handlers are invoked in the order they were chained.
+ *
+ * By default handlers are invoked on the thread that resolves, rejects, or cancels the promise
+ * (or on the calling thread, if the promise is already done when a handler is chained). The
+ * "then" overloads that take an Executor invoke handlers via that executor instead.
+ *
+ * If a handler throws a RuntimeException, the chained promise is rejected with the exception.
+ * If nothing was chained to or waiting for that promise yet, the exception is also logged, so
+ * that it is not lost when the chained promise is discarded.
+ *
  * @param <V> The type of the promised result, or java.lang.Void for a void promise.
  */
 public class ChainablePromise<V> extends Promise<V> {
-    private Function<V, ?> resultHandler;
-    private Consumer<Exception> exceptionHandler;
-    private Promise<?> continuation;
+    private static final String TAG = "ChainablePromise";
 
     /**
      * Creates a new chainable promise that can be resolved or rejected later.
@@ -37,9 +49,8 @@ public class ChainablePromise<V> extends Promise<V> {
 
     /**
      * Cancels a promise. After a promise is successfully cancelled, attempting to get the
-     * result will throw a CancellationException. If there is a chained result handler, it will
-     * not be invoked; if there is a chained exception handler, it will be invoked with a
-     * CancellationException.
+     * result will throw a CancellationException. Chained result handlers will not be invoked;
+     * chained exception handlers will be invoked with a CancellationException.
      * @param mayInterruptIfRunning Not supported, must be false.
      * @return False if the promise is already resolved or rejected and could not be cancelled,
      *         or true if the promise was successfully cancelled before it was resolved or rejected.
@@ -48,34 +59,7 @@ public class ChainablePromise<V> extends Promise<V> {
      */
     @Override
     public boolean cancel(boolean mayInterruptIfRunning) {
-        if (!super.cancel(mayInterruptIfRunning)) {
-            return false;
-        }
-
-        this.invokeContinuation();
-        return true;
-    }
-
-    /**
-     * Resolves the promise.
-     * @param result The promise result, or null if this is a void promise.
-     */
-    @Override
-    public void resolve(V result) {
-        super.resolve(result);
-
-        this.invokeContinuation();
-    }
-
-    /**
-     * Rejects the promise.
-     * @param exception The exception that caused the rejection (required).
-     */
-    @Override
-    public void reject(Exception exception) {
-        super.reject(exception);
-
-        this.invokeContinuation();
+        return super.cancel(mayInterruptIfRunning);
     }
 
     /**
@@ -85,7 +69,7 @@ public class ChainablePromise<V> extends Promise<V> {
      * @return A new promise that will be resolved after the result handler has completed.
      */
     public ChainablePromise<Void> then(Consumer<V> resultHandler) {
-        return this.then(resultHandler, (Consumer<Exception>)null);
+        return this.then(resultHandler, (Consumer<Exception>) null);
     }
 
     /**
@@ -98,7 +82,8 @@ public class ChainablePromise<V> extends Promise<V> {
      */
     public ChainablePromise<Void> then(
             final Consumer<V> resultHandler, Consumer<Exception> exceptionHandler) {
-        return this.then(
+        return this.thenOn(
+                null,
                 resultHandler == null ? null : new Function<V, Void>() {
                     @Override
                     public Void apply(V result) {
@@ -119,7 +104,21 @@ public class ChainablePromise<V> extends Promise<V> {
      * @return A new promise that will be resolved with the value returned by the result handler.
      */
     public <T> ChainablePromise<T> then(Function<V, T> resultHandler) {
-        return this.then(resultHandler, (Consumer<Exception>)null);
+        return this.thenOn(null, resultHandler, (Consumer<Exception>) null);
+    }
+
+    /**
+     * Creates a chained promise by specifying a result handler to be invoked via an executor
+     * when the promise is resolved.
+     * @param <T> The type returned by the result handler, which becomes the result type of the
+     *        chained promise.
+     * @param executor Executor that invokes the handler.
+     * @param resultHandler Function to be invoked when the promise is resolved. The return value
+     *        of this function becomes the result of the chained promise.
+     * @return A new promise that will be resolved with the value returned by the result handler.
+     */
+    public <T> ChainablePromise<T> thenOn(Executor executor, Function<V, T> resultHandler) {
+        return this.thenOn(executor, resultHandler, (Consumer<Exception>) null);
     }
 
     /**
@@ -135,21 +134,51 @@ public class ChainablePromise<V> extends Promise<V> {
      */
     public <T> ChainablePromise<T> then(
             Function<V, T> resultHandler, Consumer<Exception> exceptionHandler) {
-        ChainablePromise<T> chainedPromise;
+        return this.thenOn(null, resultHandler, exceptionHandler);
+    }
 
-        synchronized (this) {
-            if (this.continuation != null) {
-                throw new IllegalStateException("Another promise is already chained to this one.");
+    /**
+     * Creates a chained promise by specifying a result handler and exception handler to be invoked
+     * via an executor when the promise is done.
+     * @param <T> The type returned by the result handler, which becomes the result type of the
+     *        chained promise.
+     * @param executor Executor that invokes the handlers, or null to invoke them on the thread
+     *        that completes the promise. If the executor rejects the handlers, the chained
+     *        promise is rejected with the RejectedExecutionException.
+     * @param resultHandler Function to be invoked when the promise is resolved. The return value
+     *        of this function becomes the result of the chained promise.
+     * @param exceptionHandler Consumer to be invoked when the promise is rejected or cancelled. The
+     *        parameter to the action is either the rejection exception or a CancellationException.
+     * @return A new promise that will be resolved with the value returned by the result handler.
+     */
+    public <T> ChainablePromise<T> thenOn(
+            final Executor executor,
+            final Function<V, T> resultHandler,
+            final Consumer<Exception> exceptionHandler) {
+        final ChainablePromise<V> self = this;
+        final ChainablePromise<T> chainedPromise = new ChainablePromise<T>();
+        final Runnable continuation = new Runnable() {
+            @Override
+            public void run() {
+                self.invokeContinuation(resultHandler, exceptionHandler, chainedPromise);
             }
-
-            chainedPromise = new ChainablePromise<T>();
-            this.continuation = chainedPromise;
-            this.resultHandler = resultHandler;
-            this.exceptionHandler = exceptionHandler;
+        };
+
+        if (executor == null) {
+            this.addListener(continuation);
+        } else {
+            this.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        executor.execute(continuation);
+                    } catch (RejectedExecutionException rex) {
+                        chainedPromise.tryReject(rex);
+                    }
+                }
+            });
         }
 
-        this.invokeContinuation();
-
         return chainedPromise;
     }
 
@@ -162,49 +191,54 @@ public class ChainablePromise<V> extends Promise<V> {
      * that occurred somewhere in the chain.
      */
     public ChainablePromise<Void> thenCatch(Consumer<Exception> exceptionHandler) {
-        return this.then((Function<V, Void>)null, exceptionHandler);
+        return this.thenOn(null, (Function<V, Void>) null, exceptionHandler);
     }
 
     /**
-     * Invokes any continuation (chained result handler or exception handler) if the promise is done
-     * and a continuation has not already been invoked.
+     * Creates a chained promise by specifying an exception handler to be invoked via an executor
+     * when the promise is rejected or cancelled.
+     * @param executor Executor that invokes the handler.
+     * @param exceptionHandler Consumer to be invoked when the promise is rejected or cancelled. The
+     *        parameter to the action is either the rejection exception or a CancellationException.
+     * @return A new promise that will never be resolved, but may be rejected with an exception
+     * that occurred somewhere in the chain.
      */
-    private void invokeContinuation() {
-        Function<V, ?> continueWithResultHandler;
-        Consumer<Exception> continueWithExceptionHandler;
-
-        synchronized (this) {
-            if (!(this.isDone() || this.isCancelled()) || this.continuation == null) {
-                // There's no continuation to invoke (right now).
-                return;
-            } else if (this.resultHandler == null && this.exceptionHandler == null) {
-                // The continuation was already invoked.
-                return;
-            }
-
-            continueWithResultHandler = this.resultHandler;
-            continueWithExceptionHandler = this.exceptionHandler;
-
-            // Set these to null to avoid invoking the continuation more than once.
-            this.resultHandler = null;
-            this.exceptionHandler = null;
-        }
+    public ChainablePromise<Void> thenCatchOn(
+            Executor executor, Consumer<Exception> exceptionHandler) {
+        return this.thenOn(executor, (Function<V, Void>) null, exceptionHandler);
+    }
 
-        if (this.isCancelled()) {
-            if (continueWithExceptionHandler != null) {
-                continueWithExceptionHandler.accept(new CancellationException());
-            } else {
-                this.continuation.cancel(false);
+    /**
+     * Invokes a continuation (chained result handler or exception handler) after the promise
+     * is done.
+     */
+    private <T> void invokeContinuation(
+            Function<V, T> resultHandler,
+            Consumer<Exception> exceptionHandler,
+            ChainablePromise<T> continuation) {
+        try {
+            if (this.isCancelled()) {
+                if (exceptionHandler != null) {
+                    exceptionHandler.accept(new CancellationException());
+                } else {
+                    continuation.cancel(false);
+                }
+            } else if (this.exception != null) {
+                if (exceptionHandler != null) {
+                    exceptionHandler.accept(this.exception);
+                } else {
+                    continuation.reject(this.exception);
+                }
+            } else if (resultHandler != null) {
+                T nextResult = resultHandler.apply(this.result);
+                continuation.resolve(nextResult);
             }
-        } else if (this.exception != null) {
-            if (continueWithExceptionHandler != null) {
-                continueWithExceptionHandler.accept(this.exception);
-            } else {
-                this.continuation.reject(this.exception);
+        } catch (RuntimeException rex) {
+            // Listeners are checked first, since rejecting the promise removes them.
+            boolean hasListeners = continuation.hasListeners();
+            if (!continuation.tryReject(rex) || !hasListeners) {
+                Log.w(TAG, "Exception thrown by a promise handler.", rex);
             }
-        } else if (continueWithResultHandler != null) {
-            Object nextResult = continueWithResultHandler.apply(this.result);
-            ((Promise<Object>)this.continuation).resolve(nextResult);
         }
     }
 }
@@ -3,22 +3,40 @@
 
 package com.microsoft.c3p.util;
 
-import android.os.ConditionVariable;
-
+import java.util.ArrayList;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Basic promise object that can be resolved with a result or rejected with an exception.
+ *
+ * The promise does not use locks. Its state is a single atomic word: while the promise is
+ * pending, the word holds a stack of nodes (threads blocked in get() and listeners added by
+ * subclasses), and once the promise is done it holds a marker for the final state. Threads
+ * are parked only when get() is called on a promise that is not done yet. A thread whose wait
+ * times out or is interrupted unlinks its node from the stack.
+ *
  * @param <V> The type of the promised result, or java.lang.Void for a void promise.
  */
 public class Promise<V> implements Future<V> {
-    private boolean cancelled;
-    private boolean done;
-    private ConditionVariable condition;
+    private static final Object RESOLVED = new Object();
+    private static final Object REJECTED = new Object();
+    private static final Object CANCELLED = new Object();
+
+    // Transient state while the result is being stored, between claiming and completing.
+    private static final Object COMPLETING = new Object();
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Promise, Object> stateUpdater =
+            AtomicReferenceFieldUpdater.newUpdater(Promise.class, Object.class, "state");
+
+    // Null or a Node while pending; otherwise one of the marker objects above.
+    private volatile Object state;
     protected V result;
     protected Exception exception;
 
@@ -26,7 +44,6 @@ public class Promise<V> implements Future<V> {
      * Creates a new promise that can be resolved or rejected later.
      */
     public Promise() {
-        this.condition = new ConditionVariable(false);
     }
 
     /**
@@ -34,8 +51,7 @@ public class Promise<V> implements Future<V> {
      */
     public Promise(V result) {
         this.result = result;
-        this.done = true;
-        this.condition = new ConditionVariable(true);
+        this.state = RESOLVED;
     }
 
     /**
@@ -43,8 +59,7 @@ public class Promise<V> implements Future<V> {
      */
     public Promise(Exception exception) {
         this.exception = exception;
-        this.done = true;
-        this.condition = new ConditionVariable(true);
+        this.state = REJECTED;
     }
 
     /**
@@ -52,23 +67,23 @@ public class Promise<V> implements Future<V> {
      */
     @Override
     public boolean isCancelled() {
-        return this.cancelled;
+        return this.state == CANCELLED;
     }
 
     /**
-     * Checks if the promise is done (either resolved or rejected).
+     * Checks if the promise is done (either resolved, rejected, or cancelled).
      */
     @Override
     public boolean isDone() {
-        return this.done;
+        return isFinalState(this.state);
     }
 
     /**
      * Cancels a promise. After a promise is successfully cancelled, attempting to get the
      * result will throw a CancellationException.
      * @param mayInterruptIfRunning Not supported, must be false.
-     * @return False if the promise is already resolved or rejected and could not be cancelled,
-     *         or true if the promise was successfully cancelled before it was resolved or rejected.
+     * @return False if the promise is already done and could not be cancelled, or true if the
+     *         promise was successfully cancelled before it was resolved or rejected.
      *         (The task providing the promise may not have actually been interrupted, though any
      *         eventual resolution or rejection will be ignored.)
      */
@@ -78,18 +93,12 @@ public class Promise<V> implements Future<V> {
             throw new UnsupportedOperationException("Interruption is not supported.");
         }
 
-        synchronized (this) {
-            if (this.done)
-            {
-                return false;
-            }
-            else
-            {
-                this.cancelled = true;
-                this.condition.open();
-            }
+        Object pendingNodes = this.claim();
+        if (pendingNodes == COMPLETING) {
+            return false;
         }
 
+        this.complete(CANCELLED, pendingNodes);
         return true;
     }
 
@@ -103,17 +112,12 @@ public class Promise<V> implements Future<V> {
      */
     @Override
     public V get() throws InterruptedException, ExecutionException {
-        this.condition.block();
-
-        synchronized (this) {
-            if (this.cancelled) {
-                throw new CancellationException();
-            } else if (this.exception != null) {
-                throw new ExecutionException(exception);
-            } else {
-                return this.result;
-            }
+        Object finalState = this.state;
+        if (!isFinalState(finalState)) {
+            finalState = this.await(false, 0);
         }
+
+        return this.report(finalState);
     }
 
     /**
@@ -132,37 +136,29 @@ public class Promise<V> implements Future<V> {
     @Override
     public V get(long timeout, TimeUnit unit)
             throws InterruptedException, ExecutionException, TimeoutException {
-        this.condition.block(unit.toMillis(timeout));
-
-        synchronized (this) {
-            if (this.cancelled) {
-                throw new CancellationException();
-            } else if (this.exception != null) {
-                throw new ExecutionException(exception);
-            } else {
-                return this.result;
+        Object finalState = this.state;
+        if (!isFinalState(finalState)) {
+            finalState = this.await(true, unit.toNanos(timeout));
+            if (finalState == null) {
+                throw new TimeoutException();
             }
         }
+
+        return this.report(finalState);
     }
 
     /**
-     * Resolves the promise.
+     * Resolves the promise. If the promise was cancelled, the result is ignored.
      * @param result The promise result, or null if this is a void promise.
      */
     public void resolve(V result) {
-        synchronized (this) {
-            if (this.done) {
-                throw new IllegalStateException("Cannot resolve a promise that is already done.");
-            }
-
-            this.result = result;
-            this.done = true;
-            this.condition.open();
+        if (!this.tryResolve(result) && this.state != CANCELLED) {
+            throw new IllegalStateException("Cannot resolve a promise that is already done.");
         }
     }
 
     /**
-     * Rejects the promise.
+     * Rejects the promise. If the promise was cancelled, the exception is ignored.
      * @param exception The exception that caused the rejection (required).
      */
     public void reject(Exception exception) {
@@ -171,14 +167,284 @@ public class Promise<V> implements Future<V> {
                     "An exception is required when rejecting a promise.");
         }
 
-        synchronized (this) {
-            if (this.done) {
-                throw new IllegalStateException("Cannot reject a promise that is already done.");
+        if (!this.tryReject(exception) && this.state != CANCELLED) {
+            throw new IllegalStateException("Cannot reject a promise that is already done.");
+        }
+    }
+
+    /**
+     * Resolves the promise if it is not already done.
+     * @return True if the promise was resolved, false if it was already done.
+     */
+    boolean tryResolve(V result) {
+        Object pendingNodes = this.claim();
+        if (pendingNodes == COMPLETING) {
+            return false;
+        }
+
+        this.result = result;
+        this.complete(RESOLVED, pendingNodes);
+        return true;
+    }
+
+    /**
+     * Rejects the promise if it is not already done.
+     * @return True if the promise was rejected, false if it was already done.
+     */
+    boolean tryReject(Exception exception) {
+        Object pendingNodes = this.claim();
+        if (pendingNodes == COMPLETING) {
+            return false;
+        }
+
+        this.exception = exception;
+        this.complete(REJECTED, pendingNodes);
+        return true;
+    }
+
+    /**
+     * Adds a listener to be invoked once when the promise is done. If the promise is already
+     * done, the listener is invoked immediately on the calling thread; otherwise it is invoked
+     * on the thread that resolves, rejects, or cancels the promise, in the order that
+     * listeners were added. An exception thrown by a listener propagates to the thread that
+     * invoked it.
+     *
+     * Unlike the continuation methods of ChainablePromise, this does not allocate another
+     * promise, so it is the cheapest way for a caller to be notified of completion.
+     */
+    public void addListener(Runnable listener) {
+        ListenerNode node = new ListenerNode(listener);
+        if (!this.push(node)) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Checks whether anything is waiting for the promise to be done: a listener, or a thread
+     * blocked in get().
+     */
+    boolean hasListeners() {
+        Object currentState = this.state;
+        for (Node node = (currentState instanceof Node ? (Node) currentState : null);
+                node != null; node = node.next) {
+            if (!node.isAbandoned()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Pushes a node onto the stack of pending nodes.
+     * @return True if the node was pushed, or false if the promise is already done.
+     */
+    private boolean push(Node node) {
+        while (true) {
+            Object currentState = this.state;
+            if (isFinalState(currentState)) {
+                return false;
+            } else if (currentState == COMPLETING) {
+                // Another thread is storing the result; it will be done momentarily.
+                Thread.yield();
+                continue;
+            }
+
+            node.next = (Node) currentState;
+            if (stateUpdater.compareAndSet(this, currentState, node)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Claims the right to complete the promise.
+     * @return The stack of pending nodes (possibly null) if this thread may complete the
+     *         promise, or COMPLETING if the promise is already done.
+     */
+    private Object claim() {
+        while (true) {
+            Object currentState = this.state;
+            if (isFinalState(currentState)) {
+                return COMPLETING;
+            } else if (currentState == COMPLETING) {
+                Thread.yield();
+                continue;
+            }
+
+            if (stateUpdater.compareAndSet(this, currentState, COMPLETING)) {
+                return currentState;
+            }
+        }
+    }
+
+    /**
+     * Publishes the final state (after the result or exception has been stored), then wakes
+     * waiting threads and invokes listeners, in the order they were added.
+     */
+    private void complete(Object finalState, Object pendingNodes) {
+        this.state = finalState;
+
+        Node head = (Node) pendingNodes;
+        if (head == null) {
+            return;
+        } else if (head.next == null) {
+            head.complete();
+            return;
+        }
+
+        // The stack is copied rather than reversed in place, because a waiter that stopped
+        // waiting may still be unlinking its node from it.
+        ArrayList<Node> nodes = new ArrayList<Node>();
+        for (Node node = head; node != null; node = node.next) {
+            nodes.add(node);
+        }
+
+        // An exception from a listener is rethrown to the completing thread, but only after all
+        // other nodes have been completed, so that no waiting thread is left parked.
+        RuntimeException listenerException = null;
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            try {
+                nodes.get(i).complete();
+            } catch (RuntimeException rex) {
+                if (listenerException == null) {
+                    listenerException = rex;
+                }
+            }
+        }
+
+        if (listenerException != null) {
+            throw listenerException;
+        }
+    }
+
+    /**
+     * Parks the current thread until the promise is done or the timeout expires.
+     * @return The final state, or null if the timeout expired.
+     */
+    private Object await(boolean timed, long timeoutNanos) throws InterruptedException {
+        WaiterNode waiter = new WaiterNode(Thread.currentThread());
+        if (!this.push(waiter)) {
+            return this.state;
+        }
+
+        long deadline = (timed ? System.nanoTime() + timeoutNanos : 0);
+        while (true) {
+            Object currentState = this.state;
+            if (isFinalState(currentState)) {
+                return currentState;
+            } else if (Thread.interrupted()) {
+                this.removeWaiter(waiter);
+                throw new InterruptedException();
+            }
+
+            if (timed) {
+                long remainingNanos = deadline - System.nanoTime();
+                if (remainingNanos <= 0) {
+                    this.removeWaiter(waiter);
+                    return null;
+                }
+                LockSupport.parkNanos(this, remainingNanos);
+            } else {
+                LockSupport.park(this);
+            }
+        }
+    }
+
+    /**
+     * Marks a waiter as no longer waiting, and unlinks it (along with any other such waiters)
+     * from the stack of pending nodes, so that a promise that stays pending does not keep the
+     * nodes of waits that timed out or were interrupted. Other threads may push, unlink or
+     * complete nodes concurrently; the scan restarts whenever it loses a race.
+     */
+    private void removeWaiter(WaiterNode waiter) {
+        waiter.thread = null;
+
+        retry:
+        while (true) {
+            Object currentState = this.state;
+            if (!(currentState instanceof Node)) {
+                // The stack is empty, or the promise is done and its nodes are being completed.
+                return;
+            }
+
+            Node predecessor = null;
+            Node next;
+            for (Node node = (Node) currentState; node != null; node = next) {
+                next = node.next;
+                if (!node.isAbandoned()) {
+                    predecessor = node;
+                } else if (predecessor != null) {
+                    predecessor.next = next;
+                    if (predecessor.isAbandoned()) {
+                        continue retry;
+                    }
+                } else if (!stateUpdater.compareAndSet(this, node, next)) {
+                    continue retry;
+                }
+            }
+            return;
+        }
+    }
+
+    private V report(Object finalState) throws ExecutionException {
+        if (finalState == CANCELLED) {
+            throw new CancellationException();
+        } else if (this.exception != null) {
+            throw new ExecutionException(this.exception);
+        } else {
+            return this.result;
+        }
+    }
+
+    private static boolean isFinalState(Object state) {
+        return state == RESOLVED || state == REJECTED || state == CANCELLED;
+    }
+
+    private abstract static class Node {
+        volatile Node next;
+
+        abstract void complete();
+
+        /**
+         * Checks whether the node is a waiter whose thread stopped waiting.
+         */
+        boolean isAbandoned() {
+            return false;
+        }
+    }
+
+    private static final class WaiterNode extends Node {
+        // Set to null by the waiting thread if it stops waiting.
+        volatile Thread thread;
+
+        WaiterNode(Thread thread) {
+            this.thread = thread;
+        }
+
+        @Override
+        void complete() {
+            Thread waitingThread = this.thread;
+            if (waitingThread != null) {
+                LockSupport.unpark(waitingThread);
             }
+        }
+
+        @Override
+        boolean isAbandoned() {
+            return this.thread == null;
+        }
+    }
+
+    private static final class ListenerNode extends Node {
+        final Runnable listener;
+
+        ListenerNode(Runnable listener) {
+            this.listener = listener;
+        }
 
-            this.exception = exception;
-            this.done = true;
-            this.condition.open();
+        @Override
+        void complete() {
+            this.listener.run();
         }
     }
 }
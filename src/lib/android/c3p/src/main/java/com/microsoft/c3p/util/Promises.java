@@ -0,0 +1,301 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for details.
+
+package com.microsoft.c3p.util;
+
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Combinators for promises. None of these block a thread while waiting: they complete the
+ * returned promise from continuations of the input promises, or (for timeouts and delays)
+ * from a single shared scheduler thread. Continuations of the returned promises therefore run
+ * on whichever thread completes them; use ChainablePromise.thenOn(Executor, ...) to move work
+ * off the scheduler thread.
+ *
+ * Input promises that are cancelled are treated as rejected with a CancellationException.
+ */
+public final class Promises {
+    private static final String SCHEDULER_THREAD_NAME = "C3P promise scheduler";
+
+    private Promises() {
+    }
+
+    /**
+     * The outcome of a promise that is done, as reported by allSettled().
+     * @param <V> The type of the promised result.
+     */
+    public static final class Settlement<V> {
+        private final V result;
+        private final Exception exception;
+
+        Settlement(V result, Exception exception) {
+            this.result = result;
+            this.exception = exception;
+        }
+
+        /**
+         * Checks whether the promise was resolved (as opposed to rejected or cancelled).
+         */
+        public boolean isResolved() {
+            return this.exception == null;
+        }
+
+        /**
+         * Gets the result of the promise, or null if it was not resolved.
+         */
+        public V getResult() {
+            return this.result;
+        }
+
+        /**
+         * Gets the exception the promise was rejected with, or a CancellationException if it
+         * was cancelled, or null if it was resolved.
+         */
+        public Exception getException() {
+            return this.exception;
+        }
+    }
+
+    /**
+     * Creates a promise that is resolved with the results of all of the promises (in the same
+     * order) after they are all resolved, or is rejected as soon as any of them is rejected.
+     */
+    public static <V> ChainablePromise<List<V>> all(
+            final List<? extends Promise<? extends V>> promises) {
+        final ChainablePromise<List<V>> allPromise = new ChainablePromise<List<V>>();
+        final int count = promises.size();
+        if (count == 0) {
+            allPromise.resolve(new ArrayList<V>());
+            return allPromise;
+        }
+
+        final Object[] results = new Object[count];
+        final AtomicInteger remainingCount = new AtomicInteger(count);
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            final Promise<? extends V> promise = promises.get(i);
+            promise.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    Exception exception = getException(promise);
+                    if (exception != null) {
+                        allPromise.tryReject(exception);
+                        return;
+                    }
+
+                    results[index] = promise.result;
+                    if (remainingCount.decrementAndGet() == 0) {
+                        allPromise.tryResolve(Promises.<V>toList(results));
+                    }
+                }
+            });
+        }
+
+        return allPromise;
+    }
+
+    /**
+     * Creates a promise that is resolved after all of the promises are done, with the outcome of
+     * each of them (in the same order). The returned promise is never rejected.
+     */
+    public static <V> ChainablePromise<List<Settlement<V>>> allSettled(
+            final List<? extends Promise<? extends V>> promises) {
+        final ChainablePromise<List<Settlement<V>>> allPromise =
+                new ChainablePromise<List<Settlement<V>>>();
+        final int count = promises.size();
+        if (count == 0) {
+            allPromise.resolve(new ArrayList<Settlement<V>>());
+            return allPromise;
+        }
+
+        final Object[] settlements = new Object[count];
+        final AtomicInteger remainingCount = new AtomicInteger(count);
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            final Promise<? extends V> promise = promises.get(i);
+            promise.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    Exception exception = getException(promise);
+                    settlements[index] = new Settlement<V>(
+                            exception == null ? promise.result : null, exception);
+                    if (remainingCount.decrementAndGet() == 0) {
+                        allPromise.tryResolve(Promises.<Settlement<V>>toList(settlements));
+                    }
+                }
+            });
+        }
+
+        return allPromise;
+    }
+
+    /**
+     * Creates a promise that is resolved with the result of the first of the promises to be
+     * resolved, or is rejected if all of them are rejected. The rejection exception then has
+     * each of the promises' exceptions as suppressed exceptions.
+     */
+    public static <V> ChainablePromise<V> any(
+            final List<? extends Promise<? extends V>> promises) {
+        final ChainablePromise<V> anyPromise = new ChainablePromise<V>();
+        final int count = promises.size();
+        if (count == 0) {
+            anyPromise.reject(new IllegalArgumentException("No promises were supplied."));
+            return anyPromise;
+        }
+
+        final Exception[] exceptions = new Exception[count];
+        final AtomicInteger remainingCount = new AtomicInteger(count);
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            final Promise<? extends V> promise = promises.get(i);
+            promise.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    Exception exception = getException(promise);
+                    if (exception == null) {
+                        anyPromise.tryResolve(promise.result);
+                        return;
+                    }
+
+                    exceptions[index] = exception;
+                    if (remainingCount.decrementAndGet() == 0) {
+                        Exception allRejectedException =
+                                new Exception("All promises were rejected.");
+                        for (Exception suppressedException : exceptions) {
+                            allRejectedException.addSuppressed(suppressedException);
+                        }
+                        anyPromise.tryReject(allRejectedException);
+                    }
+                }
+            });
+        }
+
+        return anyPromise;
+    }
+
+    /**
+     * Creates a promise that is resolved or rejected in the same way as the first of the
+     * promises to be done. If no promises are supplied, the returned promise is never done.
+     */
+    public static <V> ChainablePromise<V> race(
+            final List<? extends Promise<? extends V>> promises) {
+        final ChainablePromise<V> racePromise = new ChainablePromise<V>();
+        for (final Promise<? extends V> promise : promises) {
+            promise.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    Exception exception = getException(promise);
+                    if (exception == null) {
+                        racePromise.tryResolve(promise.result);
+                    } else {
+                        racePromise.tryReject(exception);
+                    }
+                }
+            });
+        }
+
+        return racePromise;
+    }
+
+    /**
+     * Creates a promise that is resolved or rejected in the same way as a promise, unless the
+     * timeout expires first, in which case it is rejected with a TimeoutException. The original
+     * promise is not cancelled when the timeout expires.
+     */
+    public static <V> ChainablePromise<V> withTimeout(
+            final Promise<? extends V> promise, long timeout, TimeUnit unit) {
+        final ChainablePromise<V> timeoutPromise = new ChainablePromise<V>();
+        final ScheduledFuture<?> timer = Scheduler.INSTANCE.schedule(new Runnable() {
+            @Override
+            public void run() {
+                timeoutPromise.tryReject(new TimeoutException(
+                        "The promise was not done within the timeout."));
+            }
+        }, timeout, unit);
+
+        promise.addListener(new Runnable() {
+            @Override
+            public void run() {
+                timer.cancel(false);
+                Exception exception = getException(promise);
+                if (exception == null) {
+                    timeoutPromise.tryResolve(promise.result);
+                } else {
+                    timeoutPromise.tryReject(exception);
+                }
+            }
+        });
+
+        return timeoutPromise;
+    }
+
+    /**
+     * Creates a promise that is resolved after a delay.
+     */
+    public static ChainablePromise<Void> delay(long delay, TimeUnit unit) {
+        final ChainablePromise<Void> delayPromise = new ChainablePromise<Void>();
+        Scheduler.INSTANCE.schedule(new Runnable() {
+            @Override
+            public void run() {
+                delayPromise.tryResolve(null);
+            }
+        }, delay, unit);
+        return delayPromise;
+    }
+
+    /**
+     * Gets the exception a promise that is done was rejected with, a CancellationException if
+     * it was cancelled, or null if it was resolved.
+     */
+    private static Exception getException(Promise<?> promise) {
+        if (promise.isCancelled()) {
+            return new CancellationException();
+        }
+        return promise.exception;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> toList(Object[] items) {
+        return new ArrayList<T>((List<T>) Arrays.asList(items));
+    }
+
+    /**
+     * Holds the shared scheduler, which is created the first time it is used.
+     */
+    private static final class Scheduler {
+        static final ScheduledExecutorService INSTANCE = createScheduler();
+
+        private static ScheduledExecutorService createScheduler() {
+            ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(
+                    1, new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, SCHEDULER_THREAD_NAME);
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+
+            // Timers that withTimeout() cancels are removed from the queue right away, rather than
+            // when their delay expires, so they do not pile up along with the promises they hold.
+            // The policy is not available before API 21.
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                scheduler.setRemoveOnCancelPolicy(true);
+            }
+            return scheduler;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for details.
+
+package com.microsoft.c3p;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures HandleTable throughput against the marshaller's previous handle maps (two levels of
+ * HashMap keyed by class, here guarded by a single lock so they are safe to share).
+ *
+ * This is not run as part of the unit tests. Run it on a JVM with the test classes on the
+ * class path, for example:
+ *     java -cp build/intermediates/classes/debug:build/intermediates/classes/test/debug
+ *         com.microsoft.c3p.HandleTableBenchmark
+ */
+public final class HandleTableBenchmark {
+    private static final int OPERATIONS_PER_THREAD = 1000000;
+    private static final int OBJECTS_PER_THREAD = 1024;
+    private static final int ROUNDS = 5;
+    private static final int LIVE_HANDLE_COUNT = 100000;
+    private static final int LOOKUP_COUNT = 1000000;
+
+    public static void main(String[] args) throws Exception {
+        benchmarkLiveHandles();
+        benchmarkContention();
+    }
+
+    private static void benchmarkLiveHandles() {
+        System.out.println("Single thread, " + LIVE_HANDLE_COUNT + " live handles");
+        PluginObject[] objects = new PluginObject[LIVE_HANDLE_COUNT];
+        for (int i = 0; i < objects.length; i++) {
+            objects[i] = new PluginObject(i);
+        }
+        int[] order = new int[LOOKUP_COUNT];
+        Random random = new Random(0);
+        for (int i = 0; i < order.length; i++) {
+            order[i] = random.nextInt(LIVE_HANDLE_COUNT);
+        }
+        long[] tableNanos = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+        long[] mapNanos = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+        for (int round = 0; round < ROUNDS; round++) {
+            runLiveHandles(new TableRegistry(), objects, order, tableNanos);
+            runLiveHandles(new MapRegistry(PluginObject.class), objects, order, mapNanos);
+        }
+        String[] phases = { "marshal live object", "resolve handle", "release and re-add" };
+        for (int i = 0; i < phases.length; i++) {
+            System.out.println(String.format("  %-20s HandleTable %6.1f ns, HashMaps %6.1f ns",
+                    phases[i] + ":", tableNanos[i] / (double) LOOKUP_COUNT,
+                    mapNanos[i] / (double) LOOKUP_COUNT));
+        }
+    }
+
+    private static void benchmarkContention() throws InterruptedException {
+        System.out.println("Contention: add, look up, and release handles from N threads");
+        for (int threadCount = 1; threadCount <= 8; threadCount *= 2) {
+            long tableNanos = Long.MAX_VALUE;
+            long mapNanos = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                tableNanos = Math.min(tableNanos, runContention(new TableRegistry(), threadCount));
+                mapNanos = Math.min(
+                        mapNanos, runContention(new MapRegistry(Object.class), threadCount));
+            }
+            printThroughput("HandleTable", threadCount, tableNanos);
+            printThroughput("HashMaps   ", threadCount, mapNanos);
+        }
+    }
+
+    /**
+     * Fills a registry with live handles, then times (0) getting the handle of a live object,
+     * as when it is marshalled again, (1) resolving a live handle to its object, and (2)
+     * releasing a live handle and adding its object back. Keeps the best time of each phase.
+     */
+    private static void runLiveHandles(
+            Registry registry, PluginObject[] objects, int[] order, long[] bestNanos) {
+        int[] handles = new int[objects.length];
+        for (int i = 0; i < objects.length; i++) {
+            handles[i] = registry.add(objects[i]);
+        }
+
+        long startTime = System.nanoTime();
+        for (int index : order) {
+            handles[index] = registry.add(objects[index]);
+        }
+        bestNanos[0] = Math.min(bestNanos[0], System.nanoTime() - startTime);
+
+        int found = 0;
+        startTime = System.nanoTime();
+        for (int index : order) {
+            if (registry.get(handles[index]) != null) {
+                found++;
+            }
+        }
+        bestNanos[1] = Math.min(bestNanos[1], System.nanoTime() - startTime);
+        if (found != order.length) {
+            throw new AssertionError("Missing handles: " + (order.length - found));
+        }
+
+        startTime = System.nanoTime();
+        for (int index : order) {
+            registry.release(handles[index]);
+            handles[index] = registry.add(objects[index]);
+        }
+        bestNanos[2] = Math.min(bestNanos[2], System.nanoTime() - startTime);
+    }
+
+    private static long runContention(final Registry registry, int threadCount)
+            throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Object[] objects = new Object[OBJECTS_PER_THREAD];
+                    int[] handles = new int[OBJECTS_PER_THREAD];
+                    for (int i = 0; i < objects.length; i++) {
+                        objects[i] = new Object();
+                    }
+
+                    try {
+                        start.await();
+                    } catch (InterruptedException iex) {
+                        return;
+                    }
+
+                    // Each iteration is two operations: add then look up, or look up then
+                    // release, alternating for each object on successive passes.
+                    for (int i = 0; i < OPERATIONS_PER_THREAD / 2; i++) {
+                        int index = i & (OBJECTS_PER_THREAD - 1);
+                        if (handles[index] == 0) {
+                            handles[index] = registry.add(objects[index]);
+                            registry.get(handles[index]);
+                        } else {
+                            registry.get(handles[index]);
+                            registry.release(handles[index]);
+                            handles[index] = 0;
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return System.nanoTime() - startTime;
+    }
+
+    private static void printThroughput(String name, int threadCount, long nanos) {
+        long operations = (long) OPERATIONS_PER_THREAD * threadCount;
+        System.out.println(String.format("  %s %d thread(s): %6.1f M operations/s",
+                name, threadCount, operations * 1000.0 / nanos));
+    }
+
+    private interface Registry {
+        int add(Object object);
+        Object get(int handle);
+        Object release(int handle);
+    }
+
+    private static final class TableRegistry implements Registry {
+        private final HandleTable table = new HandleTable();
+
+        @Override
+        public int add(Object object) {
+            return this.table.getOrAddHandle(object);
+        }
+
+        @Override
+        public Object get(int handle) {
+            return this.table.getObject(handle);
+        }
+
+        @Override
+        public Object release(int handle) {
+            return this.table.release(handle);
+        }
+    }
+
+    /**
+     * The marshaller's handle maps before HandleTable: per-class HashMaps in each direction,
+     * with boxed handles. A lookup by handle has to know the object's class, as it did when
+     * the JavaScript reference named the type, so all objects must be of the given type.
+     */
+    private static final class MapRegistry implements Registry {
+        private final Class<?> type;
+        private final HashMap<Class<?>, HashMap<Object, Integer>> objectsToHandles =
+                new HashMap<Class<?>, HashMap<Object, Integer>>();
+        private final HashMap<Class<?>, HashMap<Integer, Object>> handlesToObjects =
+                new HashMap<Class<?>, HashMap<Integer, Object>>();
+        private int counter;
+
+        MapRegistry(Class<?> type) {
+            this.type = type;
+        }
+
+        @Override
+        public synchronized int add(Object object) {
+            HashMap<Object, Integer> classObjectsToHandles =
+                    this.objectsToHandles.get(object.getClass());
+            if (classObjectsToHandles == null) {
+                classObjectsToHandles = new HashMap<Object, Integer>();
+                this.objectsToHandles.put(object.getClass(), classObjectsToHandles);
+            }
+
+            HashMap<Integer, Object> classHandlesToObjects =
+                    this.handlesToObjects.get(object.getClass());
+            if (classHandlesToObjects == null) {
+                classHandlesToObjects = new HashMap<Integer, Object>();
+                this.handlesToObjects.put(object.getClass(), classHandlesToObjects);
+            }
+
+            Integer handle = classObjectsToHandles.get(object);
+            if (handle == null) {
+                handle = ++this.counter;
+                classObjectsToHandles.put(object, handle);
+                classHandlesToObjects.put(handle, object);
+            }
+            return handle;
+        }
+
+        @Override
+        public synchronized Object get(int handle) {
+            HashMap<Integer, Object> classHandlesToObjects =
+                    this.handlesToObjects.get(this.type);
+            return classHandlesToObjects != null ? classHandlesToObjects.get(handle) : null;
+        }
+
+        @Override
+        public synchronized Object release(int handle) {
+            HashMap<Integer, Object> classHandlesToObjects =
+                    this.handlesToObjects.get(this.type);
+            if (classHandlesToObjects == null) {
+                return null;
+            }
+
+            Object object = classHandlesToObjects.remove(handle);
+            if (object != null) {
+                this.objectsToHandles.get(this.type).remove(object);
+            }
+            return object;
+        }
+    }
+
+    /**
+     * A plugin object with value semantics, whose hashCode() and equals() read all its state,
+     * as the previous handle maps called them and HandleTable does not.
+     */
+    private static final class PluginObject {
+        private final int[] state;
+
+        PluginObject(int seed) {
+            this.state = new int[16];
+            for (int i = 0; i < this.state.length; i++) {
+                this.state[i] = seed * 31 + i;
+            }
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof PluginObject &&
+                    Arrays.equals(this.state, ((PluginObject) other).state);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(this.state);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for details.
+
+package com.microsoft.c3p;
+
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class HandleTableTest {
+    private static final int THREAD_COUNT = 8;
+
+    @Test
+    public void getOrAddHandleReturnsSameHandleForSameObject() {
+        HandleTable table = new HandleTable();
+        Object object = new Object();
+
+        int handle = table.getOrAddHandle(object);
+        assertNotEquals(0, handle);
+        assertEquals(handle, table.getOrAddHandle(object));
+        assertEquals(handle, table.getHandle(object));
+        assertSame(object, table.getObject(handle));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void objectsAreComparedByIdentity() {
+        HandleTable table = new HandleTable();
+        String a = new String("value");
+        String b = new String("value");
+
+        int handleA = table.getOrAddHandle(a);
+        int handleB = table.getOrAddHandle(b);
+        assertNotEquals(handleA, handleB);
+        assertSame(a, table.getObject(handleA));
+        assertSame(b, table.getObject(handleB));
+    }
+
+    @Test
+    public void releaseRemovesBothDirections() {
+        HandleTable table = new HandleTable();
+        Object object = new Object();
+        int handle = table.getOrAddHandle(object);
+
+        assertSame(object, table.release(handle));
+        assertNull(table.getObject(handle));
+        assertEquals(0, table.getHandle(object));
+        assertNull(table.release(handle));
+        assertNull(table.release(0));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void releaseWithTypeOnlyRemovesInstancesOfType() {
+        HandleTable table = new HandleTable();
+        Object object = new StringBuilder();
+        int handle = table.getOrAddHandle(object);
+
+        assertNull(table.release(handle, String.class));
+        assertSame(object, table.getObject(handle));
+        assertSame(object, table.release(handle, CharSequence.class));
+        assertNull(table.getObject(handle));
+    }
+
+    @Test
+    public void handlesAreNotReusedBeforeCounterWraps() {
+        HandleTable table = new HandleTable();
+        Set<Integer> handles = new HashSet<Integer>();
+        Object object = new Object();
+        for (int i = 0; i < 10000; i++) {
+            int handle = table.getOrAddHandle(object);
+            assertTrue("Handle reused: " + handle, handles.add(handle));
+            table.release(handle);
+        }
+    }
+
+    @Test
+    public void handlesSkipLiveEntriesAfterCounterWraps() throws Exception {
+        HandleTable table = new HandleTable();
+        Map<Object, Integer> live = new IdentityHashMap<Object, Integer>();
+        for (int i = 0; i < 1000; i++) {
+            Object object = new Object();
+            live.put(object, table.getOrAddHandle(object));
+        }
+
+        // Advance the counter so the next handles wrap around to the ones assigned above.
+        getCounter(table).set((1 << 28) - 1);
+
+        Set<Integer> liveHandles = new HashSet<Integer>(live.values());
+        for (int i = 0; i < 1000; i++) {
+            Object object = new Object();
+            int handle = table.getOrAddHandle(object);
+            assertNotEquals(0, handle);
+            assertTrue("Live handle reassigned: " + handle, liveHandles.add(handle));
+            live.put(object, handle);
+        }
+
+        assertEquals(live.size(), table.size());
+        for (Map.Entry<Object, Integer> entry : live.entrySet()) {
+            assertSame(entry.getKey(), table.getObject(entry.getValue()));
+            assertEquals((int) entry.getValue(), table.getHandle(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void lookupsSurviveBackwardShiftDeletion() {
+        // Random adds and releases, checked against a reference map. Each segment starts small
+        // and is kept at most half full, so many entries share probe chains, and every release
+        // in the middle of a chain shifts later entries backward.
+        HandleTable table = new HandleTable();
+        Map<Object, Integer> expected = new IdentityHashMap<Object, Integer>();
+        Set<Integer> liveHandles = new HashSet<Integer>();
+        List<Object> objects = new ArrayList<Object>();
+        Random random = new Random(42);
+
+        for (int step = 0; step < 200000; step++) {
+            if (objects.isEmpty() || random.nextInt(3) != 0) {
+                Object object = new Object();
+                int handle = table.getOrAddHandle(object);
+                assertTrue("Live handle reassigned: " + handle, liveHandles.add(handle));
+                expected.put(object, handle);
+                objects.add(object);
+            } else {
+                int index = random.nextInt(objects.size());
+                Object object = objects.get(index);
+                objects.set(index, objects.get(objects.size() - 1));
+                objects.remove(objects.size() - 1);
+                int handle = expected.remove(object);
+                liveHandles.remove(handle);
+                assertSame(object, table.release(handle));
+            }
+
+            if (step % 10000 == 0 || step < 1000) {
+                assertTableMatches(table, expected);
+            }
+        }
+
+        // Release everything in random order, checking the rest after each chunk.
+        while (!objects.isEmpty()) {
+            Object object = objects.remove(random.nextInt(objects.size()));
+            int handle = expected.remove(object);
+            assertSame(object, table.release(handle));
+            assertNull(table.getObject(handle));
+            if (objects.size() % 5000 == 0) {
+                assertTableMatches(table, expected);
+            }
+        }
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void concurrentRegisterLookupAndRelease() throws Throwable {
+        final HandleTable table = new HandleTable();
+        final Object[] shared = new Object[256];
+        for (int i = 0; i < shared.length; i++) {
+            shared[i] = new Object();
+        }
+        final int[][] sharedHandles = new int[THREAD_COUNT][shared.length];
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+
+        Thread[] threads = new Thread[THREAD_COUNT];
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            final int threadIndex = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        exercise(table, shared, sharedHandles[threadIndex], threadIndex);
+                    } catch (Throwable ex) {
+                        failure.compareAndSet(null, ex);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+
+        // Every thread must have seen the same handle for each shared object.
+        for (int i = 0; i < shared.length; i++) {
+            int handle = sharedHandles[0][i];
+            for (int t = 1; t < THREAD_COUNT; t++) {
+                assertEquals(handle, sharedHandles[t][i]);
+            }
+            assertSame(shared[i], table.getObject(handle));
+        }
+        assertEquals(shared.length, table.size());
+    }
+
+    private static void exercise(
+            HandleTable table, Object[] shared, int[] sharedHandles, int threadIndex) {
+        Random random = new Random(threadIndex);
+        List<Object> owned = new ArrayList<Object>();
+        List<Integer> ownedHandles = new ArrayList<Integer>();
+
+        for (int i = 0; i < shared.length; i++) {
+            sharedHandles[i] = table.getOrAddHandle(shared[i]);
+        }
+
+        for (int step = 0; step < 100000; step++) {
+            int choice = random.nextInt(4);
+            if (choice < 2 || owned.isEmpty()) {
+                Object object = new Object();
+                int handle = table.getOrAddHandle(object);
+                owned.add(object);
+                ownedHandles.add(handle);
+            } else if (choice == 2) {
+                int index = random.nextInt(owned.size());
+                Object object = owned.remove(index);
+                int handle = ownedHandles.remove(index);
+                assertSame(object, table.release(handle));
+                assertNull(table.getObject(handle));
+            } else {
+                int index = random.nextInt(owned.size());
+                assertSame(owned.get(index), table.getObject(ownedHandles.get(index)));
+                assertEquals((int) ownedHandles.get(index), table.getHandle(owned.get(index)));
+            }
+
+            int sharedIndex = random.nextInt(shared.length);
+            assertEquals(sharedHandles[sharedIndex], table.getOrAddHandle(shared[sharedIndex]));
+            assertSame(shared[sharedIndex], table.getObject(sharedHandles[sharedIndex]));
+        }
+
+        for (int i = 0; i < owned.size(); i++) {
+            assertSame(owned.get(i), table.release(ownedHandles.get(i)));
+        }
+    }
+
+    private static void assertTableMatches(HandleTable table, Map<Object, Integer> expected) {
+        assertEquals(expected.size(), table.size());
+        for (Map.Entry<Object, Integer> entry : expected.entrySet()) {
+            assertSame(entry.getKey(), table.getObject(entry.getValue()));
+            assertEquals((int) entry.getValue(), table.getHandle(entry.getKey()));
+        }
+    }
+
+    private static AtomicInteger getCounter(HandleTable table) throws Exception {
+        Field field = HandleTable.class.getDeclaredField("counter");
+        field.setAccessible(true);
+        return (AtomicInteger) field.get(table);
+    }
+}
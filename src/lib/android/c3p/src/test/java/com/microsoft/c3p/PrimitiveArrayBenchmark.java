@@ -0,0 +1,91 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for details.
+
+package com.microsoft.c3p;
+
+import com.microsoft.c3p.js.JSValue;
+import com.microsoft.c3p.js.JavaScriptValue;
+
+import org.json.JSONArray;
+
+import java.lang.reflect.Array;
+
+/**
+ * Measures marshalling of a double[] to and from JSON, as the Cordova bridge sends and receives
+ * it, through the marshaller's primitive array path and through a per-item path like the one
+ * the marshaller used before, which boxed every item in its own JSValue.
+ *
+ * This is not run as part of the unit tests. Run it on a JVM with the test classes and an
+ * org.json implementation on the class path (the org.json classes in android.jar are stubs),
+ * for example:
+ *     java -cp build/intermediates/classes/debug:build/intermediates/classes/test/debug:json.jar
+ *         com.microsoft.c3p.PrimitiveArrayBenchmark
+ */
+public final class PrimitiveArrayBenchmark {
+    private static final int[] SIZES = { 1000, 100000, 1000000 };
+    private static final int ITEMS_PER_SIZE = 20000000;
+
+    public static void main(String[] args) throws Exception {
+        JavaScriptMarshaller marshaller = new JavaScriptMarshaller(null, new NamespaceMapper());
+        for (int size : SIZES) {
+            double[] samples = new double[size];
+            JSONArray json = new JSONArray();
+            for (int i = 0; i < size; i++) {
+                samples[i] = Math.sin(i) * 1000;
+                json.put(samples[i]);
+            }
+            JavaScriptValue jsSamples = JSValue.fromObject(json);
+
+            int repetitions = Math.max(5, ITEMS_PER_SIZE / size);
+            long[] bestNanos = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+            for (int rep = 0; rep < repetitions; rep++) {
+                long startTime = System.nanoTime();
+                JSValue.toObject(marshaller.marshalToJavaScript(samples));
+                bestNanos[0] = Math.min(bestNanos[0], System.nanoTime() - startTime);
+
+                startTime = System.nanoTime();
+                JSValue.toObject(marshalItemsToJavaScript(samples));
+                bestNanos[1] = Math.min(bestNanos[1], System.nanoTime() - startTime);
+
+                startTime = System.nanoTime();
+                marshaller.marshalFromJavaScript(jsSamples, double[].class);
+                bestNanos[2] = Math.min(bestNanos[2], System.nanoTime() - startTime);
+
+                startTime = System.nanoTime();
+                marshalItemsFromJavaScript(jsSamples, double.class);
+                bestNanos[3] = Math.min(bestNanos[3], System.nanoTime() - startTime);
+            }
+
+            System.out.println(String.format(
+                    "%7d items: to JSON %8.1f us (boxed %8.1f us), " +
+                    "from JSON %8.1f us (boxed %8.1f us)",
+                    size, bestNanos[0] / 1000.0, bestNanos[1] / 1000.0,
+                    bestNanos[2] / 1000.0, bestNanos[3] / 1000.0));
+        }
+    }
+
+    /**
+     * Converts an array the way the marshaller did before it had a primitive array path.
+     */
+    private static JavaScriptValue marshalItemsToJavaScript(Object array) {
+        JSValue jsArray = JSValue.createArrayValue();
+        int length = Array.getLength(array);
+        for (int i = 0; i < length; i++) {
+            jsArray.addArrayItem(JSValue.fromObject(Array.get(array, i)));
+        }
+        return jsArray;
+    }
+
+    /**
+     * Converts a JavaScript array to a Java array item by item, boxing each item as it is set.
+     */
+    private static Object marshalItemsFromJavaScript(
+            JavaScriptValue jsArray, Class<?> componentType) {
+        int length = jsArray.getArrayLength();
+        Object array = Array.newInstance(componentType, length);
+        for (int i = 0; i < length; i++) {
+            Array.set(array, i, jsArray.getArrayItem(i).getDouble());
+        }
+        return array;
+    }
+}
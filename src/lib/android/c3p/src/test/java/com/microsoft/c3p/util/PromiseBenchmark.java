@@ -0,0 +1,219 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for details.
+
+package com.microsoft.c3p.util;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Measures Promise resolve and get against the previous implementation, which guarded its
+ * state with synchronized blocks and allocated a ConditionVariable per promise.
+ *
+ * This is not run as part of the unit tests. Run it on a JVM with the test classes on the
+ * class path, for example:
+ *     java -cp build/intermediates/classes/debug:build/intermediates/classes/test/debug
+ *         com.microsoft.c3p.util.PromiseBenchmark
+ */
+public final class PromiseBenchmark {
+    private static final int PROMISE_COUNT = 1000000;
+    private static final int HANDOFF_COUNT = 100000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        long sum = 0;
+        long[] nanos = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+        long[] lockingNanos = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+        for (int round = 0; round < ROUNDS; round++) {
+            long startTime = System.nanoTime();
+            for (int i = 0; i < PROMISE_COUNT; i++) {
+                Promise<Integer> promise = new Promise<Integer>();
+                promise.resolve(i);
+                sum += promise.get();
+            }
+            nanos[0] = Math.min(nanos[0], System.nanoTime() - startTime);
+
+            startTime = System.nanoTime();
+            for (int i = 0; i < PROMISE_COUNT; i++) {
+                LockingPromise<Integer> promise = new LockingPromise<Integer>();
+                promise.resolve(i);
+                sum += promise.get();
+            }
+            lockingNanos[0] = Math.min(lockingNanos[0], System.nanoTime() - startTime);
+
+            startTime = System.nanoTime();
+            for (int i = 0; i < PROMISE_COUNT; i++) {
+                sum += new Promise<Integer>(i).get();
+            }
+            nanos[1] = Math.min(nanos[1], System.nanoTime() - startTime);
+
+            startTime = System.nanoTime();
+            for (int i = 0; i < PROMISE_COUNT; i++) {
+                sum += new LockingPromise<Integer>(i).get();
+            }
+            lockingNanos[1] = Math.min(lockingNanos[1], System.nanoTime() - startTime);
+
+            nanos[2] = Math.min(nanos[2], runHandoff(false));
+            lockingNanos[2] = Math.min(lockingNanos[2], runHandoff(true));
+        }
+
+        System.out.println(String.format(
+                "resolve then get, same thread: Promise %6.1f ns, previous %6.1f ns",
+                nanos[0] / (double) PROMISE_COUNT, lockingNanos[0] / (double) PROMISE_COUNT));
+        System.out.println(String.format(
+                "get already resolved:          Promise %6.1f ns, previous %6.1f ns",
+                nanos[1] / (double) PROMISE_COUNT, lockingNanos[1] / (double) PROMISE_COUNT));
+        System.out.println(String.format(
+                "round trip between threads:    Promise %6.1f us, previous %6.1f us",
+                nanos[2] / 1000.0 / HANDOFF_COUNT, lockingNanos[2] / 1000.0 / HANDOFF_COUNT));
+        System.out.println("(checksum " + sum + ")");
+    }
+
+    /**
+     * Times round trips between two threads, each resolving a promise that the other is
+     * waiting for in get(), so that every get() has to block until the promise is resolved.
+     */
+    private static long runHandoff(final boolean locking) throws Exception {
+        final Promise<?>[][] promises = new Promise<?>[2][HANDOFF_COUNT];
+        final LockingPromise<?>[][] lockingPromises = new LockingPromise<?>[2][HANDOFF_COUNT];
+        for (int i = 0; i < HANDOFF_COUNT; i++) {
+            for (int side = 0; side < 2; side++) {
+                if (locking) {
+                    lockingPromises[side][i] = new LockingPromise<Integer>();
+                } else {
+                    promises[side][i] = new Promise<Integer>();
+                }
+            }
+        }
+
+        Thread responder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < HANDOFF_COUNT; i++) {
+                        roundTrip(locking, promises, lockingPromises, 0, i);
+                    }
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        });
+
+        long startTime = System.nanoTime();
+        responder.start();
+        for (int i = 0; i < HANDOFF_COUNT; i++) {
+            roundTrip(locking, promises, lockingPromises, 1, i);
+        }
+        long nanos = System.nanoTime() - startTime;
+        responder.join();
+        return nanos;
+    }
+
+    /**
+     * Side 1 resolves its request and waits for the response; side 0 waits for the request
+     * and then resolves the response.
+     */
+    @SuppressWarnings("unchecked")
+    private static void roundTrip(boolean locking, Promise<?>[][] promises,
+            LockingPromise<?>[][] lockingPromises, int side, int i) throws Exception {
+        if (locking) {
+            if (side == 1) {
+                ((LockingPromise<Integer>) lockingPromises[0][i]).resolve(i);
+                lockingPromises[1][i].get();
+            } else {
+                lockingPromises[0][i].get();
+                ((LockingPromise<Integer>) lockingPromises[1][i]).resolve(i);
+            }
+        } else {
+            if (side == 1) {
+                ((Promise<Integer>) promises[0][i]).resolve(i);
+                promises[1][i].get();
+            } else {
+                promises[0][i].get();
+                ((Promise<Integer>) promises[1][i]).resolve(i);
+            }
+        }
+    }
+
+    /**
+     * The previous Promise implementation, with android.os.ConditionVariable replaced by an
+     * equivalent monitor-based condition so that it runs on a JVM.
+     */
+    private static final class LockingPromise<V> {
+        private boolean cancelled;
+        private boolean done;
+        private final Condition condition;
+        private V result;
+        private Exception exception;
+
+        LockingPromise() {
+            this.condition = new Condition(false);
+        }
+
+        LockingPromise(V result) {
+            this.result = result;
+            this.done = true;
+            this.condition = new Condition(true);
+        }
+
+        V get() throws InterruptedException, ExecutionException {
+            this.condition.block();
+
+            synchronized (this) {
+                if (this.cancelled) {
+                    throw new CancellationException();
+                } else if (this.exception != null) {
+                    throw new ExecutionException(exception);
+                } else {
+                    return this.result;
+                }
+            }
+        }
+
+        void resolve(V result) {
+            synchronized (this) {
+                if (this.done) {
+                    throw new IllegalStateException(
+                            "Cannot resolve a promise that is already done.");
+                }
+
+                this.result = result;
+                this.done = true;
+                this.condition.open();
+            }
+        }
+    }
+
+    /**
+     * The same logic as android.os.ConditionVariable.
+     */
+    private static final class Condition {
+        private volatile boolean condition;
+
+        Condition(boolean state) {
+            this.condition = state;
+        }
+
+        void open() {
+            synchronized (this) {
+                boolean old = this.condition;
+                this.condition = true;
+                if (!old) {
+                    this.notifyAll();
+                }
+            }
+        }
+
+        void block() {
+            synchronized (this) {
+                while (!this.condition) {
+                    try {
+                        this.wait();
+                    } catch (InterruptedException e) {
+                        // ConditionVariable ignores interruption.
+                    }
+                }
+            }
+        }
+    }
+}
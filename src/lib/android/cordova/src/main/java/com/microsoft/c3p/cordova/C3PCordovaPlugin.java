@@ -32,6 +32,7 @@ import org.xmlpull.v1.XmlPullParserException;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A Cordova plugin that enables other Cordova plugins to easily bridge between
@@ -39,6 +40,10 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public final class C3PCordovaPlugin extends CordovaPlugin {
     private static final String TAG = "C3PCordovaPlugin";
+    private static final String EXECUTOR_THREADS_PREFERENCE = "C3PExecutorThreads";
+    private static final String EXECUTOR_QUEUE_CAPACITY_PREFERENCE = "C3PExecutorQueueCapacity";
+    private static final String PROPERTY_WRITE_COALESCING_PREFERENCE =
+            "C3PPropertyWriteCoalescingMillis";
 
     private JavaScriptBridge bridge;
     private ConcurrentHashMap<String, Consumer<JavaScriptValue>> eventListenerMap;
@@ -62,7 +67,29 @@ public final class C3PCordovaPlugin extends CordovaPlugin {
 
     @Override
     protected void pluginInitialize() {
-        this.bridge = new JavaScriptBridge(new C3PCordovaPlugin.ApplicationContext());
+        // By default the bridge uses an unbounded thread pool. The C3PExecutorThreads and
+        // C3PExecutorQueueCapacity preferences in config.xml can be used to bound it.
+        int executorThreadCount = this.preferences.getInteger(EXECUTOR_THREADS_PREFERENCE, 0);
+        if (executorThreadCount > 0) {
+            int executorQueueCapacity = this.preferences.getInteger(
+                    EXECUTOR_QUEUE_CAPACITY_PREFERENCE, Integer.MAX_VALUE);
+            this.bridge = new JavaScriptBridge(
+                    new C3PCordovaPlugin.ApplicationContext(),
+                    JavaScriptBridge.createBoundedExecutor(
+                            executorThreadCount, executorQueueCapacity));
+        } else {
+            this.bridge = new JavaScriptBridge(new C3PCordovaPlugin.ApplicationContext());
+        }
+
+        // Coalescing of property writes is off unless the C3PPropertyWriteCoalescingMillis
+        // preference sets a window.
+        int propertyWriteCoalescingMillis =
+                this.preferences.getInteger(PROPERTY_WRITE_COALESCING_PREFERENCE, 0);
+        if (propertyWriteCoalescingMillis > 0) {
+            this.bridge.setPropertyWriteCoalescingWindow(
+                    propertyWriteCoalescingMillis, TimeUnit.MILLISECONDS);
+        }
+
         this.loadNamespaceMappingsFromConfig(this.cordova.getActivity());
         this.eventListenerMap = new ConcurrentHashMap<String, Consumer<JavaScriptValue>>();
     }
@@ -120,29 +147,47 @@ public final class C3PCordovaPlugin extends CordovaPlugin {
                 JavaScriptValue instance = this.bridge.createInstance(type, JSValue.fromObject(arguments));
                 callbackContext.success((JSONObject) JSValue.toObject(instance));
             } else if (JavaScriptBridge.CallType.RELEASE_INSTANCE.equals(action)) {
-                JSONObject instance = args.getJSONObject(0);
+                Object instance = args.get(0);
                 this.bridge.releaseInstance(JSValue.fromObject(instance));
                 callbackContext.success();
             } else if (JavaScriptBridge.CallType.GET_PROPERTY.equals(action)) {
-                JSONObject instance = args.getJSONObject(0);
+                Object instance = args.get(0);
                 String property = args.getString(1);
-                JavaScriptValue value = this.bridge.getProperty(JSValue.fromObject(instance), property);
+                JSONArray fieldMask = args.optJSONArray(2);
+                JavaScriptValue value = this.bridge.getProperty(
+                        JSValue.fromObject(instance), property, JSValue.fromObject(fieldMask));
                 C3PCordovaPlugin.returnResult(value, callbackContext);
             } else if (JavaScriptBridge.CallType.SET_PROPERTY.equals(action)) {
-                JSONObject instance = args.getJSONObject(0);
+                Object instance = args.get(0);
                 String property = args.getString(1);
                 Object value = args.opt(2);
                 this.bridge.setProperty(JSValue.fromObject(instance), property, JSValue.fromObject(value));
                 callbackContext.success();
+            } else if (JavaScriptBridge.CallType.GET_PROPERTIES.equals(action)) {
+                Object instance = args.get(0);
+                JSONArray properties = args.getJSONArray(1);
+                JavaScriptValue values = this.bridge.getProperties(
+                        JSValue.fromObject(instance), JSValue.fromObject(properties));
+                C3PCordovaPlugin.returnResult(values, callbackContext);
+            } else if (JavaScriptBridge.CallType.SET_PROPERTIES.equals(action)) {
+                Object instance = args.get(0);
+                JSONObject values = args.getJSONObject(1);
+                this.bridge.setProperties(
+                        JSValue.fromObject(instance), JSValue.fromObject(values));
+                callbackContext.success();
             } else if (JavaScriptBridge.CallType.INVOKE_METHOD.equals(action)) {
-                JSONObject instance = args.getJSONObject(0);
+                Object instance = args.get(0);
                 String method = args.getString(1);
                 JSONArray arguments = args.getJSONArray(2);
+                JSONArray fieldMask = args.optJSONArray(3);
                 ChainablePromise<JavaScriptValue> returnValue = this.bridge.invokeMethod(
-                        JSValue.fromObject(instance), method, JSValue.fromObject(arguments));
+                        JSValue.fromObject(instance),
+                        method,
+                        JSValue.fromObject(arguments),
+                        JSValue.fromObject(fieldMask));
                 C3PCordovaPlugin.returnFutureResult(returnValue, callbackContext, false);
             } else if (JavaScriptBridge.CallType.ADD_EVENT_LISTENER.equals(action)) {
-                JSONObject instance = args.getJSONObject(0);
+                Object instance = args.get(0);
                 String event = args.getString(1);
                 Consumer<JavaScriptValue> eventListener = new Consumer<JavaScriptValue>() {
                     @Override
@@ -155,7 +200,7 @@ public final class C3PCordovaPlugin extends CordovaPlugin {
                 C3PCordovaPlugin.returnResult(
                         JSValue.fromString(callbackContext.getCallbackId()), callbackContext, true);
             } else if (JavaScriptBridge.CallType.REMOVE_EVENT_LISTENER.equals(action)) {
-                JSONObject instance = args.getJSONObject(0);
+                Object instance = args.get(0);
                 String event = args.getString(1);
                 String registrationToken = args.getString(2);
                 Consumer<JavaScriptValue> eventListener = this.eventListenerMap.get(registrationToken);
@@ -166,6 +211,49 @@ public final class C3PCordovaPlugin extends CordovaPlugin {
                     Log.w(TAG, "Event registration not found for callbackId: " + registrationToken);
                 }
                 callbackContext.success();
+            } else if (JavaScriptBridge.CallType.RESOLVE_MEMBER.equals(action)) {
+                String callType = args.getString(0);
+                String type = args.getString(1);
+                String member = args.isNull(2) ? null : args.getString(2);
+                int argumentsCount = args.getInt(3);
+                int memberId = this.bridge.resolveMember(callType, type, member, argumentsCount);
+                callbackContext.success(memberId);
+            } else if (JavaScriptBridge.CallType.INVOKE_MEMBER.equals(action)) {
+                int memberId = args.getInt(0);
+                Object instance = args.isNull(1) ? null : args.get(1);
+                JSONArray arguments = args.getJSONArray(2);
+                ChainablePromise<JavaScriptValue> returnValue = this.bridge.invokeMember(
+                        memberId,
+                        instance != null ? JSValue.fromObject(instance) : null,
+                        JSValue.fromObject(arguments));
+                C3PCordovaPlugin.returnFutureResult(returnValue, callbackContext, false);
+            } else if (JavaScriptBridge.CallType.BATCH.equals(action)) {
+                JSONArray calls = args.getJSONArray(0);
+                ChainablePromise<JavaScriptValue> returnValue =
+                        this.bridge.invokeBatch(JSValue.fromObject(calls));
+                C3PCordovaPlugin.returnFutureResult(returnValue, callbackContext, false);
+            } else if (JavaScriptBridge.CallType.INVOKE_ONE_WAY.equals(action)) {
+                // No result is sent for a one-way call; failures go to the one-way error listener.
+                JSONArray call = args.getJSONArray(0);
+                this.bridge.invokeOneWay(JSValue.fromObject(call));
+            } else if (JavaScriptBridge.CallType.ADD_ONE_WAY_ERROR_LISTENER.equals(action)) {
+                this.bridge.setOneWayErrorListener(new Consumer<JavaScriptValue>() {
+                    @Override
+                    public void accept(JavaScriptValue error) {
+                        C3PCordovaPlugin.returnResult(error, callbackContext, true);
+                    }
+                });
+                PluginResult pluginResult = new PluginResult(PluginResult.Status.NO_RESULT);
+                pluginResult.setKeepCallback(true);
+                callbackContext.sendPluginResult(pluginResult);
+            } else if (JavaScriptBridge.CallType.REGISTER_TYPES.equals(action)) {
+                int firstTypeId = args.getInt(0);
+                JSONArray typeNames = args.getJSONArray(1);
+                this.bridge.registerTypes(firstTypeId, JSValue.fromObject(typeNames));
+                callbackContext.success();
+            } else if (JavaScriptBridge.CallType.ENABLE_COMPACT_SHAPES.equals(action)) {
+                this.bridge.enableCompactShapes();
+                callbackContext.success();
             } else {
                 throw new IllegalArgumentException("Invalid action: " + action);
             }
@@ -273,6 +361,13 @@ public final class C3PCordovaPlugin extends CordovaPlugin {
                                 "marshal-by-value".equals(classAttributes)) {
                             this.bridge.registerMarshalByValueClass(className);
                         }
+                    } else if (paramName != null && paramName.startsWith("plugin-prefetch:")) {
+                        String className = paramName.substring("plugin-prefetch:".length());
+                        String properties = xml.getAttributeValue(null, "value");
+                        if (!TextUtils.isEmpty(className) && !TextUtils.isEmpty(properties)) {
+                            this.bridge.registerPrefetchProperties(
+                                    className, TextUtils.split(properties, ","));
+                        }
                     }
                 }
             }
@@ -307,4 +402,15 @@ public final class C3PCordovaPlugin extends CordovaPlugin {
     public void onActivityResult(int requestCode, int resultCode, Intent data) {
         this.bridge.onActivityResult(requestCode, resultCode, data);
     }
+
+    @Override
+    public void onReset() {
+        // The page is navigating or reloading; the new page registers its own types.
+        this.bridge.reset();
+    }
+
+    @Override
+    public void onDestroy() {
+        this.bridge.shutdown();
+    }
 }
@@ -0,0 +1,314 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for details.
+
+package com.microsoft.c3p.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Annotation processor that generates a MemberDispatcher for each class marked with
+ * GenerateDispatcher. The generated dispatcher has a switch over member indexes that calls
+ * each public constructor and method of the class directly, unboxing primitive arguments,
+ * so that the JavaScript bridge does not need to invoke the class's members via reflection.
+ * Errors are reported the same way as by reflection: an invalid target or invalid arguments
+ * cause a NullPointerException or IllegalArgumentException, and only exceptions thrown by the
+ * member itself are wrapped in an InvocationTargetException.
+ *
+ * Names of the C3P runtime types are referenced as strings, so that this processor does not
+ * depend on the (Android) C3P library.
+ */
+@SupportedAnnotationTypes(DispatcherProcessor.ANNOTATION_NAME)
+public final class DispatcherProcessor extends AbstractProcessor {
+    static final String ANNOTATION_NAME = "com.microsoft.c3p.GenerateDispatcher";
+    static final String DISPATCHER_INTERFACE_NAME = "com.microsoft.c3p.MemberDispatcher";
+    static final String DISPATCHER_CLASS_NAME_SUFFIX = "_MemberDispatcher";
+    static final String CONSTRUCTOR_NAME = "<init>";
+    static final String INVOCATION_TARGET_EXCEPTION_NAME =
+            "java.lang.reflect.InvocationTargetException";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.CLASS) {
+                    this.error(element, "@GenerateDispatcher may only be applied to classes.");
+                    continue;
+                } else if (element.getModifiers().contains(Modifier.PRIVATE)) {
+                    this.error(element,
+                            "@GenerateDispatcher may not be applied to private classes.");
+                    continue;
+                }
+
+                TypeElement typeElement = (TypeElement) element;
+                try {
+                    this.generateDispatcher(typeElement);
+                } catch (IOException ioex) {
+                    this.error(element,
+                            "Failed to write generated dispatcher: " + ioex.getMessage());
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private void generateDispatcher(TypeElement typeElement) throws IOException {
+        PackageElement packageElement =
+                this.processingEnv.getElementUtils().getPackageOf(typeElement);
+        String packageName = packageElement.isUnnamed() ?
+                "" : packageElement.getQualifiedName().toString();
+        String typeName = this.getErasedTypeName(typeElement.asType());
+        String flattenedTypeName = (packageName.length() > 0 ?
+                typeName.substring(packageName.length() + 1) : typeName).replace('.', '_');
+        String dispatcherSimpleName = flattenedTypeName + DISPATCHER_CLASS_NAME_SUFFIX;
+        String dispatcherName = packageName.length() > 0 ?
+                packageName + "." + dispatcherSimpleName : dispatcherSimpleName;
+
+        List<ExecutableElement> members = this.getDispatchableMembers(typeElement);
+
+        JavaFileObject sourceFile =
+                this.processingEnv.getFiler().createSourceFile(dispatcherName, typeElement);
+        PrintWriter writer = new PrintWriter(sourceFile.openWriter());
+        try {
+            writer.println("// Generated by the C3P annotation processor. Do not edit.");
+            writer.println();
+            if (packageName.length() > 0) {
+                writer.println("package " + packageName + ";");
+                writer.println();
+            }
+
+            writer.println("public final class " + dispatcherSimpleName + " implements " +
+                    DISPATCHER_INTERFACE_NAME + " {");
+            writer.println("    private static final String[] SIGNATURES = new String[] {");
+            for (ExecutableElement member : members) {
+                writer.println("        \"" + this.getSignature(member) + "\",");
+            }
+            writer.println("    };");
+            writer.println();
+            writer.println("    @Override");
+            writer.println("    public String[] getSignatures() {");
+            writer.println("        return SIGNATURES;");
+            writer.println("    }");
+            writer.println();
+            writer.println("    @Override");
+            writer.println("    @SuppressWarnings({\"unchecked\", \"rawtypes\"})");
+            writer.println("    public Object invoke(" +
+                    "int index, Object target, Object[] arguments)");
+            writer.println("            throws " + INVOCATION_TARGET_EXCEPTION_NAME + " {");
+            writer.println("        switch (index) {");
+            for (int i = 0; i < members.size(); i++) {
+                writer.println("            case " + i + ": {");
+                this.writeInvocation(writer, typeName, members.get(i));
+                writer.println("            }");
+            }
+            writer.println("            default:");
+            writer.println("                throw new IllegalArgumentException(" +
+                    "\"Invalid member index: \" + index);");
+            writer.println("        }");
+            writer.println("    }");
+            writer.println("}");
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Gets the public constructors and methods of a class that can be invoked by a dispatcher.
+     * This matches the members that the JavaScript bridge would otherwise resolve via reflection,
+     * except for members of java.lang.Object, which are left to reflection.
+     */
+    private List<ExecutableElement> getDispatchableMembers(TypeElement typeElement) {
+        List<ExecutableElement> members = new ArrayList<ExecutableElement>();
+
+        boolean canConstruct = !typeElement.getModifiers().contains(Modifier.ABSTRACT) &&
+                (typeElement.getNestingKind() == NestingKind.TOP_LEVEL ||
+                        typeElement.getModifiers().contains(Modifier.STATIC));
+        if (canConstruct) {
+            for (ExecutableElement constructor :
+                    ElementFilter.constructorsIn(typeElement.getEnclosedElements())) {
+                if (this.isDispatchable(constructor)) {
+                    members.add(constructor);
+                }
+            }
+        }
+
+        List<? extends Element> allMembers =
+                this.processingEnv.getElementUtils().getAllMembers(typeElement);
+        for (ExecutableElement method : ElementFilter.methodsIn(allMembers)) {
+            TypeElement declaringType = (TypeElement) method.getEnclosingElement();
+            if (!"java.lang.Object".equals(declaringType.getQualifiedName().toString()) &&
+                    this.isDispatchable(method)) {
+                members.add(method);
+            }
+        }
+
+        return members;
+    }
+
+    private boolean isDispatchable(ExecutableElement member) {
+        return member.getModifiers().contains(Modifier.PUBLIC);
+    }
+
+    /**
+     * Gets a member signature in the same form the bridge computes from the reflected member:
+     * the member name followed by canonical names of the erased parameter types.
+     */
+    private String getSignature(ExecutableElement member) {
+        StringBuilder signature = new StringBuilder();
+        signature.append(member.getKind() == ElementKind.CONSTRUCTOR ?
+                CONSTRUCTOR_NAME : member.getSimpleName().toString());
+        signature.append('(');
+        List<? extends TypeMirror> parameterTypes = this.getParameterTypes(member);
+        for (int i = 0; i < parameterTypes.size(); i++) {
+            if (i > 0) {
+                signature.append(',');
+            }
+            signature.append(this.getErasedTypeName(parameterTypes.get(i)));
+        }
+        signature.append(')');
+        return signature.toString();
+    }
+
+    /**
+     * Writes the body of a case that invokes a member. The target and the arguments are
+     * checked and converted before the call, so that only exceptions thrown by the member
+     * itself are wrapped in an InvocationTargetException.
+     */
+    private void writeInvocation(PrintWriter writer, String typeName, ExecutableElement member) {
+        boolean isInstanceMethod = member.getKind() != ElementKind.CONSTRUCTOR &&
+                !member.getModifiers().contains(Modifier.STATIC);
+        List<? extends TypeMirror> parameterTypes = this.getParameterTypes(member);
+
+        if (isInstanceMethod) {
+            writer.println("                if (!(target instanceof " + typeName + ")) {");
+            writer.println("                    if (target == null) {");
+            writer.println("                        throw new NullPointerException();");
+            writer.println("                    }");
+            writer.println("                    throw new IllegalArgumentException(" +
+                    "\"object is not an instance of declaring class\");");
+            writer.println("                }");
+        }
+
+        writer.println("                if (arguments.length != " +
+                parameterTypes.size() + ") {");
+        writer.println("                    throw new IllegalArgumentException(" +
+                "\"wrong number of arguments\");");
+        writer.println("                }");
+
+        StringBuilder arguments = new StringBuilder();
+        if (parameterTypes.size() > 0) {
+            for (int i = 0; i < parameterTypes.size(); i++) {
+                writer.println("                " +
+                        this.getErasedTypeName(parameterTypes.get(i)) + " arg" + i + ";");
+                if (i > 0) {
+                    arguments.append(", ");
+                }
+                arguments.append("arg" + i);
+            }
+            writer.println("                try {");
+            for (int i = 0; i < parameterTypes.size(); i++) {
+                writer.println("                    arg" + i + " = " +
+                        this.getArgumentExpression(parameterTypes.get(i), i) + ";");
+            }
+            writer.println("                } catch (" +
+                    "ClassCastException | NullPointerException ex) {");
+            writer.println("                    throw new IllegalArgumentException(" +
+                    "\"argument type mismatch\", ex);");
+            writer.println("                }");
+        }
+
+        String invocation;
+        if (member.getKind() == ElementKind.CONSTRUCTOR) {
+            invocation = "new " + typeName + "(" + arguments + ")";
+        } else if (member.getModifiers().contains(Modifier.STATIC)) {
+            invocation = typeName + "." + member.getSimpleName() + "(" + arguments + ")";
+        } else {
+            invocation = "((" + typeName + ") target)." + member.getSimpleName() +
+                    "(" + arguments + ")";
+        }
+
+        writer.println("                try {");
+        if (member.getKind() != ElementKind.CONSTRUCTOR &&
+                member.getReturnType().getKind() == TypeKind.VOID) {
+            writer.println("                    " + invocation + ";");
+            writer.println("                    return null;");
+        } else {
+            writer.println("                    return " + invocation + ";");
+        }
+        writer.println("                } catch (Throwable t) {");
+        writer.println("                    throw new " +
+                INVOCATION_TARGET_EXCEPTION_NAME + "(t);");
+        writer.println("                }");
+    }
+
+    /**
+     * Gets an expression that casts (and unboxes, for primitive types) an argument.
+     * The bridge converts arguments to the boxed form of primitive parameter types, though
+     * numbers are unboxed via Number so that any widening conversions still work. Arguments for
+     * Object parameters are not cast.
+     */
+    private String getArgumentExpression(TypeMirror parameterType, int index) {
+        String argument = "arguments[" + index + "]";
+        switch (parameterType.getKind()) {
+            case BOOLEAN:
+                return "((java.lang.Boolean) " + argument + ").booleanValue()";
+            case CHAR:
+                return "((java.lang.Character) " + argument + ").charValue()";
+            case BYTE:
+            case SHORT:
+            case INT:
+            case LONG:
+            case FLOAT:
+            case DOUBLE:
+                return "((java.lang.Number) " + argument + ")." +
+                        parameterType.getKind().name().toLowerCase(Locale.ROOT) + "Value()";
+            default:
+                String parameterTypeName = this.getErasedTypeName(parameterType);
+                return "java.lang.Object".equals(parameterTypeName) ?
+                        argument : "(" + parameterTypeName + ") " + argument;
+        }
+    }
+
+    private List<? extends TypeMirror> getParameterTypes(ExecutableElement member) {
+        List<TypeMirror> parameterTypes = new ArrayList<TypeMirror>();
+        for (Element parameter : member.getParameters()) {
+            parameterTypes.add(parameter.asType());
+        }
+        return parameterTypes;
+    }
+
+    private String getErasedTypeName(TypeMirror type) {
+        return this.processingEnv.getTypeUtils().erasure(type).toString();
+    }
+
+    private void error(Element element, String message) {
+        this.processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
@@ -0,0 +1,95 @@
+// Copyright (c) Microsoft Corporation. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for details.
+
+package com.microsoft.c3p.processor.sample;
+
+import com.microsoft.c3p.GenerateDispatcher;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exercises the kinds of members that the dispatcher processor must handle: constructors,
+ * static and instance methods, primitive, Object, array and generic parameters, void and
+ * primitive return types, and declared checked exceptions.
+ */
+@GenerateDispatcher
+public class SampleWidget {
+    private String name;
+    private int count;
+    private Object tag;
+
+    public SampleWidget() {
+        this("", 0);
+    }
+
+    public SampleWidget(String name, int count) {
+        this.name = name;
+        this.count = count;
+    }
+
+    public static SampleWidget create(String name) {
+        return new SampleWidget(name, 0);
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public int getCount() {
+        return this.count;
+    }
+
+    public void add(int amount, boolean notify, char separator, double scale, long limit) {
+        this.count += amount;
+    }
+
+    public Object getTag() {
+        return this.tag;
+    }
+
+    public void setTag(Object tag) {
+        this.tag = tag;
+    }
+
+    public int sum(int[] values) {
+        int sum = 0;
+        for (int value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    public <T> T first(List<T> items) {
+        return items.isEmpty() ? null : items.get(0);
+    }
+
+    public Map<String, List<String>> group(Map<String, List<String>> groups) {
+        return groups;
+    }
+
+    public void save() throws IOException {
+        throw new IOException("Not supported.");
+    }
+
+    /**
+     * Nested static classes get a dispatcher with a flattened name.
+     */
+    @GenerateDispatcher
+    public static class Options {
+        public boolean enabled;
+
+        public boolean isEnabled() {
+            return this.enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+    }
+}
@@ -22,6 +22,7 @@ import com.facebook.react.modules.core.RCTNativeAppEventEmitter;
 
 import com.microsoft.c3p.JavaScriptApplicationContext;
 import com.microsoft.c3p.JavaScriptBridge;
+import com.microsoft.c3p.js.JSPrimitiveArray;
 import com.microsoft.c3p.js.JSValue;
 import com.microsoft.c3p.js.JavaScriptValue;
 import com.microsoft.c3p.util.ChainablePromise;
@@ -31,6 +32,8 @@ import com.microsoft.c3p.util.Function;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -40,6 +43,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 public final class C3PReactModule extends ReactContextBaseJavaModule
         implements LifecycleEventListener, ActivityEventListener {
     private static final String TAG = "C3PReactModule";
+    private static final String ONE_WAY_ERROR_EVENT = "C3P.oneWayError";
 
     private JavaScriptBridge bridge;
     private ConcurrentHashMap<String, Consumer<JavaScriptValue>> eventListenerMap;
@@ -47,10 +51,47 @@ public final class C3PReactModule extends ReactContextBaseJavaModule
     private RCTNativeAppEventEmitter eventEmitter;
 
     public C3PReactModule(ReactApplicationContext reactContext) {
+        this(reactContext, null);
+    }
+
+    /**
+     * Creates the module with an executor for the bridge's async work, or null to use the
+     * bridge's default unbounded thread pool.
+     */
+    public C3PReactModule(ReactApplicationContext reactContext, ExecutorService executor) {
+        this(reactContext, executor, 0);
+    }
+
+    /**
+     * Creates the module with an executor for the bridge's async work (or null to use the
+     * bridge's default unbounded thread pool), and a window within which writes to the same
+     * property of the same instance are coalesced (or 0 to apply every write immediately).
+     */
+    public C3PReactModule(
+            ReactApplicationContext reactContext,
+            ExecutorService executor,
+            long propertyWriteCoalescingMillis) {
         super(reactContext);
-        this.bridge = new JavaScriptBridge(new C3PReactModule.ApplicationContext());
+        this.bridge = (executor != null ?
+                new JavaScriptBridge(new C3PReactModule.ApplicationContext(), executor) :
+                new JavaScriptBridge(new C3PReactModule.ApplicationContext()));
         this.eventListenerMap = new ConcurrentHashMap<String, Consumer<JavaScriptValue>>();
         this.nextEventRegistrationToken = new AtomicInteger(1);
+
+        if (propertyWriteCoalescingMillis > 0) {
+            this.bridge.setPropertyWriteCoalescingWindow(
+                    propertyWriteCoalescingMillis, TimeUnit.MILLISECONDS);
+        }
+
+        final C3PReactModule self = this;
+        this.bridge.setOneWayErrorListener(new Consumer<JavaScriptValue>() {
+            @Override
+            public void accept(JavaScriptValue error) {
+                self.getEventEmitter().emit(
+                        ONE_WAY_ERROR_EVENT, C3PReactModule.convertObjectResult(error));
+            }
+        });
+
         reactContext.addLifecycleEventListener(this);
         reactContext.addActivityEventListener(this);
     }
@@ -87,6 +128,30 @@ public final class C3PReactModule extends ReactContextBaseJavaModule
         this.bridge.registerMarshalByValueClass(className);
     }
 
+    @ReactMethod
+    public void registerPrefetchProperties(String className, ReadableArray properties) {
+        String[] propertyNames = new String[properties.size()];
+        for (int i = 0; i < propertyNames.length; i++) {
+            propertyNames[i] = properties.getString(i);
+        }
+        this.bridge.registerPrefetchProperties(className, propertyNames);
+    }
+
+    @ReactMethod
+    public void registerTypes(int firstTypeId, ReadableArray typeNames, Promise promise) {
+        this.bridge.registerTypes(firstTypeId, new ReadableArrayAdapter(typeNames));
+        promise.resolve(null);
+    }
+
+    /**
+     * Called by JavaScript marshallers that can decode the compact form of marshal-by-value
+     * objects within arrays and lists.
+     */
+    @ReactMethod
+    public void enableCompactShapes() {
+        this.bridge.enableCompactShapes();
+    }
+
     @ReactMethod
     public void getStaticProperty(
             String type,
@@ -215,6 +280,22 @@ public final class C3PReactModule extends ReactContextBaseJavaModule
         }
     }
 
+    @ReactMethod
+    public void getPropertyWithFieldMask(
+            ReadableMap instance,
+            String property,
+            ReadableArray fieldMask,
+            Promise promise) {
+        try {
+            JavaScriptValue instanceAdapter = new ReadableMapAdapter(instance);
+            JavaScriptValue value = bridge.getProperty(
+                    instanceAdapter, property, new ReadableArrayAdapter(fieldMask));
+            C3PReactModule.resolvePromise(promise, value);
+        } catch (InvocationTargetException e) {
+            promise.reject(e.getTargetException());
+        }
+    }
+
     @ReactMethod
     public void setProperty(
             ReadableMap instance,
@@ -235,6 +316,35 @@ public final class C3PReactModule extends ReactContextBaseJavaModule
         }
     }
 
+    @ReactMethod
+    public void getProperties(
+            ReadableMap instance,
+            ReadableArray properties,
+            Promise promise) {
+        try {
+            JavaScriptValue instanceAdapter = new ReadableMapAdapter(instance);
+            JavaScriptValue values = bridge.getProperties(
+                    instanceAdapter, new ReadableArrayAdapter(properties));
+            C3PReactModule.resolvePromise(promise, values);
+        } catch (InvocationTargetException e) {
+            promise.reject(e.getTargetException());
+        }
+    }
+
+    @ReactMethod
+    public void setProperties(
+            ReadableMap instance,
+            ReadableMap values,
+            Promise promise) {
+        try {
+            JavaScriptValue instanceAdapter = new ReadableMapAdapter(instance);
+            bridge.setProperties(instanceAdapter, new ReadableMapAdapter(values));
+            promise.resolve(null);
+        } catch (InvocationTargetException e) {
+            promise.reject(e.getTargetException());
+        }
+    }
+
     @ReactMethod
     public void invokeMethod(
             ReadableMap instance,
@@ -252,6 +362,24 @@ public final class C3PReactModule extends ReactContextBaseJavaModule
         }
     }
 
+    @ReactMethod
+    public void invokeMethodWithFieldMask(
+            ReadableMap instance,
+            String method,
+            ReadableArray arguments,
+            ReadableArray fieldMask,
+            Promise promise) {
+        try {
+            JavaScriptValue instanceAdapter = new ReadableMapAdapter(instance);
+            JavaScriptValue argumentsAdapter = new ReadableArrayAdapter(arguments);
+            ChainablePromise<JavaScriptValue> promisedResult = bridge.invokeMethod(
+                    instanceAdapter, method, argumentsAdapter, new ReadableArrayAdapter(fieldMask));
+            C3PReactModule.resolvePromise(promise, promisedResult);
+        } catch (InvocationTargetException e) {
+            promise.reject(e.getTargetException());
+        }
+    }
+
     @ReactMethod
     public void addEventListener(
             ReadableMap instance,
@@ -298,6 +426,53 @@ public final class C3PReactModule extends ReactContextBaseJavaModule
         }
     }
 
+    @ReactMethod
+    public void resolveMember(
+            String callType,
+            String type,
+            String member,
+            int argumentsCount,
+            Promise promise) {
+        int memberId = bridge.resolveMember(callType, type, member, argumentsCount);
+        promise.resolve(memberId);
+    }
+
+    @ReactMethod
+    public void invokeMember(
+            int memberId,
+            ReadableMap instance,
+            ReadableArray arguments,
+            Promise promise) {
+        try {
+            JavaScriptValue instanceAdapter =
+                    (instance != null ? new ReadableMapAdapter(instance) : null);
+            JavaScriptValue argumentsAdapter = new ReadableArrayAdapter(arguments);
+            ChainablePromise<JavaScriptValue> promisedResult =
+                    bridge.invokeMember(memberId, instanceAdapter, argumentsAdapter);
+            C3PReactModule.resolvePromise(promise, promisedResult);
+        } catch (InvocationTargetException e) {
+            promise.reject(e.getTargetException());
+        }
+    }
+
+    @ReactMethod
+    public void batch(
+            ReadableArray calls,
+            Promise promise) {
+        JavaScriptValue callsAdapter = new ReadableArrayAdapter(calls);
+        ChainablePromise<JavaScriptValue> promisedResult = bridge.invokeBatch(callsAdapter);
+        C3PReactModule.resolvePromise(promise, promisedResult);
+    }
+
+    /**
+     * Sets a property or invokes a method without a response. Failures are emitted as
+     * C3P.oneWayError events.
+     */
+    @ReactMethod
+    public void invokeOneWay(ReadableArray call) {
+        this.bridge.invokeOneWay(new ReadableArrayAdapter(call));
+    }
+
     private static void resolvePromise(Promise promise, JavaScriptValue result) {
         switch (result.getType()) {
             case Undefined:
@@ -362,6 +537,22 @@ public final class C3PReactModule extends ReactContextBaseJavaModule
     private static WritableNativeArray convertArrayResult(JavaScriptValue arrayResult) {
         WritableNativeArray convertedResult = new WritableNativeArray();
 
+        if (arrayResult instanceof JSPrimitiveArray) {
+            // Push the items directly, without converting each one to a JavaScriptValue.
+            JSPrimitiveArray primitiveArray = (JSPrimitiveArray) arrayResult;
+            int length = primitiveArray.getArrayLength();
+            if (primitiveArray.isBooleanArray()) {
+                for (int i = 0; i < length; i++) {
+                    convertedResult.pushBoolean(primitiveArray.getBooleanItem(i));
+                }
+            } else {
+                for (int i = 0; i < length; i++) {
+                    convertedResult.pushDouble(primitiveArray.getNumberItem(i));
+                }
+            }
+            return convertedResult;
+        }
+
         for (JavaScriptValue value : arrayResult.getArrayItems()) {
             switch (value.getType()) {
                 case Null: convertedResult.pushNull(); break;
@@ -405,4 +596,11 @@ public final class C3PReactModule extends ReactContextBaseJavaModule
     public void onActivityResult(int requestCode, int resultCode, Intent data) {
         this.bridge.onActivityResult(requestCode, resultCode, data);
     }
+
+    @Override
+    public void onCatalystInstanceDestroy() {
+        // Types registered by this JavaScript context must not outlive it.
+        this.bridge.reset();
+        this.bridge.shutdown();
+    }
 }
@@ -12,11 +12,40 @@ import com.facebook.react.uimanager.ViewManager;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 public final class C3PReactPackage implements ReactPackage {
+    private final ExecutorService executor;
+    private final long propertyWriteCoalescingMillis;
+
+    public C3PReactPackage() {
+        this(null);
+    }
+
+    /**
+     * Creates the package with an executor for the C3P bridge's async work, for example one
+     * created by JavaScriptBridge.createBoundedExecutor(), or null to use the bridge's default
+     * unbounded thread pool.
+     */
+    public C3PReactPackage(ExecutorService executor) {
+        this(executor, 0);
+    }
+
+    /**
+     * Creates the package with an executor for the C3P bridge's async work (or null to use the
+     * bridge's default unbounded thread pool), and a window within which writes to the same
+     * property of the same instance are coalesced (or 0 to apply every write immediately).
+     * See JavaScriptBridge.setPropertyWriteCoalescingWindow().
+     */
+    public C3PReactPackage(ExecutorService executor, long propertyWriteCoalescingMillis) {
+        this.executor = executor;
+        this.propertyWriteCoalescingMillis = propertyWriteCoalescingMillis;
+    }
+
     @Override
     public List<NativeModule> createNativeModules(ReactApplicationContext reactContext) {
-        return Arrays.<NativeModule>asList(new C3PReactModule(reactContext));
+        return Arrays.<NativeModule>asList(new C3PReactModule(
+                reactContext, this.executor, this.propertyWriteCoalescingMillis));
     }
 
     @Override
@@ -3,7 +3,7 @@
 
 import { Promise } from "es6-promise";
 import { NativeType, NativeObject, NativeReference } from "./NativeObject";
-import { BridgeCallType, NativeBridge, NativeAsyncBridge } from "./NativeBridge";
+import { BridgeCallType, BatchedCall, BatchedCallResult, NativeBridge, NativeAsyncBridge, OneWayCallError } from "./NativeBridge";
 import { Marshaller } from "./Marshaller";
 
 /**
@@ -123,7 +123,7 @@ export class LoggingNativeAsyncBridge implements NativeAsyncBridge {
 
     registerType(type: string, constructor: NativeType): void {
         console.log("REGISTER " + type);
-        Marshaller.registerType(type, constructor);
+        this.bridge.registerType(type, constructor);
     }
 
     getStaticProperty(type: string, property: string): Promise<any> {
@@ -161,9 +161,9 @@ export class LoggingNativeAsyncBridge implements NativeAsyncBridge {
             () => this.bridge.releaseInstance(type, handle));
     }
 
-    getProperty(instance: NativeReference, property: string): Promise<any> {
+    getProperty(instance: NativeReference, property: string, fieldMask?: string[]): Promise<any> {
         return LoggingNativeAsyncBridge.trace(BridgeCallType.getProperty, instance, property, null,
-            () => this.bridge.getProperty(instance, property));
+            () => this.bridge.getProperty(instance, property, fieldMask));
     }
 
     setProperty(instance: NativeReference, property: string, value: any): Promise<void> {
@@ -171,9 +171,19 @@ export class LoggingNativeAsyncBridge implements NativeAsyncBridge {
             () => this.bridge.setProperty(instance, property, value));
     }
 
-    invokeMethod(instance: NativeObject, method: string, args: any[]): Promise<any> {
+    getProperties(instance: NativeReference, properties: string[]): Promise<{ [property: string]: any }> {
+        return LoggingNativeAsyncBridge.trace(BridgeCallType.getProperties, instance, null, properties,
+            () => this.bridge.getProperties(instance, properties));
+    }
+
+    setProperties(instance: NativeReference, values: { [property: string]: any }): Promise<void> {
+        return LoggingNativeAsyncBridge.trace(BridgeCallType.setProperties, instance, null, [values],
+            () => this.bridge.setProperties(instance, values));
+    }
+
+    invokeMethod(instance: NativeObject, method: string, args: any[], fieldMask?: string[]): Promise<any> {
         return LoggingNativeAsyncBridge.trace(BridgeCallType.invokeMethod, instance, method, args,
-            () => this.bridge.invokeMethod(instance, method, args));
+            () => this.bridge.invokeMethod(instance, method, args, fieldMask));
     }
 
     addEventListener(instance: NativeReference, event: string, listener: (args: any) => void): Promise<void> {
@@ -186,6 +196,37 @@ export class LoggingNativeAsyncBridge implements NativeAsyncBridge {
             () => this.bridge.removeEventListener(instance, event, listener));
     }
 
+    resolveMember(callType: BridgeCallType, type: string, member: (string | null), argCount: number): Promise<number> {
+        return LoggingNativeAsyncBridge.trace(BridgeCallType.resolveMember, type, member,
+            [BridgeCallType[callType], argCount],
+            () => this.bridge.resolveMember(callType, type, member, argCount));
+    }
+
+    invokeMember(memberId: number, instance: (NativeObject | null), args: any[]): Promise<any> {
+        return LoggingNativeAsyncBridge.trace(BridgeCallType.invokeMember, instance || "(static)", "#" + memberId, args,
+            () => this.bridge.invokeMember(memberId, instance, args));
+    }
+
+    batch(calls: BatchedCall[]): Promise<BatchedCallResult[]> {
+        return LoggingNativeAsyncBridge.trace(BridgeCallType.batch, "(batch)", null,
+            calls.map(call => BridgeCallType[call.callType] + " " + (call.member || call.memberId)),
+            () => this.bridge.batch(calls));
+    }
+
+    invokeOneWay(call: BatchedCall): void {
+        console.log("CALL " + BridgeCallType[BridgeCallType.invokeOneWay] + ": " + BridgeCallType[call.callType] + " " +
+            (call.member || call.memberId) + "(" + (call.args ? JSON.stringify(call.args) : "") + ")");
+        this.bridge.invokeOneWay(call);
+    }
+
+    addOneWayErrorListener(listener: (error: OneWayCallError) => void): void {
+        this.bridge.addOneWayErrorListener((error: OneWayCallError) => {
+            console.log("ERROR " + BridgeCallType[BridgeCallType.invokeOneWay] + ": " + error.callType + " " +
+                error.member + " => " + error.error);
+            listener(error);
+        });
+    }
+
     private static trace<T>(
         callType: BridgeCallType,
         typeOrInstance: (string | NativeObject),
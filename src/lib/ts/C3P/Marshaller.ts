@@ -3,6 +3,7 @@
 
 import { Promise } from "es6-promise";
 import { NativeType, NativeObjectType, NativeReferenceType, NativeObject, NativeReference } from "./NativeObject";
+import { BridgeCallType, BatchedCall, BatchedCallResult, BatchedResultPlaceholder } from "./NativeBridge";
 
 /**
  * Helper class for converting arguments and return values of calls made over a JS to native bridge.
@@ -14,15 +15,58 @@ export class Marshaller {
      */
     private static typeMap: { [type: string]: NativeType } = {};
 
+    /**
+     * Names of the registered types, indexed by type ID. IDs are assigned here, in order of registration, and sent
+     * to the native bridge (see takeUnregisteredTypes), which may then refer to types by ID instead of by name.
+     */
+    private static typeNames: string[] = [];
+
+    /**
+     * Number of registered types whose IDs have been taken to be sent to the native bridge.
+     */
+    private static unregisteredTypeIndex: number = 0;
+
+    /**
+     * IDs of types that the native bridge has confirmed, so that instances of them can be sent with the ID.
+     */
+    private static nativeTypeIds: { [type: string]: number } = {};
+
     /**
      * Registers a type for bridging.
      * @param type Platform-independent type full name.
      * @param constructor Constructor function for the type.
      */
     static registerType(type: string, constructor: NativeType): void {
+        if (!Object.prototype.hasOwnProperty.call(Marshaller.typeMap, type)) {
+            Marshaller.typeNames.push(type);
+        }
         Marshaller.typeMap[type] = constructor;
     }
 
+    /**
+     * Takes the types that were registered since the last call, to be registered with the native bridge.
+     * @returns The ID of the first type, and the type names (which have consecutive IDs), or null if there are none.
+     */
+    static takeUnregisteredTypes(): { firstTypeId: number, types: string[] } {
+        var firstTypeId: number = Marshaller.unregisteredTypeIndex;
+        if (firstTypeId === Marshaller.typeNames.length) {
+            return null;
+        }
+
+        Marshaller.unregisteredTypeIndex = Marshaller.typeNames.length;
+        return { firstTypeId: firstTypeId, types: Marshaller.typeNames.slice(firstTypeId) };
+    }
+
+    /**
+     * Records that the native bridge registered types taken via takeUnregisteredTypes(), so that instances of them are
+     * marshalled with the type ID from then on.
+     */
+    static confirmRegisteredTypes(firstTypeId: number, types: string[]): void {
+        types.forEach(function (type: string, index: number) {
+            Marshaller.nativeTypeIds[type] = firstTypeId + index;
+        });
+    }
+
     /**
      * Marshals an object or array to a form suitable for passing to an asyncronous call over the bridge. This involves
      * awaiting resolution of any asynchronously-constructed instances that were marshalled by reference.
@@ -39,10 +83,7 @@ export class Marshaller {
             // Resolve the promised handle.
             var instanceType: string = jsObject.type;
             return jsObject.handle.then((resolvedHandle: number) => {
-                return {
-                    type: instanceType,
-                    handle: resolvedHandle
-                };
+                return Marshaller.marshalReferenceToNative(instanceType, resolvedHandle);
             });
         } else if (Array.isArray(jsObject)) {
             // Reduce the array to a promised marshalled array.
@@ -81,21 +122,76 @@ export class Marshaller {
         }
     }
 
+    /**
+     * Marshals a reference to a native instance, with the type ID if the native bridge has registered the type.
+     * @param type Full platform-independent type name of the instance.
+     * @param handle Resolved handle of the instance.
+     * @returns The marshalled reference.
+     */
+    static marshalReferenceToNative(type: string, handle: number): any {
+        if (Object.prototype.hasOwnProperty.call(Marshaller.nativeTypeIds, type)) {
+            return { typeId: Marshaller.nativeTypeIds[type], handle: handle };
+        }
+        return { type: type, handle: handle };
+    }
+
+    /**
+     * Marshals the instance of an instance call, as a packed reference if possible (see packReference).
+     * @param instance The instance.
+     * @returns A promise for the marshalled instance.
+     */
+    static marshalInstanceToNative(instance: NativeObject): Promise<any> {
+        return Marshaller.marshalToNative(instance).then(Marshaller.packReference);
+    }
+
+    /**
+     * Converts a marshalled reference that has a type ID into a packed reference: a single number that holds the
+     * type ID in its upper 32 bits and the handle in its lower 32 bits, which the native bridge decodes without
+     * converting an object. Packed references are only valid as the instance of an instance call, not within
+     * arguments. Other values are returned unchanged.
+     * @param marshalledInstance The marshalled instance.
+     * @returns The packed reference, or the marshalled instance.
+     */
+    static packReference(marshalledInstance: any): any {
+        if (marshalledInstance !== null && typeof (marshalledInstance) == "object" &&
+                typeof (marshalledInstance.typeId) == "number" && typeof (marshalledInstance.handle) == "number") {
+            return marshalledInstance.typeId * 4294967296 + (marshalledInstance.handle >>> 0);
+        }
+        return marshalledInstance;
+    }
+
     /**
      * Converts JSON objects returned by a call over the bridge into correctly-typed objects. This involves
      * instantiating any bridged types using their registered constructor functions.
+     *
+     * Arrays of marshalled-by-value objects may be received in a compact form (when the native bridge supports it):
+     * an envelope of type "<shapes>" whose shapes each list a type name followed by property names, around an array
+     * in which each object is { shape: index, values: [...] }, with the values in the order of the shape's
+     * properties.
+     * Instances marshalled by reference may have a typeId (see takeUnregisteredTypes) instead of a type.
      * @param nativeObject The JSON object received over the bridge.
+     * @param shapes Shapes of the enclosing envelope, if any; only used internally.
      * @return The marshalled object.
      */
-    static marshalFromNative(nativeObject: any): any {
+    static marshalFromNative(nativeObject: any, shapes?: string[][]): any {
         if (nativeObject === null || typeof(nativeObject) != "object") {
             return nativeObject;
         } else if (Array.isArray(nativeObject)) {
             var localArray: Array<any> = new Array<any>();
             for (var i: number = 0; i < nativeObject.length; i++) {
-                localArray[i] = Marshaller.marshalFromNative(nativeObject[i]);
+                localArray[i] = Marshaller.marshalFromNative(nativeObject[i], shapes);
             }
             return localArray;
+        } else if (shapes && typeof (nativeObject.shape) == "number" && Array.isArray(nativeObject.values)) {
+            return Marshaller.marshalShapedObjectFromNative(nativeObject, shapes);
+        } else if (typeof (nativeObject.typeId) == "number") {
+            var typeName: string = Marshaller.typeNames[nativeObject.typeId];
+            if (!typeName) {
+                console.log("Marshaller: Type ID not found when marshalling from native: " + nativeObject.typeId);
+                return null;
+            }
+            return Marshaller.marshalReferenceFromNative(
+                nativeObject, <NativeReferenceType>Marshaller.typeMap[typeName], shapes);
         } else if (typeof (nativeObject.type) != "string") {
             var str: string;
             try {
@@ -111,6 +207,8 @@ export class Marshaller {
         if (!localType) {
             if (nativeObject.type == "<uuid>" || nativeObject.type == "<uri>") {
                 return nativeObject;
+            } else if (nativeObject.type == "<shapes>") {
+                return Marshaller.marshalFromNative(nativeObject.value, nativeObject.shapes);
             } else if (nativeObject.type == "<date>") {
                 return new Date(nativeObject.value);
             }
@@ -119,17 +217,144 @@ export class Marshaller {
             return null;
         }
 
-        var localObject: any;
         if (typeof (nativeObject.handle) == "number") {
-            localObject = new (<NativeReferenceType>localType)(Promise.resolve(nativeObject.handle));
-        } else {
-            localObject = new (<NativeObjectType>localType)();
-            Object.keys(nativeObject).forEach(function (propertyName) {
-                if (propertyName != "type" && propertyName != "handle") {
-                    localObject[propertyName] = Marshaller.marshalFromNative(nativeObject[propertyName]);
-                }
-            });
+            return Marshaller.marshalReferenceFromNative(nativeObject, <NativeReferenceType>localType, shapes);
         }
+
+        var localObject: any = new (<NativeObjectType>localType)();
+        Object.keys(nativeObject).forEach(function (propertyName) {
+            if (propertyName != "type" && propertyName != "handle") {
+                localObject[propertyName] = Marshaller.marshalFromNative(nativeObject[propertyName]);
+            }
+        });
         return localObject;
     }
+
+    /**
+     * Converts an instance marshalled by reference, seeding it with any prefetched property values.
+     */
+    private static marshalReferenceFromNative(
+            nativeObject: any, localType: NativeReferenceType, shapes: string[][]): NativeReference {
+        var localObject: NativeReference = new localType(Promise.resolve(nativeObject.handle));
+        if (nativeObject.properties !== null && typeof (nativeObject.properties) == "object") {
+            // Values of prefetched properties, sent along with the handle.
+            localObject.seedPropertyCache(Marshaller.marshalPropertiesFromNative(nativeObject.properties, shapes));
+        }
+        return localObject;
+    }
+
+    /**
+     * Converts a marshalled-by-value object received in compact form, using the shapes of its envelope.
+     */
+    private static marshalShapedObjectFromNative(nativeObject: any, shapes: string[][]): any {
+        var shape: string[] = shapes[nativeObject.shape];
+        var localType: NativeType = shape ? Marshaller.typeMap[shape[0]] : null;
+        if (!localType) {
+            console.log("Marshaller: Type not found when marshalling from native: " +
+                (shape ? shape[0] : "shape " + nativeObject.shape));
+            return null;
+        }
+
+        var localObject: any = new (<NativeObjectType>localType)();
+        var values: any[] = nativeObject.values;
+        for (var i: number = 1; i < shape.length; i++) {
+            localObject[shape[i]] = Marshaller.marshalFromNative(values[i - 1], shapes);
+        }
+        return localObject;
+    }
+
+    /**
+     * Creates a placeholder for the result of an earlier call in a batch, to be used as the instance, value, or an
+     * argument of a later call in the same batch.
+     * @param callIndex Index of the earlier call in the batch.
+     * @returns The placeholder.
+     */
+    static batchedResult(callIndex: number): BatchedResultPlaceholder {
+        return { type: "<slot>", value: callIndex };
+    }
+
+    /**
+     * Marshals a batch of calls to the array form expected by the native batch call: each call is an array of the
+     * call type name followed by the same arguments as the corresponding individual call, with instances sent as
+     * packed references where possible. Cached property values of the instances that are called are invalidated,
+     * because the calls may change any property.
+     * @param calls The calls in the batch.
+     * @returns A promise for the marshalled calls.
+     */
+    static marshalBatchToNative(calls: BatchedCall[]): Promise<any[]> {
+        var nativeCalls: any[][] = calls.map(function (call: BatchedCall): any[] {
+            if (call.instance instanceof NativeReference) {
+                call.instance.invalidatePropertyCache();
+            }
+
+            var callTypeName: string = BridgeCallType[call.callType];
+            switch (call.callType) {
+                case BridgeCallType.getStaticProperty:
+                    return [ callTypeName, call.type, call.member ];
+                case BridgeCallType.setStaticProperty:
+                    return [ callTypeName, call.type, call.member, call.value ];
+                case BridgeCallType.invokeStaticMethod:
+                    return [ callTypeName, call.type, call.member, call.args || [] ];
+                case BridgeCallType.createInstance:
+                    return [ callTypeName, call.type, call.args || [] ];
+                case BridgeCallType.releaseInstance:
+                    return [ callTypeName, call.instance ];
+                case BridgeCallType.getProperty:
+                    return [ callTypeName, call.instance, call.member ];
+                case BridgeCallType.setProperty:
+                    return [ callTypeName, call.instance, call.member, call.value ];
+                case BridgeCallType.getProperties:
+                case BridgeCallType.setProperties:
+                    return [ callTypeName, call.instance, call.value ];
+                case BridgeCallType.invokeMethod:
+                    return [ callTypeName, call.instance, call.member, call.args || [] ];
+                case BridgeCallType.invokeMember:
+                    return [ callTypeName, call.memberId, call.instance || null, call.args || [] ];
+                default:
+                    throw new Error("Call type not supported in a batch: " + callTypeName);
+            }
+        });
+        return Marshaller.marshalToNative(nativeCalls).then(function (marshalledCalls: any[][]): any[][] {
+            marshalledCalls.forEach(function (marshalledCall: any[], index: number) {
+                // The instance (or for static calls, the type name, which is left unchanged) follows the call type.
+                var instanceIndex: number = (calls[index].callType === BridgeCallType.invokeMember ? 2 : 1);
+                marshalledCall[instanceIndex] = Marshaller.packReference(marshalledCall[instanceIndex]);
+            });
+            return marshalledCalls;
+        });
+    }
+
+    /**
+     * Converts the outcomes returned by a native batch call into results and errors.
+     * @param nativeResults The JSON array received over the bridge.
+     * @param calls The calls in the batch, in the same order as the outcomes.
+     * @returns The outcomes of the calls in the batch.
+     */
+    static marshalBatchResultsFromNative(nativeResults: any[], calls: BatchedCall[]): BatchedCallResult[] {
+        return nativeResults.map(function (nativeResult: any, index: number): BatchedCallResult {
+            if (typeof (nativeResult.error) === "string") {
+                return { error: new Error(nativeResult.error) };
+            } else if (calls[index].callType === BridgeCallType.getProperties) {
+                return { result: Marshaller.marshalPropertiesFromNative(nativeResult.result) };
+            }
+            return { result: Marshaller.marshalFromNative(nativeResult.result) };
+        });
+    }
+
+    /**
+     * Converts the property values returned by a native getProperties call. The object itself is not a bridged
+     * type (it has no type property), so each of its values is marshalled separately.
+     * @param nativeValues The JSON object received over the bridge.
+     * @param shapes Shapes of the enclosing envelope, if any.
+     * @returns An object mapping each property name to its marshalled value.
+     */
+    static marshalPropertiesFromNative(nativeValues: any, shapes?: string[][]): { [property: string]: any } {
+        var values: { [property: string]: any } = {};
+        if (nativeValues !== null && typeof (nativeValues) == "object") {
+            Object.keys(nativeValues).forEach(function (propertyName) {
+                values[propertyName] = Marshaller.marshalFromNative(nativeValues[propertyName], shapes);
+            });
+        }
+        return values;
+    }
 }
@@ -20,6 +20,109 @@ export enum BridgeCallType {
     invokeMethod,
     addEventListener,
     removeEventListener,
+    resolveMember,
+    invokeMember,
+    batch,
+    invokeOneWay,
+    addOneWayErrorListener,
+    getProperties,
+    setProperties,
+    enableCompactShapes,
+    registerTypes,
+}
+
+/**
+ * Describes a failure of a call that was made via NativeAsyncBridge.invokeOneWay().
+ */
+export interface OneWayCallError {
+    /**
+     * Name of the type of call that failed.
+     */
+    callType: string;
+
+    /**
+     * Name of the property or method, or "#" and the member ID for invokeMember.
+     */
+    member: string;
+
+    /**
+     * Message of the native exception that caused the failure.
+     */
+    error: string;
+}
+
+/**
+ * Placeholder for the result of an earlier call in the same batch, which may be used as the instance, value, or
+ * an argument of a later call. The later call is then pipelined: it is executed on the native side as soon as the
+ * earlier call completes, without another crossing of the bridge. Create placeholders via Marshaller.batchedResult().
+ */
+export interface BatchedResultPlaceholder {
+    /**
+     * Always "<slot>".
+     */
+    type: string;
+
+    /**
+     * Index of the earlier call in the batch.
+     */
+    value: number;
+}
+
+/**
+ * A call to be executed as part of a batch via NativeAsyncBridge.batch(). Only the fields that apply to the
+ * call type are used.
+ */
+export interface BatchedCall {
+    /**
+     * Type of call. Any type except the add/remove event listener calls, resolveMember, and batch itself.
+     */
+    callType: BridgeCallType;
+
+    /**
+     * Full platform-independent type name, for static calls and createInstance.
+     */
+    type?: string;
+
+    /**
+     * Instance to call, for instance calls, releaseInstance, and invokeMember (null for a static member).
+     */
+    instance?: (NativeObject | BatchedResultPlaceholder | null);
+
+    /**
+     * Name of the property or method.
+     */
+    member?: string;
+
+    /**
+     * Value to set, for setStaticProperty and setProperty; array of property names, for getProperties; or object
+     * mapping property names to values, for setProperties.
+     */
+    value?: any;
+
+    /**
+     * Arguments to pass, for method calls, createInstance, and invokeMember.
+     */
+    args?: any[];
+
+    /**
+     * ID of a member that was resolved via resolveMember(), for invokeMember.
+     */
+    memberId?: number;
+}
+
+/**
+ * The outcome of one call in a batch: either a result or an error.
+ */
+export interface BatchedCallResult {
+    /**
+     * The call's return value, or undefined if the call failed. For createInstance, this is the new instance.
+     */
+    result?: any;
+
+    /**
+     * The error that caused the call to fail, or undefined if the call succeeded.
+     */
+    error?: Error;
 }
 
 /**
@@ -221,10 +324,13 @@ export interface NativeAsyncBridge {
      * Gets the value of a property on the native instance.
      * @param instance An instance of a NativeReference subclass that includes a handle to a native instance.
      * @param property Name of the property to get.
+     * @param fieldMask Optional paths of the properties to include when the value is marshalled by value,
+     * such as "name" or "address.city"; other properties are left undefined. Values marshalled by reference are
+     * not affected. (Currently only supported by the Android bridge implementation.)
      * @returns A promise for the value of the property. The promise may fail with any exceptions thrown by
      * the asynchronous native constructor.
      */
-    getProperty(instance: NativeReference, property: string): Promise<any>;
+    getProperty(instance: NativeReference, property: string, fieldMask?: string[]): Promise<any>;
 
     /**
      * Sets the value of a property on the native instance.
@@ -236,17 +342,40 @@ export interface NativeAsyncBridge {
      */
     setProperty(instance: NativeReference, property: string, value: any): Promise<void>;
 
+    /**
+     * Gets the values of several properties on the native instance in a single crossing of the bridge.
+     * (Currently only supported by the Android bridge implementation.)
+     * @param instance An instance of a NativeReference subclass that includes a handle to a native instance.
+     * @param properties Names of the properties to get.
+     * @returns A promise for an object mapping each property name to its value. The promise fails if any of the
+     * properties cannot be read.
+     */
+    getProperties(instance: NativeReference, properties: string[]): Promise<{ [property: string]: any }>;
+
+    /**
+     * Sets the values of several properties on the native instance in a single crossing of the bridge. The order in
+     * which the properties are set is not defined.
+     * (Currently only supported by the Android bridge implementation.)
+     * @param instance An instance of a NativeReference subclass that includes a handle to a native instance.
+     * @param values Object mapping each property name to the value to set.
+     * @returns A promise for completion of setting the properties. The promise fails if any of the properties
+     * cannot be set; properties are not set at all if any of them is unknown.
+     */
+    setProperties(instance: NativeReference, values: { [property: string]: any }): Promise<void>;
+
     /**
      * Invokes a method on the native instance.
      * @param instance An instance of a NativeObject subclass that is marshalled-by-value from/to native code,
      * or a NativeReference subclass that includes a handle to a corresponding native instance.
      * @param method Name of the method to invoke.
      * @param args Arguments to pass to the method.
+     * @param fieldMask Optional paths of the properties to include when the return value is marshalled by value,
+     * as for getProperty. (Currently only supported by the Android bridge implementation.)
      * @returns A promise for the method's return value, or a promise for the method completion if the method's
      * return type is void. The promise may fail with any exceptions thrown by the asynchronous native constructor
      * or native method.
      */
-    invokeMethod(instance: NativeObject, method: string, args: any[]): Promise<any>;
+    invokeMethod(instance: NativeObject, method: string, args: any[], fieldMask?: string[]): Promise<any>;
 
     /**
      * Adds a listener to an event on the native instance.
@@ -266,4 +395,56 @@ export interface NativeAsyncBridge {
      * @return A promise for completion of removing the listener.
      */
     removeEventListener(instance: NativeReference, event: string, listener: (args: any) => void): Promise<void>;
+
+    /**
+     * Resolves a native property, method, or constructor, and gets a compact ID for it. The ID can be passed to
+     * invokeMember() for subsequent calls, so that the type and member names are not sent and looked up again for
+     * every call. IDs are cached by the bridge, so repeated resolution of the same member is cheap.
+     * (Currently only supported by the Android bridge implementation.)
+     * @param callType Type of call that the member is resolved for: one of getStaticProperty, setStaticProperty,
+     * invokeStaticMethod, createInstance, getProperty, setProperty, or invokeMethod.
+     * @param type Full platform-independent type name.
+     * @param member Name of the property or method, or null for a constructor.
+     * @param argCount Number of arguments the method or constructor will be invoked with. (Ignored for properties.)
+     * @returns A promise for the member ID.
+     */
+    resolveMember(callType: BridgeCallType, type: string, member: (string | null), argCount: number): Promise<number>;
+
+    /**
+     * Invokes a native member that was previously resolved via resolveMember().
+     * (Currently only supported by the Android bridge implementation.)
+     * @param memberId ID of the resolved member.
+     * @param instance Instance to invoke the member on, or null if the member is static or is a constructor.
+     * @param args Arguments to pass to the member. For a property setter this is a single-item array with the
+     * value to set; for a property getter it is an empty array.
+     * @returns A promise for the member's return value. For a constructor, this is the new instance.
+     */
+    invokeMember(memberId: number, instance: (NativeObject | null), args: any[]): Promise<any>;
+
+    /**
+     * Executes a list of calls in a single crossing of the bridge, in order. A failed call does not stop the
+     * others; instead its outcome holds the error. A call may use the result of an earlier call via a
+     * BatchedResultPlaceholder, so that a chain of dependent calls needs only one crossing.
+     * (Currently only supported by the Android bridge implementation.)
+     * @param calls Calls to execute.
+     * @returns A promise for the outcomes of the calls, in the same order as the calls.
+     */
+    batch(calls: BatchedCall[]): Promise<BatchedCallResult[]>;
+
+    /**
+     * Sets a property or invokes a method without waiting for any response. The native side sends no result, which
+     * halves the messages for calls whose results are not needed. Failures are reported to one-way error listeners.
+     * (Currently only supported by the Android bridge implementation.)
+     * @param call The call: one of setStaticProperty, invokeStaticMethod, setProperty, setProperties, invokeMethod,
+     * or invokeMember (for a method or property setter). Result placeholders are not supported.
+     */
+    invokeOneWay(call: BatchedCall): void;
+
+    /**
+     * Adds a listener for failures of calls made via invokeOneWay(). All one-way calls report their failures to the
+     * same listeners.
+     * (Currently only supported by the Android bridge implementation.)
+     * @param listener Callback to be invoked with a description of each failure.
+     */
+    addOneWayErrorListener(listener: (error: OneWayCallError) => void): void;
 }
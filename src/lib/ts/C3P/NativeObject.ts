@@ -21,6 +21,25 @@ export abstract class NativeObject {
  * (on the other side of the bridge) to a corresponding native instance.
  */
 export abstract class NativeReference extends NativeObject {
+    /**
+     * Maximum time in milliseconds for which prefetched property values are served from the cache after they are
+     * received. The cache is not updated by changes made on the native side or through other JavaScript objects
+     * that refer to the same native instance, so this bounds how stale a cached value can be. Set to 0 to always
+     * read properties from the native side.
+     */
+    static propertyCacheLifetime: number = 1000;
+
+    /**
+     * Values of properties that the native side sent along with the handle (for properties the plugin declares
+     * to be prefetched), or null if there are none. Reads of those properties are served from this cache.
+     */
+    private propertyCache: ({ [property: string]: any } | null) = null;
+
+    /**
+     * Time (as returned by Date.now()) after which the cached property values are discarded.
+     */
+    private propertyCacheExpiration: number = 0;
+
     /**
      * Creates a new instance that represents a native type.
      * @param type Full platform-independent type name of the instance.
@@ -41,9 +60,66 @@ export abstract class NativeReference extends NativeObject {
      */
     dispose(): Promise<void> {
         this.handle = Promise.reject<number>(new Error("Object disposed: " + this.type));
+        this.propertyCache = null;
         return Promise.resolve();
     }
 
+    /**
+     * Replaces the cached property values with a snapshot received from the native side.
+     * @param values Object mapping property names to values.
+     */
+    seedPropertyCache(values: { [property: string]: any }): void {
+        if (NativeReference.propertyCacheLifetime > 0) {
+            this.propertyCache = values;
+            this.propertyCacheExpiration = Date.now() + NativeReference.propertyCacheLifetime;
+        } else {
+            this.propertyCache = null;
+        }
+    }
+
+    /**
+     * Checks whether a property value is cached, discarding the cached values if their lifetime has expired.
+     * @param property Name of the property.
+     */
+    hasCachedProperty(property: string): boolean {
+        if (this.propertyCache !== null && Date.now() >= this.propertyCacheExpiration) {
+            this.propertyCache = null;
+        }
+        return this.propertyCache !== null && Object.prototype.hasOwnProperty.call(this.propertyCache, property);
+    }
+
+    /**
+     * Gets a cached property value; only valid if hasCachedProperty() returned true.
+     * @param property Name of the property.
+     */
+    getCachedProperty(property: string): any {
+        return (this.propertyCache !== null ? this.propertyCache[property] : undefined);
+    }
+
+    /**
+     * Updates a cached property value after the property was set, if the property is cached.
+     * @param property Name of the property.
+     * @param value The value that was set.
+     */
+    updateCachedProperty(property: string, value: any): void {
+        if (this.hasCachedProperty(property)) {
+            (<{ [property: string]: any }>this.propertyCache)[property] = value;
+        }
+    }
+
+    /**
+     * Removes one or all cached property values, so that they are read from the native side again. This should be
+     * called when the native object may have changed in a way the JavaScript side has not observed.
+     * @param property Name of the property to remove, or undefined to remove all.
+     */
+    invalidatePropertyCache(property?: string): void {
+        if (property === undefined) {
+            this.propertyCache = null;
+        } else if (this.hasCachedProperty(property)) {
+            delete (<{ [property: string]: any }>this.propertyCache)[property];
+        }
+    }
+
     /**
      * Special reference to the current application, used with constructors and methods that take an
      * implicit application context as their first parameter. The actual type is platform-specific (such as
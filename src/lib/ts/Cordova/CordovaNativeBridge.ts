@@ -4,7 +4,7 @@
 import { Promise } from "es6-promise";
 import { Cordova } from "cordova";
 import { NativeType, NativeObject, NativeReference } from "../C3P/NativeObject";
-import { BridgeCallType, NativeAsyncBridge } from "../C3P/NativeBridge";
+import { BridgeCallType, BatchedCall, BatchedCallResult, NativeAsyncBridge, OneWayCallError } from "../C3P/NativeBridge";
 import { Marshaller } from "../C3P/Marshaller";
 import { LoggingNativeAsyncBridge } from "../C3P/LoggingNativeBridge";
 import { EventListenersCollection, EventListenerRecord } from "../C3P/NativeEventListeners";
@@ -26,6 +26,33 @@ class CordovaNativeBridge implements NativeAsyncBridge {
      */
     private eventListeners: EventListenersCollection = new EventListenersCollection();
 
+    /**
+     * Promised IDs of native members that were resolved via resolveMember(), keyed by call type and member.
+     * Promises that are rejected are removed.
+     */
+    private memberIds: { [key: string]: Promise<number> } = {};
+
+    /**
+     * Listeners for failures of one-way calls. The native error channel is opened when the first one is added.
+     */
+    private oneWayErrorListeners: ((error: OneWayCallError) => void)[] = [];
+
+    /**
+     * True if types have been registered that are yet to be sent to the native bridge.
+     */
+    private typeRegistrationPending: boolean = false;
+
+    constructor() {
+        // Let the native bridge send arrays of marshalled-by-value objects in compact form, which the Marshaller
+        // can decode. Native bridges that do not support it fail the call, and keep sending plain objects.
+        cordova.exec(
+            function () { },
+            function () { },
+            CordovaNativeBridge.serviceName,
+            BridgeCallType[BridgeCallType.enableCompactShapes],
+            []);
+    }
+
     /**
      * Registers a type as a known bridged type, enabling instances of the type to be automatically
      * constructed from handles or serialized values returned over the bridge.
@@ -34,6 +61,33 @@ class CordovaNativeBridge implements NativeAsyncBridge {
      */
     registerType(type: string, constructor: NativeType): void {
         Marshaller.registerType(type, constructor);
+
+        // Types are usually registered together when a plugin's module loads, so send them in a single call.
+        if (!this.typeRegistrationPending) {
+            this.typeRegistrationPending = true;
+            Promise.resolve().then(() => {
+                this.typeRegistrationPending = false;
+                this.registerNativeTypes();
+            });
+        }
+    }
+
+    /**
+     * Sends type IDs to the native bridge, which then refers to instances of the types by ID instead of by name.
+     * Native bridges that do not support type IDs fail the call, and the types keep being sent by name.
+     */
+    private registerNativeTypes(): void {
+        var registration = Marshaller.takeUnregisteredTypes();
+        if (registration) {
+            cordova.exec(
+                function () {
+                    Marshaller.confirmRegisteredTypes(registration.firstTypeId, registration.types);
+                },
+                function () { },
+                CordovaNativeBridge.serviceName,
+                BridgeCallType[BridgeCallType.registerTypes],
+                <any[]>[registration.firstTypeId, registration.types]);
+        }
     }
 
     /**
@@ -212,7 +266,9 @@ class CordovaNativeBridge implements NativeAsyncBridge {
                             reject,
                             CordovaNativeBridge.serviceName,
                             BridgeCallType[BridgeCallType.releaseInstance],
-                            <any[]>[{ type: type, handle: handleValue }]);
+                            <any[]>[
+                                Marshaller.packReference(Marshaller.marshalReferenceToNative(type, handleValue))
+                            ]);
                     },
                     reject);
             } else {
@@ -225,12 +281,18 @@ class CordovaNativeBridge implements NativeAsyncBridge {
      * Gets the value of a property on the native instance.
      * @param instance An instance of a NativeReference subclass that is a bridged native instance.
      * @param property Name of the property to get.
+     * @param fieldMask Optional paths of the properties to include when the value is marshalled by value.
      * @returns A promise for the value of the property. The promise may fail with any exceptions thrown by
      * the asynchronous native constructor.
      */
-    getProperty(instance: NativeReference, property: string): Promise<any> {
+    getProperty(instance: NativeReference, property: string, fieldMask?: string[]): Promise<any> {
+        if (!fieldMask && instance.hasCachedProperty(property)) {
+            // A cached value is complete, so it is not used when only some of its fields are requested.
+            return Promise.resolve(instance.getCachedProperty(property));
+        }
+
         return new Promise<any>((resolve, reject) => {
-            Marshaller.marshalToNative(instance).then(
+            Marshaller.marshalInstanceToNative(instance).then(
                 marshalledInstance => {
                     cordova.exec(
                         function () {
@@ -240,7 +302,8 @@ class CordovaNativeBridge implements NativeAsyncBridge {
                         reject,
                         CordovaNativeBridge.serviceName,
                         BridgeCallType[BridgeCallType.getProperty],
-                        <any[]>[marshalledInstance, property]);
+                        fieldMask ? <any[]>[marshalledInstance, property, fieldMask] :
+                            <any[]>[marshalledInstance, property]);
                 },
                 reject);
         });
@@ -255,22 +318,79 @@ class CordovaNativeBridge implements NativeAsyncBridge {
      * the asynchronous native constructor.
      */
     setProperty(instance: NativeReference, property: string, value: any): Promise<void> {
+        instance.updateCachedProperty(property, value);
         return new Promise<any>((resolve, reject) => {
-            Marshaller.marshalToNative(instance).then(
+            var fail = (e: any) => {
+                instance.invalidatePropertyCache(property);
+                reject(e);
+            };
+            Marshaller.marshalInstanceToNative(instance).then(
                 marshalledInstance => {
                     cordova.exec(
                         () => {
                             resolve();
                         },
-                        reject,
+                        fail,
                         CordovaNativeBridge.serviceName,
                         BridgeCallType[BridgeCallType.setProperty],
                         [marshalledInstance, property, value]);
                 },
+                fail);
+        });
+    }
+
+    /**
+     * Gets the values of several properties on the native instance in a single crossing of the bridge.
+     * @param instance An instance of a NativeReference subclass that is a bridged native instance.
+     * @param properties Names of the properties to get.
+     * @returns A promise for an object mapping each property name to its value.
+     */
+    getProperties(instance: NativeReference, properties: string[]): Promise<{ [property: string]: any }> {
+        return new Promise<{ [property: string]: any }>((resolve, reject) => {
+            Marshaller.marshalInstanceToNative(instance).then(
+                marshalledInstance => {
+                    cordova.exec(
+                        function () {
+                            var result = arguments[0];
+                            resolve(Marshaller.marshalPropertiesFromNative(result));
+                        },
+                        reject,
+                        CordovaNativeBridge.serviceName,
+                        BridgeCallType[BridgeCallType.getProperties],
+                        <any[]>[marshalledInstance, properties]);
+                },
                 reject);
         });
     }
 
+    /**
+     * Sets the values of several properties on the native instance in a single crossing of the bridge.
+     * @param instance An instance of a NativeReference subclass that is a bridged native instance.
+     * @param values Object mapping each property name to the value to set.
+     * @returns A promise for completion of setting the properties.
+     */
+    setProperties(instance: NativeReference, values: { [property: string]: any }): Promise<void> {
+        Object.keys(values).forEach(property => instance.updateCachedProperty(property, values[property]));
+        return new Promise<void>((resolve, reject) => {
+            var fail = (e: any) => {
+                Object.keys(values).forEach(property => instance.invalidatePropertyCache(property));
+                reject(e);
+            };
+            Marshaller.marshalToNative([ instance, values ]).then(
+                marshalledInstanceAndValues => {
+                    cordova.exec(
+                        () => {
+                            resolve();
+                        },
+                        fail,
+                        CordovaNativeBridge.serviceName,
+                        BridgeCallType[BridgeCallType.setProperties],
+                        <any[]>marshalledInstanceAndValues);
+                },
+                fail);
+        });
+    }
+
     /**
      * Invokes a method on the native instance.
      * @param instance An instance of a NativeObject subclass that is marshalled-by-value from/to native code,
@@ -281,9 +401,14 @@ class CordovaNativeBridge implements NativeAsyncBridge {
      * return type is void. The promise may fail with any exceptions thrown by the asynchronous native constructor
      * or native method.
      */
-    invokeMethod(instance: NativeObject, method: string, args: any[]): Promise<any> {
+    invokeMethod(instance: NativeObject, method: string, args: any[], fieldMask?: string[]): Promise<any> {
+        if (instance instanceof NativeReference) {
+            // The method may change any property.
+            instance.invalidatePropertyCache();
+        }
+
         return new Promise<any>((resolve, reject) => {
-            Marshaller.marshalToNative(instance).then(
+            Marshaller.marshalInstanceToNative(instance).then(
                 marshalledInstance => {
                     return Marshaller.marshalToNative(args).then(
                         marshalledArgs => {
@@ -295,7 +420,8 @@ class CordovaNativeBridge implements NativeAsyncBridge {
                                 reject,
                                 CordovaNativeBridge.serviceName,
                                 BridgeCallType[BridgeCallType.invokeMethod],
-                                <any[]>[marshalledInstance, method, marshalledArgs]);
+                                fieldMask ? <any[]>[marshalledInstance, method, marshalledArgs, fieldMask] :
+                                    <any[]>[marshalledInstance, method, marshalledArgs]);
                         },
                         reject);
                 },
@@ -318,7 +444,7 @@ class CordovaNativeBridge implements NativeAsyncBridge {
         }
         var firstCallback: boolean = true;
         return new Promise<void>((resolve, reject) => {
-            Marshaller.marshalToNative(instance).then(
+            Marshaller.marshalInstanceToNative(instance).then(
                 marshalledInstance => {
                     cordova.exec(
                         function () {
@@ -356,7 +482,7 @@ class CordovaNativeBridge implements NativeAsyncBridge {
 
         var registrationToken: string = listenerRecord.token;
         return new Promise<void>((resolve, reject) => {
-            Marshaller.marshalToNative(instance).then(
+            Marshaller.marshalInstanceToNative(instance).then(
                 marshalledInstance => {
                     cordova.exec(
                         function () {
@@ -371,6 +497,144 @@ class CordovaNativeBridge implements NativeAsyncBridge {
                 reject);
         });
     }
+
+    /**
+     * Resolves a native property, method, or constructor, and gets a compact ID for it.
+     * @param callType Type of call that the member is resolved for.
+     * @param type Full platform-independent type name.
+     * @param member Name of the property or method, or null for a constructor.
+     * @param argCount Number of arguments the method or constructor will be invoked with.
+     * @returns A promise for the member ID.
+     */
+    resolveMember(callType: BridgeCallType, type: string, member: (string | null), argCount: number): Promise<number> {
+        var key: string = BridgeCallType[callType] + ":" + type + "." + member + "/" + argCount;
+        var memberId: Promise<number> = this.memberIds[key];
+        if (!memberId) {
+            memberId = new Promise<number>((resolve, reject) => {
+                cordova.exec(
+                    function () {
+                        resolve(arguments[0]);
+                    },
+                    reject,
+                    CordovaNativeBridge.serviceName,
+                    BridgeCallType[BridgeCallType.resolveMember],
+                    <any[]>[ BridgeCallType[callType], type, member, argCount ]);
+            });
+            this.memberIds[key] = memberId;
+
+            // A failed lookup (for example a transient bridge error) is not cached, so a later call tries again.
+            memberId.then(null, () => {
+                if (this.memberIds[key] === memberId) {
+                    delete this.memberIds[key];
+                }
+            });
+        }
+        return memberId;
+    }
+
+    /**
+     * Invokes a native member that was previously resolved via resolveMember().
+     * @param memberId ID of the resolved member.
+     * @param instance Instance to invoke the member on, or null if the member is static or is a constructor.
+     * @param args Arguments to pass to the member.
+     * @returns A promise for the member's return value.
+     */
+    invokeMember(memberId: number, instance: (NativeObject | null), args: any[]): Promise<any> {
+        if (instance instanceof NativeReference) {
+            instance.invalidatePropertyCache();
+        }
+
+        return new Promise<any>((resolve, reject) => {
+            Marshaller.marshalToNative([ instance, args ]).then(
+                marshalledInstanceAndArgs => {
+                    cordova.exec(
+                        function () {
+                            var result = arguments[0];
+                            resolve(Marshaller.marshalFromNative(result));
+                        },
+                        reject,
+                        CordovaNativeBridge.serviceName,
+                        BridgeCallType[BridgeCallType.invokeMember],
+                        <any[]>[
+                            memberId,
+                            Marshaller.packReference(marshalledInstanceAndArgs[0]),
+                            marshalledInstanceAndArgs[1]
+                        ]);
+                },
+                reject);
+        });
+    }
+
+    /**
+     * Executes a list of calls in a single crossing of the bridge, in order.
+     * @param calls Calls to execute.
+     * @returns A promise for the outcomes of the calls, in the same order as the calls.
+     */
+    batch(calls: BatchedCall[]): Promise<BatchedCallResult[]> {
+        return new Promise<BatchedCallResult[]>((resolve, reject) => {
+            Marshaller.marshalBatchToNative(calls).then(
+                marshalledCalls => {
+                    cordova.exec(
+                        function () {
+                            var results = arguments[0];
+                            resolve(Marshaller.marshalBatchResultsFromNative(results, calls));
+                        },
+                        reject,
+                        CordovaNativeBridge.serviceName,
+                        BridgeCallType[BridgeCallType.batch],
+                        <any[]>[ marshalledCalls ]);
+                },
+                reject);
+        });
+    }
+
+    /**
+     * Sets a property or invokes a method without waiting for any response.
+     * @param call The call to make.
+     */
+    invokeOneWay(call: BatchedCall): void {
+        var listeners = this.oneWayErrorListeners;
+        Marshaller.marshalBatchToNative([ call ]).then(
+            marshalledCalls => {
+                // Without callbacks, Cordova does not keep a callback record for the call.
+                cordova.exec(
+                    <any>null,
+                    <any>null,
+                    CordovaNativeBridge.serviceName,
+                    BridgeCallType[BridgeCallType.invokeOneWay],
+                    <any[]>[ marshalledCalls[0] ]);
+            },
+            (e: any) => {
+                var error: OneWayCallError = {
+                    callType: BridgeCallType[call.callType],
+                    member: call.member || "",
+                    error: (e && e.message) || String(e)
+                };
+                listeners.forEach(listener => listener(error));
+            });
+    }
+
+    /**
+     * Adds a listener for failures of calls made via invokeOneWay().
+     * @param listener Callback to be invoked with a description of each failure.
+     */
+    addOneWayErrorListener(listener: (error: OneWayCallError) => void): void {
+        var listeners = this.oneWayErrorListeners;
+        listeners.push(listener);
+        if (listeners.length === 1) {
+            cordova.exec(
+                function () {
+                    var error: OneWayCallError = arguments[0];
+                    listeners.forEach(listener => listener(error));
+                },
+                function () {
+                    console.log("C3P: Failed to add one-way error listener: " + arguments[0]);
+                },
+                CordovaNativeBridge.serviceName,
+                BridgeCallType[BridgeCallType.addOneWayErrorListener],
+                []);
+        }
+    }
 }
 
 var bridge = new CordovaNativeBridge();
@@ -4,7 +4,7 @@
 import { Promise } from "es6-promise";
 import { NativeModules, NativeAppEventEmitter, EventSubscription } from "react-native";
 import { NativeType, NativeObject, NativeReference } from "../C3P/NativeObject";
-import { NativeAsyncBridge } from "../C3P/NativeBridge";
+import { BridgeCallType, BatchedCall, BatchedCallResult, NativeAsyncBridge, OneWayCallError } from "../C3P/NativeBridge";
 import { Marshaller } from "../C3P/Marshaller";
 import { LoggingNativeAsyncBridge } from "../C3P/LoggingNativeBridge";
 import { EventListenersCollection, EventListenerRecord } from "../C3P/NativeEventListeners";
@@ -21,6 +21,30 @@ class ReactNativeBridge implements NativeAsyncBridge {
      */
     private eventListeners: EventListenersCollection = new EventListenersCollection();
 
+    /**
+     * Promised IDs of native members that were resolved via resolveMember(), keyed by call type and member.
+     * Promises that are rejected are removed.
+     */
+    private memberIds: { [key: string]: Promise<number> } = {};
+
+    /**
+     * Listeners for failures of one-way calls. The native error event is subscribed when the first one is added.
+     */
+    private oneWayErrorListeners: ((error: OneWayCallError) => void)[] = [];
+
+    /**
+     * True if types have been registered that are yet to be sent to the native module.
+     */
+    private typeRegistrationPending: boolean = false;
+
+    constructor() {
+        // Let the native bridge send arrays of marshalled-by-value objects in compact form, which the Marshaller
+        // can decode. Native modules that do not have the method keep sending plain objects.
+        if (typeof (nativeBridge.enableCompactShapes) == "function") {
+            nativeBridge.enableCompactShapes();
+        }
+    }
+
     /**
      * Registers a type as a known bridged type, enabling instances of the type to be automatically
      * constructed from handles or serialized values returned over the bridge.
@@ -29,6 +53,30 @@ class ReactNativeBridge implements NativeAsyncBridge {
      */
     registerType(type: string, constructor: NativeType): void {
         Marshaller.registerType(type, constructor);
+
+        // Types are usually registered together when a plugin's module loads, so send them in a single call.
+        if (!this.typeRegistrationPending && typeof (nativeBridge.registerTypes) == "function") {
+            this.typeRegistrationPending = true;
+            Promise.resolve().then(() => {
+                this.typeRegistrationPending = false;
+                this.registerNativeTypes();
+            });
+        }
+    }
+
+    /**
+     * Sends type IDs to the native module, which then refers to instances of the types by ID instead of by name.
+     * Native modules that do not have the method keep sending the types by name.
+     */
+    private registerNativeTypes(): void {
+        var registration = Marshaller.takeUnregisteredTypes();
+        if (registration) {
+            nativeBridge.registerTypes(registration.firstTypeId, registration.types).then(
+                () => {
+                    Marshaller.confirmRegisteredTypes(registration.firstTypeId, registration.types);
+                },
+                () => { });
+        }
     }
 
     /**
@@ -175,7 +223,7 @@ class ReactNativeBridge implements NativeAsyncBridge {
             if (handle) {
                 handle.then(
                     handleValue => {
-                        nativeBridge.releaseInstance({ type: type, handle: handleValue }).then(
+                        nativeBridge.releaseInstance(Marshaller.marshalReferenceToNative(type, handleValue)).then(
                             (result: any) => {
                                 resolve();
                             },
@@ -192,14 +240,22 @@ class ReactNativeBridge implements NativeAsyncBridge {
      * Gets the value of a property on the native instance.
      * @param instance An instance of a NativeReference subclass that includes a handle to a native instance.
      * @param property Name of the property to get.
+     * @param fieldMask Optional paths of the properties to include when the value is marshalled by value.
      * @returns A promise for the value of the property. The promise may fail with any exceptions thrown by
      * the asynchronous native constructor.
      */
-    getProperty(instance: NativeReference, property: string): Promise<any> {
+    getProperty(instance: NativeReference, property: string, fieldMask?: string[]): Promise<any> {
+        if (!fieldMask && instance.hasCachedProperty(property)) {
+            // A cached value is complete, so it is not used when only some of its fields are requested.
+            return Promise.resolve(instance.getCachedProperty(property));
+        }
+
         return new Promise<number>((resolve, reject) => {
             Marshaller.marshalToNative(instance).then(
                 marshalledInstance => {
-                    nativeBridge.getProperty(marshalledInstance, property).then(
+                    (fieldMask ?
+                        nativeBridge.getPropertyWithFieldMask(marshalledInstance, property, fieldMask) :
+                        nativeBridge.getProperty(marshalledInstance, property)).then(
                         (result: any) => {
                             resolve(Marshaller.marshalFromNative(result));
                         },
@@ -218,19 +274,69 @@ class ReactNativeBridge implements NativeAsyncBridge {
      * the asynchronous native constructor.
      */
     setProperty(instance: NativeReference, property: string, value: any): Promise<void> {
+        instance.updateCachedProperty(property, value);
         return new Promise<void>((resolve, reject) => {
+            var fail = (e: any) => {
+                instance.invalidatePropertyCache(property);
+                reject(e);
+            };
             Marshaller.marshalToNative(instance).then(
                 marshalledInstance => {
                     nativeBridge.setProperty(marshalledInstance, property, [ value ]).then(
                         (result: any) => {
                             resolve();
                         },
+                        fail);
+                },
+                fail);
+        });
+    }
+
+    /**
+     * Gets the values of several properties on the native instance in a single crossing of the bridge.
+     * @param instance An instance of a NativeReference subclass that includes a handle to a native instance.
+     * @param properties Names of the properties to get.
+     * @returns A promise for an object mapping each property name to its value.
+     */
+    getProperties(instance: NativeReference, properties: string[]): Promise<{ [property: string]: any }> {
+        return new Promise<{ [property: string]: any }>((resolve, reject) => {
+            Marshaller.marshalToNative(instance).then(
+                marshalledInstance => {
+                    nativeBridge.getProperties(marshalledInstance, properties).then(
+                        (result: any) => {
+                            resolve(Marshaller.marshalPropertiesFromNative(result));
+                        },
                         reject);
                 },
                 reject);
         });
     }
 
+    /**
+     * Sets the values of several properties on the native instance in a single crossing of the bridge.
+     * @param instance An instance of a NativeReference subclass that includes a handle to a native instance.
+     * @param values Object mapping each property name to the value to set.
+     * @returns A promise for completion of setting the properties.
+     */
+    setProperties(instance: NativeReference, values: { [property: string]: any }): Promise<void> {
+        Object.keys(values).forEach(property => instance.updateCachedProperty(property, values[property]));
+        return new Promise<void>((resolve, reject) => {
+            var fail = (e: any) => {
+                Object.keys(values).forEach(property => instance.invalidatePropertyCache(property));
+                reject(e);
+            };
+            Marshaller.marshalToNative([ instance, values ]).then(
+                marshalledInstanceAndValues => {
+                    nativeBridge.setProperties(marshalledInstanceAndValues[0], marshalledInstanceAndValues[1]).then(
+                        (result: any) => {
+                            resolve();
+                        },
+                        fail);
+                },
+                fail);
+        });
+    }
+
     /**
      * Invokes a method on the native instance.
      * @param instance An instance of a NativeObject subclass that is marshalled-by-value from/to native code,
@@ -241,13 +347,21 @@ class ReactNativeBridge implements NativeAsyncBridge {
      * return type is void. The promise may fail with any exceptions thrown by the asynchronous native constructor
      * or native method.
      */
-    invokeMethod(instance: NativeObject, method: string, args: any[]): Promise<any> {
+    invokeMethod(instance: NativeObject, method: string, args: any[], fieldMask?: string[]): Promise<any> {
+        if (instance instanceof NativeReference) {
+            // The method may change any property.
+            instance.invalidatePropertyCache();
+        }
+
         return new Promise<number>((resolve, reject) => {
             Marshaller.marshalToNative(instance).then(
                 marshalledInstance => {
                     return Marshaller.marshalToNative(args).then(
                         marshalledArgs => {
-                            nativeBridge.invokeMethod(marshalledInstance, method, marshalledArgs).then(
+                            (fieldMask ?
+                                nativeBridge.invokeMethodWithFieldMask(
+                                    marshalledInstance, method, marshalledArgs, fieldMask) :
+                                nativeBridge.invokeMethod(marshalledInstance, method, marshalledArgs)).then(
                                 (result: any) => {
                                     resolve(Marshaller.marshalFromNative(result));
                                 },
@@ -321,6 +435,117 @@ class ReactNativeBridge implements NativeAsyncBridge {
                 reject);
         });
     }
+
+    /**
+     * Resolves a native property, method, or constructor, and gets a compact ID for it.
+     * @param callType Type of call that the member is resolved for.
+     * @param type Full platform-independent type name.
+     * @param member Name of the property or method, or null for a constructor.
+     * @param argCount Number of arguments the method or constructor will be invoked with.
+     * @returns A promise for the member ID.
+     */
+    resolveMember(callType: BridgeCallType, type: string, member: (string | null), argCount: number): Promise<number> {
+        var key: string = BridgeCallType[callType] + ":" + type + "." + member + "/" + argCount;
+        var memberId: Promise<number> = this.memberIds[key];
+        if (!memberId) {
+            memberId = new Promise<number>((resolve, reject) => {
+                nativeBridge.resolveMember(BridgeCallType[callType], type, member, argCount).then(
+                    (result: number) => {
+                        resolve(result);
+                    },
+                    reject);
+            });
+            this.memberIds[key] = memberId;
+
+            // A failed lookup (for example a transient bridge error) is not cached, so a later call tries again.
+            memberId.then(null, () => {
+                if (this.memberIds[key] === memberId) {
+                    delete this.memberIds[key];
+                }
+            });
+        }
+        return memberId;
+    }
+
+    /**
+     * Invokes a native member that was previously resolved via resolveMember().
+     * @param memberId ID of the resolved member.
+     * @param instance Instance to invoke the member on, or null if the member is static or is a constructor.
+     * @param args Arguments to pass to the member.
+     * @returns A promise for the member's return value.
+     */
+    invokeMember(memberId: number, instance: (NativeObject | null), args: any[]): Promise<any> {
+        if (instance instanceof NativeReference) {
+            instance.invalidatePropertyCache();
+        }
+
+        return new Promise<any>((resolve, reject) => {
+            Marshaller.marshalToNative([ instance, args ]).then(
+                marshalledInstanceAndArgs => {
+                    nativeBridge.invokeMember(memberId, marshalledInstanceAndArgs[0], marshalledInstanceAndArgs[1]).then(
+                        (result: any) => {
+                            resolve(Marshaller.marshalFromNative(result));
+                        },
+                        reject);
+                },
+                reject);
+        });
+    }
+
+    /**
+     * Executes a list of calls in a single crossing of the bridge, in order.
+     * @param calls Calls to execute.
+     * @returns A promise for the outcomes of the calls, in the same order as the calls.
+     */
+    batch(calls: BatchedCall[]): Promise<BatchedCallResult[]> {
+        return new Promise<BatchedCallResult[]>((resolve, reject) => {
+            Marshaller.marshalBatchToNative(calls).then(
+                marshalledCalls => {
+                    nativeBridge.batch(marshalledCalls).then(
+                        (results: any[]) => {
+                            resolve(Marshaller.marshalBatchResultsFromNative(results, calls));
+                        },
+                        reject);
+                },
+                reject);
+        });
+    }
+
+    /**
+     * Sets a property or invokes a method without waiting for any response.
+     * @param call The call to make.
+     */
+    invokeOneWay(call: BatchedCall): void {
+        var listeners = this.oneWayErrorListeners;
+        Marshaller.marshalBatchToNative([ call ]).then(
+            marshalledCalls => {
+                nativeBridge.invokeOneWay(marshalledCalls[0]);
+            },
+            (e: any) => {
+                var error: OneWayCallError = {
+                    callType: BridgeCallType[call.callType],
+                    member: call.member || "",
+                    error: (e && e.message) || String(e)
+                };
+                listeners.forEach(listener => listener(error));
+            });
+    }
+
+    /**
+     * Adds a listener for failures of calls made via invokeOneWay().
+     * @param listener Callback to be invoked with a description of each failure.
+     */
+    addOneWayErrorListener(listener: (error: OneWayCallError) => void): void {
+        var listeners = this.oneWayErrorListeners;
+        listeners.push(listener);
+        if (listeners.length === 1) {
+            NativeAppEventEmitter.addListener(
+                "C3P.oneWayError",
+                (error: OneWayCallError) => {
+                    listeners.forEach(listener => listener(error));
+                });
+        }
+    }
 }
 
 var bridge = new ReactNativeBridge();